@@ -0,0 +1,20 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Manifest-declared target of the wake alarm, so it fires even when DisplayActivity (or the whole
+ * process) is gone. Takes the cycle's wake lock before returning, since the alarm only holds the
+ * CPU up for this broadcast, and hands the wake to FetchService.
+ */
+public class AlarmReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        RefreshCycle.get(context).holdCycle("alarm");
+        Intent service = new Intent(context, FetchService.class);
+        service.setAction(RefreshCycle.ALARM_REFRESH_ACTION);
+        context.startService(service);
+    }
+}
@@ -3,6 +3,14 @@ package com.bpmct.trmnl_nook_simple_touch;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 public class ApiPrefs {
     private static final String PREFS_NAME = "trmnl_prefs";
     private static final String KEY_API_ID = "api_id";
@@ -20,54 +28,256 @@ public class ApiPrefs {
     private static final String KEY_ALLOW_HTTP = "allow_http";
     private static final String KEY_ALLOW_SELF_SIGNED_CERTS = "allow_self_signed_certs";
     private static final String KEY_AUTO_DISABLE_WIFI = "auto_disable_wifi";
+    private static final String KEY_SCREEN_OFF_FETCH = "screen_off_fetch";
+    private static final String KEY_SPKI_PINS = "spki_pins";
+    private static final String KEY_TLS_CIPHER_ORDER = "tls_cipher_order";
+    private static final String KEY_WAKE_SPREAD = "wake_spread";
+    private static final String KEY_PREFETCH_DEPTH = "prefetch_depth";
+    private static final String KEY_REFRESH_ALIGN = "refresh_align";
+    private static final String KEY_QUIET_START = "quiet_hours_start";
+    private static final String KEY_QUIET_END = "quiet_hours_end";
+    private static final String KEY_QUIET_IDLE_IMAGE = "quiet_hours_idle_image";
     private static final String KEY_SCREENSAVER_WRITTEN = "screensaver_written_once";
     private static final String SCREENSAVER_PATH = "/media/screensavers/TRMNL/display.png";
 
+    /** Current in-memory view of the prefs file; replaced (never mutated) on every change. */
+    private static volatile Snapshot snapshot;
+    /** Held strongly: SharedPreferences only keeps weak references to its listeners. */
+    private static SharedPreferences.OnSharedPreferenceChangeListener changeListener;
+    /** Writes queued on the writer thread but not yet committed to disk. */
+    private static int pendingWrites = 0;
+    private static ExecutorService writer;
+
+    /**
+     * Immutable copy of every setting, loaded once per process and swapped out when prefs change.
+     * Hot paths (fetch thread, sleep cycle) read fields from here instead of going back to
+     * SharedPreferences for each value.
+     */
+    public static final class Snapshot {
+        public final String apiId;
+        public final String apiToken;
+        public final String apiBaseUrl;
+        public final boolean allowSleep;
+        public final boolean fileLogging;
+        public final boolean giftMode;
+        public final String friendlyDeviceCode;
+        public final String giftFromName;
+        public final String giftToName;
+        public final boolean giftWebSetup;
+        public final String customGiftScreensaverPath;
+        public final boolean allowHttp;
+        public final boolean allowSelfSignedCerts;
+        public final boolean autoDisableWifi;
+        /** Alarm wakes fetch with the screen off and turn it on only to show the image. */
+        public final boolean screenOffFetch;
+        public final boolean screensaverWrittenOnce;
+        /** SPKI SHA-256 pins as entered (empty if none). */
+        public final String spkiPins;
+        /** Parsed pins for the API base URL host, or null when that host uses CA validation. */
+        public final byte[][] spkiPinHashes;
+        /** Host the pins apply to (host of apiBaseUrl). */
+        public final String pinnedHost;
+        /** TLS cipher suite preference order (see TlsCipherSuites). */
+        public final String tlsCipherOrder;
+        /** Stagger fetches over the refresh period by device ID (see WakeStagger). */
+        public final boolean wakeSpread;
+        /** Screens fetched ahead per wake and played from ScreenQueue; 0 = off. */
+        public final int prefetchDepth;
+        /** Snap refresh targets to minutes or interval boundaries (CycleClock.ALIGN_*). */
+        public final String refreshAlign;
+        /** Overnight window with no fetches or radio wakes (see QuietHours). */
+        public final QuietHours quietHours;
+        /** Image written as screensaver during quiet hours, or null to keep the last image. */
+        public final String quietIdleImagePath;
+
+        private final Map values;
+        private final String defaultApiBaseUrl;
+
+        private Snapshot(Map values, String defaultApiBaseUrl) {
+            this.values = values;
+            this.defaultApiBaseUrl = defaultApiBaseUrl;
+            apiId = trimmedOrNull(values.get(KEY_API_ID));
+            apiToken = trimmedOrNull(values.get(KEY_API_TOKEN));
+            String baseUrl = trimmedOrNull(values.get(KEY_API_BASE_URL));
+            apiBaseUrl = baseUrl == null ? defaultApiBaseUrl : normalizeBaseUrl(baseUrl, defaultApiBaseUrl);
+            allowSleep = bool(values.get(KEY_ALLOW_SLEEP), false);
+            fileLogging = bool(values.get(KEY_FILE_LOGGING), false);
+            giftMode = bool(values.get(KEY_GIFT_MODE), false);
+            friendlyDeviceCode = trimmedOrNull(values.get(KEY_FRIENDLY_DEVICE_CODE));
+            giftFromName = trimmedOrNull(values.get(KEY_GIFT_FROM_NAME));
+            giftToName = trimmedOrNull(values.get(KEY_GIFT_TO_NAME));
+            giftWebSetup = bool(values.get(KEY_GIFT_WEB_SETUP), false);
+            Object customPath = values.get(KEY_CUSTOM_GIFT_SCREENSAVER);
+            customGiftScreensaverPath = customPath instanceof String ? (String) customPath : "";
+            allowHttp = bool(values.get(KEY_ALLOW_HTTP), false);
+            allowSelfSignedCerts = bool(values.get(KEY_ALLOW_SELF_SIGNED_CERTS), false);
+            autoDisableWifi = bool(values.get(KEY_AUTO_DISABLE_WIFI), true);
+            screenOffFetch = bool(values.get(KEY_SCREEN_OFF_FETCH), false);
+            screensaverWrittenOnce = bool(values.get(KEY_SCREENSAVER_WRITTEN), false);
+            Object pins = values.get(KEY_SPKI_PINS);
+            spkiPins = pins instanceof String ? ((String) pins).trim() : "";
+            byte[][] parsedPins = null;
+            try {
+                parsedPins = SpkiPins.parse(spkiPins);
+            } catch (IllegalArgumentException e) {
+                // CredentialsActivity validates before saving; if a bad value gets in anyway,
+                // pin to nothing so handshakes fail rather than quietly falling back to CA validation.
+                parsedPins = new byte[0][];
+            }
+            spkiPinHashes = parsedPins;
+            pinnedHost = hostOf(apiBaseUrl);
+            Object cipherOrder = values.get(KEY_TLS_CIPHER_ORDER);
+            tlsCipherOrder = cipherOrder instanceof String ? (String) cipherOrder : TlsCipherSuites.ORDER_CHACHA_FIRST;
+            wakeSpread = bool(values.get(KEY_WAKE_SPREAD), false);
+            prefetchDepth = Math.max(0, Math.min(ScreenQueue.MAX_ENTRIES, integer(values.get(KEY_PREFETCH_DEPTH), 0)));
+            Object align = values.get(KEY_REFRESH_ALIGN);
+            refreshAlign = align instanceof String ? (String) align : CycleClock.ALIGN_NONE;
+            quietHours = new QuietHours(integer(values.get(KEY_QUIET_START), -1), integer(values.get(KEY_QUIET_END), -1));
+            quietIdleImagePath = trimmedOrNull(values.get(KEY_QUIET_IDLE_IMAGE));
+        }
+
+        /** Pins to enforce for a connection to host, or null for normal CA validation. */
+        public byte[][] pinsFor(String host) {
+            if (spkiPinHashes == null || host == null || pinnedHost == null) return null;
+            return pinnedHost.equalsIgnoreCase(host) ? spkiPinHashes : null;
+        }
+
+        private static String hostOf(String url) {
+            try {
+                return new java.net.URL(url).getHost();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        public boolean hasCredentials() {
+            return apiId != null && apiToken != null;
+        }
+
+        private static String trimmedOrNull(Object value) {
+            if (!(value instanceof String)) return null;
+            String s = ((String) value).trim();
+            return s.length() == 0 ? null : s;
+        }
+
+        private static boolean bool(Object value, boolean defaultValue) {
+            return value instanceof Boolean ? ((Boolean) value).booleanValue() : defaultValue;
+        }
+
+        private static int integer(Object value, int defaultValue) {
+            if (!(value instanceof String)) return defaultValue;
+            try {
+                return Integer.parseInt(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /** Returns the current settings snapshot, loading it (and registering the change listener) on first use. */
+    public static Snapshot getSnapshot(Context context) {
+        Snapshot s = snapshot;
+        if (s != null) return s;
+        synchronized (ApiPrefs.class) {
+            if (snapshot == null) {
+                Context app = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                final String defaultBaseUrl = getDefaultApiBaseUrl(app);
+                SharedPreferences prefs = app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                snapshot = new Snapshot(new HashMap(prefs.getAll()), defaultBaseUrl);
+                changeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    public void onSharedPreferenceChanged(SharedPreferences changed, String key) {
+                        synchronized (ApiPrefs.class) {
+                            // Our own writes already updated the snapshot; reloading mid-queue
+                            // could briefly resurrect a value that a later queued write replaces.
+                            if (pendingWrites > 0) return;
+                            snapshot = new Snapshot(new HashMap(changed.getAll()), defaultBaseUrl);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(changeListener);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Applies changes to the in-memory snapshot immediately and commits them on a background thread.
+     * commit() is a blocking fsync on API 7 and apply() does not exist yet, so the UI thread never waits
+     * on disk. Writes are committed in order by a single writer thread.
+     */
+    private static void persist(Context context, final Hashtable changes) {
+        final Context app = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        synchronized (ApiPrefs.class) {
+            Snapshot current = getSnapshot(app);
+            HashMap merged = new HashMap(current.values);
+            merged.putAll(changes);
+            snapshot = new Snapshot(merged, current.defaultApiBaseUrl);
+            pendingWrites++;
+            if (writer == null) {
+                writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ApiPrefs-writer");
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+            }
+        }
+        writer.execute(new Runnable() {
+            public void run() {
+                try {
+                    SharedPreferences.Editor editor = app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+                    Enumeration keys = changes.keys();
+                    while (keys.hasMoreElements()) {
+                        String key = (String) keys.nextElement();
+                        Object value = changes.get(key);
+                        if (value instanceof Boolean) {
+                            editor.putBoolean(key, ((Boolean) value).booleanValue());
+                        } else {
+                            editor.putString(key, value.toString());
+                        }
+                    }
+                    editor.commit();
+                } finally {
+                    synchronized (ApiPrefs.class) {
+                        pendingWrites--;
+                    }
+                }
+            }
+        });
+    }
+
+    private static void persist(Context context, String key, Object value) {
+        Hashtable changes = new Hashtable();
+        changes.put(key, value);
+        persist(context, changes);
+    }
+
     public static boolean hasCredentials(Context context) {
-        return getApiId(context) != null && getApiToken(context) != null;
+        return getSnapshot(context).hasCredentials();
     }
 
     public static String getApiId(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_API_ID, null);
-        if (value == null || value.trim().length() == 0) return null;
-        return value.trim();
+        return getSnapshot(context).apiId;
     }
 
     public static String getApiToken(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_API_TOKEN, null);
-        if (value == null || value.trim().length() == 0) return null;
-        return value.trim();
+        return getSnapshot(context).apiToken;
     }
 
     public static void saveCredentials(Context context, String apiId, String apiToken) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit()
-                .putString(KEY_API_ID, apiId != null ? apiId.trim() : "")
-                .putString(KEY_API_TOKEN, apiToken != null ? apiToken.trim() : "")
-                .commit();
+        Hashtable changes = new Hashtable();
+        changes.put(KEY_API_ID, apiId != null ? apiId.trim() : "");
+        changes.put(KEY_API_TOKEN, apiToken != null ? apiToken.trim() : "");
+        persist(context, changes);
     }
 
     public static String getApiBaseUrl(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_API_BASE_URL, null);
-        if (value == null || value.trim().length() == 0) {
-            return getDefaultApiBaseUrl(context);
-        }
-        String normalized = normalizeBaseUrl(value, getDefaultApiBaseUrl(context));
-        if (!normalized.equals(value.trim())) {
-            prefs.edit().putString(KEY_API_BASE_URL, normalized).commit();
-        }
-        return normalized;
+        return getSnapshot(context).apiBaseUrl;
     }
 
     public static void saveApiBaseUrl(Context context, String baseUrl) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = normalizeBaseUrl(baseUrl, getDefaultApiBaseUrl(context));
-        prefs.edit()
-                .putString(KEY_API_BASE_URL, value)
-                .commit();
+        persist(context, KEY_API_BASE_URL, normalizeBaseUrl(baseUrl, getDefaultApiBaseUrl(context)));
     }
 
     public static String getDefaultApiBaseUrl(Context context) {
@@ -100,23 +310,19 @@ public class ApiPrefs {
 
     /** Whether the device may sleep between display updates (Electric-Sign-style). Default true. */
     public static boolean isAllowSleep(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_ALLOW_SLEEP, false);
+        return getSnapshot(context).allowSleep;
     }
 
     public static void setAllowSleep(Context context, boolean allow) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_ALLOW_SLEEP, allow).commit();
+        persist(context, KEY_ALLOW_SLEEP, Boolean.valueOf(allow));
     }
 
     public static boolean isFileLoggingEnabled(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_FILE_LOGGING, false);
+        return getSnapshot(context).fileLogging;
     }
 
     public static void setFileLoggingEnabled(Context context, boolean enabled) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_FILE_LOGGING, enabled).commit();
+        persist(context, KEY_FILE_LOGGING, Boolean.valueOf(enabled));
     }
 
     /** File path for screensaver image (hardcoded for NOOK). */
@@ -125,114 +331,162 @@ public class ApiPrefs {
     }
 
     public static boolean isGiftModeEnabled(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_GIFT_MODE, false);
+        return getSnapshot(context).giftMode;
     }
 
     public static void setGiftModeEnabled(Context context, boolean enabled) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_GIFT_MODE, enabled).commit();
+        persist(context, KEY_GIFT_MODE, Boolean.valueOf(enabled));
     }
 
     public static String getFriendlyDeviceCode(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_FRIENDLY_DEVICE_CODE, null);
-        if (value == null || value.trim().length() == 0) return null;
-        return value.trim();
+        return getSnapshot(context).friendlyDeviceCode;
     }
 
     public static void saveFriendlyDeviceCode(Context context, String code) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString(KEY_FRIENDLY_DEVICE_CODE, code != null ? code.trim() : "").commit();
+        persist(context, KEY_FRIENDLY_DEVICE_CODE, code != null ? code.trim() : "");
     }
 
     public static String getGiftFromName(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_GIFT_FROM_NAME, null);
-        if (value == null || value.trim().length() == 0) return null;
-        return value.trim();
+        return getSnapshot(context).giftFromName;
     }
 
     public static void saveGiftFromName(Context context, String name) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString(KEY_GIFT_FROM_NAME, name != null ? name.trim() : "").commit();
+        persist(context, KEY_GIFT_FROM_NAME, name != null ? name.trim() : "");
     }
 
     public static String getGiftToName(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String value = prefs.getString(KEY_GIFT_TO_NAME, null);
-        if (value == null || value.trim().length() == 0) return null;
-        return value.trim();
+        return getSnapshot(context).giftToName;
     }
 
     public static void saveGiftToName(Context context, String name) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString(KEY_GIFT_TO_NAME, name != null ? name.trim() : "").commit();
+        persist(context, KEY_GIFT_TO_NAME, name != null ? name.trim() : "");
     }
 
     /** Whether gift mode should show web-based setup URL instead of manual steps. */
     public static boolean isGiftWebSetup(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_GIFT_WEB_SETUP, false);
+        return getSnapshot(context).giftWebSetup;
     }
 
     public static void setGiftWebSetup(Context context, boolean enabled) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_GIFT_WEB_SETUP, enabled).commit();
+        persist(context, KEY_GIFT_WEB_SETUP, Boolean.valueOf(enabled));
     }
 
     /** Custom gift mode screensaver image path on device (e.g. /media/My Files/gift.png). */
     public static String getCustomGiftScreensaverPath(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getString(KEY_CUSTOM_GIFT_SCREENSAVER, "");
+        return getSnapshot(context).customGiftScreensaverPath;
     }
 
     public static void setCustomGiftScreensaverPath(Context context, String path) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString(KEY_CUSTOM_GIFT_SCREENSAVER, path != null ? path.trim() : "").commit();
+        persist(context, KEY_CUSTOM_GIFT_SCREENSAVER, path != null ? path.trim() : "");
     }
 
     /** Whether to allow HTTP (non-HTTPS) connections. Default false. */
     public static boolean isAllowHttp(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_ALLOW_HTTP, false);
+        return getSnapshot(context).allowHttp;
     }
 
     public static void setAllowHttp(Context context, boolean allow) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_ALLOW_HTTP, allow).commit();
+        persist(context, KEY_ALLOW_HTTP, Boolean.valueOf(allow));
     }
 
     /** Whether to allow self-signed certificates. Default false. */
     public static boolean isAllowSelfSignedCerts(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_ALLOW_SELF_SIGNED_CERTS, false);
+        return getSnapshot(context).allowSelfSignedCerts;
     }
 
     public static void setAllowSelfSignedCerts(Context context, boolean allow) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_ALLOW_SELF_SIGNED_CERTS, allow).commit();
+        persist(context, KEY_ALLOW_SELF_SIGNED_CERTS, Boolean.valueOf(allow));
+    }
+
+    /** SPKI SHA-256 pins for the API server (see SpkiPins); empty string if CA validation is used. */
+    public static String getSpkiPins(Context context) {
+        return getSnapshot(context).spkiPins;
+    }
+
+    public static void saveSpkiPins(Context context, String pins) {
+        persist(context, KEY_SPKI_PINS, pins != null ? pins.trim() : "");
+    }
+
+    /** Whether TLS offers ChaCha20-Poly1305 before AES-GCM. Default true (faster without AES hardware). */
+    public static boolean isPreferChaCha(Context context) {
+        return !TlsCipherSuites.ORDER_AES_FIRST.equals(getSnapshot(context).tlsCipherOrder);
+    }
+
+    public static void setPreferChaCha(Context context, boolean prefer) {
+        persist(context, KEY_TLS_CIPHER_ORDER,
+                prefer ? TlsCipherSuites.ORDER_CHACHA_FIRST : TlsCipherSuites.ORDER_AES_FIRST);
+    }
+
+    /** Whether fetches are staggered by device ID (see WakeStagger). Default false. */
+    public static boolean isWakeSpread(Context context) {
+        return getSnapshot(context).wakeSpread;
+    }
+
+    public static void setWakeSpread(Context context, boolean enabled) {
+        persist(context, KEY_WAKE_SPREAD, Boolean.valueOf(enabled));
+    }
+
+    /** Screens to prefetch per wake (0 = off, at most ScreenQueue.MAX_ENTRIES). */
+    public static int getPrefetchDepth(Context context) {
+        return getSnapshot(context).prefetchDepth;
+    }
+
+    public static void setPrefetchDepth(Context context, int depth) {
+        persist(context, KEY_PREFETCH_DEPTH, String.valueOf(Math.max(0, depth)));
+    }
+
+    public static String getRefreshAlign(Context context) {
+        return getSnapshot(context).refreshAlign;
+    }
+
+    public static void setRefreshAlign(Context context, String align) {
+        persist(context, KEY_REFRESH_ALIGN, align != null ? align : CycleClock.ALIGN_NONE);
+    }
+
+    public static QuietHours getQuietHours(Context context) {
+        return getSnapshot(context).quietHours;
+    }
+
+    /** Saves the quiet-hours window as minutes after midnight; -1 turns it off. */
+    public static void setQuietHours(Context context, int startMinute, int endMinute) {
+        Hashtable changes = new Hashtable();
+        changes.put(KEY_QUIET_START, String.valueOf(startMinute));
+        changes.put(KEY_QUIET_END, String.valueOf(endMinute));
+        persist(context, changes);
+    }
+
+    public static String getQuietIdleImagePath(Context context) {
+        return getSnapshot(context).quietIdleImagePath;
+    }
+
+    public static void setQuietIdleImagePath(Context context, String path) {
+        persist(context, KEY_QUIET_IDLE_IMAGE, path != null ? path.trim() : "");
     }
 
     /** Whether to auto-disable WiFi between fetches for battery saving. Default true. */
     public static boolean isAutoDisableWifi(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_AUTO_DISABLE_WIFI, true);
+        return getSnapshot(context).autoDisableWifi;
     }
 
     public static void setAutoDisableWifi(Context context, boolean enabled) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_AUTO_DISABLE_WIFI, enabled).commit();
+        persist(context, KEY_AUTO_DISABLE_WIFI, Boolean.valueOf(enabled));
+    }
+
+    /** Whether alarm wakes fetch with the screen off (see RefreshCycle). Default false. */
+    public static boolean isScreenOffFetch(Context context) {
+        return getSnapshot(context).screenOffFetch;
+    }
+
+    public static void setScreenOffFetch(Context context, boolean enabled) {
+        persist(context, KEY_SCREEN_OFF_FETCH, Boolean.valueOf(enabled));
     }
 
     /** Whether the initial screensaver has been written to disk at least once. */
     public static boolean isScreensaverWrittenOnce(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getBoolean(KEY_SCREENSAVER_WRITTEN, false);
+        return getSnapshot(context).screensaverWrittenOnce;
     }
 
     public static void setScreensaverWrittenOnce(Context context, boolean written) {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean(KEY_SCREENSAVER_WRITTEN, written).commit();
+        persist(context, KEY_SCREENSAVER_WRITTEN, Boolean.valueOf(written));
     }
 }
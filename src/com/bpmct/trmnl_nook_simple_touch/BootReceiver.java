@@ -0,0 +1,17 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Restarts the refresh loop after a reboot or battery swap, which clears every pending alarm.
+ * RefreshCycle restores the saved schedule (see ScheduleRecord) and brings the display back up.
+ */
+public class BootReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent == null || !Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) return;
+        RefreshCycle.get(context).onBoot();
+    }
+}
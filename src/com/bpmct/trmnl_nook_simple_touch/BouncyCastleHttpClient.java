@@ -4,30 +4,28 @@ import android.content.Context;
 import android.util.Log;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.net.InetAddress;
 import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.cert.CertificateFactory;
-import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Vector;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
-import javax.security.auth.x500.X500Principal;
 
 import org.spongycastle.tls.AlertDescription;
 import org.spongycastle.tls.CertificateRequest;
-import org.spongycastle.tls.CipherSuite;
 import org.spongycastle.tls.DefaultTlsClient;
 import org.spongycastle.tls.NameType;
+import org.spongycastle.tls.NamedGroup;
 import org.spongycastle.tls.ProtocolVersion;
 import org.spongycastle.tls.ServerName;
 import org.spongycastle.tls.ServerNameList;
@@ -36,15 +34,10 @@ import org.spongycastle.tls.TlsClientProtocol;
 import org.spongycastle.tls.TlsCredentials;
 import org.spongycastle.tls.TlsFatalAlert;
 import org.spongycastle.tls.TlsServerCertificate;
+import org.spongycastle.tls.TlsSession;
 import org.spongycastle.tls.TlsExtensionsUtils;
 import org.spongycastle.tls.crypto.impl.bc.BcTlsCrypto;
 import org.spongycastle.tls.crypto.TlsCertificate;
-import org.spongycastle.asn1.ASN1InputStream;
-import org.spongycastle.asn1.ASN1OctetString;
-import org.spongycastle.asn1.ASN1Primitive;
-import org.spongycastle.asn1.DERIA5String;
-import org.spongycastle.asn1.x509.GeneralName;
-import org.spongycastle.asn1.x509.GeneralNames;
 
 /**
  * HTTP client using BouncyCastle/SpongyCastle TLS for TLS 1.2 support on Android 2.1.
@@ -56,12 +49,34 @@ import org.spongycastle.asn1.x509.GeneralNames;
  * - spongycastle-prov-1.58.0.0.jar
  * - spongycastle-bctls-jdk15on-1.58.0.0.jar
  *
- * Requires a CA bundle at res/raw/ca_bundle.pem
+ * Requires the trust index at res/raw/trust_index.bin (built from res/raw/ca_bundle.pem by
+ * tools/build-trust-index.py); the PEM bundle is only parsed if the index cannot be loaded.
  */
 public class BouncyCastleHttpClient {
     private static final String TAG = "BCHttpClient";
     private static final boolean bcAvailable = true;
     private static X509TrustManager trustManager = null;
+    private static TrustAnchorIndex trustAnchors = null;
+    private static boolean trustAnchorsFailed = false;
+    private static CertValidationCache certCache = null;
+    private static PrewarmedTlsCrypto sharedCrypto = null;
+    private static Thread warmupThread = null;
+    /** Device clock vs the servers' Date headers, updated from every response. */
+    private static final ServerClock serverClock = new ServerClock();
+    /** Resumable TLS sessions by sessionKey(); offered on the next handshake to the same server. */
+    private static final Hashtable tlsSessions = new Hashtable();
+    /** Servers drop session IDs from their caches after a while; don't offer older ones. */
+    private static final long TLS_SESSION_MAX_AGE_MS = 60 * 60 * 1000;
+
+    private static final class CachedSession {
+        final TlsSession session;
+        final long storedAt;
+
+        CachedSession(TlsSession session, long storedAt) {
+            this.session = session;
+            this.storedAt = storedAt;
+        }
+    }
 
     /** Log request/response details, omitting sensitive headers */
     private static void logRequest(String method, String url, Hashtable headers) {
@@ -88,19 +103,27 @@ public class BouncyCastleHttpClient {
         FileLogger.d(TAG, sb.toString());
     }
 
-    private static void logResponse(String url, int statusCode, String reason, int bodyLen, String body) {
-        String msg = "RESPONSE: " + url + " -> " + statusCode + " " + reason + " (" + bodyLen + " bytes)";
+    /** Logs the status line; for text bodies also up to 2KB of the body, decoded straight from the response buffer. */
+    private static void logResponse(HttpResponse response, boolean text) {
+        String msg = "RESPONSE: " + response.url + " -> " + response.status + " "
+                + (response.reason != null ? response.reason : "") + " (" + response.bodyLength + " bytes"
+                + (text ? ")" : ", binary)");
         Log.d(TAG, msg);
         FileLogger.d(TAG, msg);
-        if (body != null && body.length() > 0) {
-            // Truncate body for logging (max 2KB)
-            String bodyLog = body.length() > 2048 ? body.substring(0, 2048) + "...[truncated]" : body;
+        if (text && response.bodyLength > 0 && FileLogger.isEnabled()) {
+            String bodyLog = response.bodyText(2048);
+            if (response.bodyLength > 2048) bodyLog += "...[truncated]";
             FileLogger.d(TAG, "RESPONSE BODY: " + bodyLog);
         }
     }
 
-    private static void logResponseBytes(String url, int statusCode, String reason, int bodyLen) {
-        String msg = "RESPONSE: " + url + " -> " + statusCode + " " + reason + " (" + bodyLen + " bytes, binary)";
+    /** Records bytes on the wire versus decoded size for compressed text responses. */
+    private static void logBodyEncoding(String url, String contentEncoding, long wireBytes, int decodedBytes) {
+        if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+            return;
+        }
+        String msg = "RESPONSE ENCODING: " + url + " " + contentEncoding + " " + wireBytes
+                + " bytes on wire -> " + decodedBytes + " decoded";
         Log.d(TAG, msg);
         FileLogger.d(TAG, msg);
     }
@@ -114,240 +137,55 @@ public class BouncyCastleHttpClient {
     public static boolean isAvailable() {
         return bcAvailable;
     }
-    
-    /**
-     * Makes an HTTPS GET request using BouncyCastle TLS.
-     * Returns response body as string, or error message on failure.
-     * If allowHttp is enabled and URL is http://, uses plain HTTP.
-     */
-    public static String getHttps(Context context, String url, Hashtable headers) {
-        try {
-            // Check for plain HTTP
-            if (url != null && url.toLowerCase().startsWith("http://")) {
-                if (context != null && ApiPrefs.isAllowHttp(context)) {
-                    return getHttpImpl(context, url, headers);
-                } else {
-                    return "Error: HTTP not allowed (enable in Settings → Network)";
-                }
-            }
-            return getHttpsImpl(context, url, headers);
-        } catch (Throwable t) {
-            Log.e(TAG, "BouncyCastle HTTPS failed", t);
-            // Get full error message including class name
-            String errorMsg = t.getClass().getSimpleName();
-            if (t.getMessage() != null) {
-                errorMsg += ": " + t.getMessage();
-            }
-            // Log full stack trace
-            java.io.StringWriter sw = new java.io.StringWriter();
-            java.io.PrintWriter pw = new java.io.PrintWriter(sw);
-            t.printStackTrace(pw);
-            Log.e(TAG, "BC full stack trace:\n" + sw.toString());
-            return "Error: " + errorMsg;
-        }
-    }
-
-    public static String getHttps(Context context, String url) {
-        return getHttps(context, url, null);
-    }
 
-    public static String getHttps(String url) {
-        return getHttps(null, url, null);
+    static ServerClock serverClock() {
+        return serverClock;
     }
 
     /**
-     * Makes an HTTPS GET request and returns raw bytes (e.g., images).
-     * Returns null on failure.
-     * If allowHttp is enabled and URL is http://, uses plain HTTP.
+     * Makes a GET request over BouncyCastle TLS (or plain HTTP for http:// URLs when allowHttp is on).
+     * Never throws: failures come back as a typed {@link HttpResponse}.
+     *
+     * @param text true for JSON/text requests: advertises gzip/deflate and logs the body.
+     *             Image requests pass false and are fetched as-is.
+     * @param buffer optional reusable body buffer; when given, the response body is a slice of its
+     *               array and is only valid until the buffer is used again
      */
-    public static byte[] getHttpsBytes(Context context, String url, Hashtable headers) {
+    static HttpResponse get(Context context, ApiPrefs.Snapshot prefs, String url, Hashtable headers,
+            boolean text, HttpBodyStreams.Buffer buffer) {
+        HttpResponse response;
         try {
-            // Check for plain HTTP
-            if (url != null && url.toLowerCase().startsWith("http://")) {
-                if (context != null && ApiPrefs.isAllowHttp(context)) {
-                    return getHttpBytesImpl(context, url, headers);
-                } else {
-                    Log.e(TAG, "HTTP not allowed for: " + url);
-                    return null;
-                }
-            }
-            return getHttpsBytesImpl(context, url, headers);
+            response = request(context, prefs, url, headers, text, buffer);
         } catch (Throwable t) {
-            Log.e(TAG, "BouncyCastle HTTPS bytes failed", t);
-            String errorMsg = t.getClass().getSimpleName();
-            if (t.getMessage() != null) errorMsg += ": " + t.getMessage();
-            logResponseError(url, errorMsg + " (bytes)");
-            return null;
+            Log.e(TAG, "BouncyCastle request failed", t);
+            response = HttpResponse.failure(url, HttpResponse.ERROR_NETWORK, null, t);
         }
+        if (response.error != HttpResponse.OK) {
+            logResponseError(url, response.describe() + (text ? "" : " (bytes)"));
+        }
+        return response;
     }
 
-    public static byte[] getHttpsBytes(Context context, String url) {
-        return getHttpsBytes(context, url, null);
-    }
-    
-    private static String getHttpsImpl(Context context, String url, Hashtable headers) throws Exception {
-        // Parse URL
-        java.net.URL u = new java.net.URL(url);
-        String host = u.getHost();
-        int port = u.getPort() > 0 ? u.getPort() : 443;
-        String path = u.getPath();
-        if (path == null || path.length() == 0) {
-            path = "/";
-        }
-        if (u.getQuery() != null) {
-            path += "?" + u.getQuery();
-        }
-        
-        Log.d(TAG, "BC connecting to " + host + ":" + port + path);
-        
-        // Create socket with connection timeout
-        Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(host, port), 20000);
-        socket.setSoTimeout(20000);
-        
+    private static HttpResponse request(Context context, ApiPrefs.Snapshot prefs, String url, Hashtable headers,
+            boolean text, HttpBodyStreams.Buffer buffer) throws IOException {
+        java.net.URL u;
         try {
-            // Create TLS client protocol (SpongyCastle 1.58 uses 2-arg constructor)
-            TlsClientProtocol tlsProtocol = new TlsClientProtocol(
-                    socket.getInputStream(), socket.getOutputStream());
-            Log.d(TAG, "BC created TlsClientProtocol instance");
-
-            // Create TLS client (CA-validated unless self-signed certs allowed)
-            boolean allowSelfSigned = context != null && ApiPrefs.isAllowSelfSignedCerts(context);
-            X509TrustManager tm = allowSelfSigned ? null : getTrustManager(context);
-            if (tm == null && !allowSelfSigned) {
-                return "Error: CA bundle not available (res/raw/ca_bundle.pem)";
-            }
-            DefaultTlsClient tlsClient = createTlsClient(host, tm, allowSelfSigned);
-
-            // Connect
-            tlsProtocol.connect(tlsClient);
-            
-            Log.d(TAG, "BC TLS handshake successful");
-            
-            // Get streams
-            OutputStream tlsOut = tlsProtocol.getOutputStream();
-            InputStream tlsIn = tlsProtocol.getInputStream();
-            
-            // Send HTTP request
-            logRequest("GET", url, headers);
-            PrintWriter writer = new PrintWriter(tlsOut, true);
-            writer.print("GET " + path + " HTTP/1.1\r\n");
-            writeHeaders(writer, headers, host, port, true);
-            writer.print("\r\n");
-            writer.flush();
-            
-            // Read HTTP response
-            String statusLine = readAsciiLine(tlsIn);
-            if (statusLine == null) {
-                logResponseError(url, "No response from server");
-                return "Error: No response from server";
-            }
-            
-            Log.d(TAG, "BC response: " + statusLine);
-            
-            // Parse status code
-            int statusCode = 0;
-            try {
-                String[] parts = statusLine.split(" ");
-                if (parts.length >= 2) {
-                    statusCode = Integer.parseInt(parts[1]);
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
-            
-            // Read headers until blank line
-            String line;
-            int contentLength = -1;
-            boolean chunked = false;
-            while ((line = readAsciiLine(tlsIn)) != null) {
-                if (line.length() == 0) break;
-                String lower = line.toLowerCase();
-                if (lower.startsWith("content-length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring(15).trim());
-                    } catch (Exception e) {
-                        // Ignore
-                    }
-                } else if (lower.startsWith("transfer-encoding:") && lower.indexOf("chunked") != -1) {
-                    chunked = true;
-                }
-            }
-            
-            // Read body (bytes first, then decode)
-            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
-            if (chunked) {
-                while (true) {
-                    String sizeLine = readAsciiLine(tlsIn);
-                    if (sizeLine == null) break;
-                    int semicolon = sizeLine.indexOf(';');
-                    if (semicolon > 0) {
-                        sizeLine = sizeLine.substring(0, semicolon);
-                    }
-                    int size = 0;
-                    try {
-                        size = Integer.parseInt(sizeLine.trim(), 16);
-                    } catch (Exception e) {
-                        return "Error: Invalid chunk size";
-                    }
-                    if (size <= 0) {
-                        // Consume trailing headers after last chunk
-                        while ((line = readAsciiLine(tlsIn)) != null && line.length() > 0) {
-                            // Ignore
-                        }
-                        break;
-                    }
-                    int remaining = size;
-                    byte[] buf = new byte[8192];
-                    while (remaining > 0) {
-                        int n = tlsIn.read(buf, 0, Math.min(buf.length, remaining));
-                        if (n <= 0) break;
-                        bodyBytes.write(buf, 0, n);
-                        remaining -= n;
-                    }
-                    // Consume CRLF after chunk
-                    readAsciiLine(tlsIn);
-                }
-            } else if (contentLength > 0) {
-                byte[] buf = new byte[8192];
-                int total = 0;
-                while (total < contentLength) {
-                    int n = tlsIn.read(buf, 0, Math.min(buf.length, contentLength - total));
-                    if (n <= 0) break;
-                    bodyBytes.write(buf, 0, n);
-                    total += n;
-                }
-            } else {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = tlsIn.read(buf)) > 0) {
-                    bodyBytes.write(buf, 0, n);
-                }
-            }
-            String body = new String(bodyBytes.toByteArray(), "UTF-8");
-            
-            if (statusCode >= 200 && statusCode < 300) {
-                logResponse(url, statusCode, "OK", body.length(), body);
-                Log.d(TAG, "BC got " + body.length() + " chars");
-                return body;
-            } else {
-                logResponseError(url, "HTTP " + statusCode);
-                return "Error: HTTP " + statusCode + " " + body;
+            u = new java.net.URL(url);
+        } catch (java.net.MalformedURLException e) {
+            return HttpResponse.failure(url, HttpResponse.ERROR_REQUEST, "Invalid URL: " + url, e);
+        }
+        boolean https = "https".equalsIgnoreCase(u.getProtocol());
+        if (!https) {
+            if (!"http".equalsIgnoreCase(u.getProtocol())) {
+                return HttpResponse.failure(url, HttpResponse.ERROR_REQUEST, "Unsupported URL: " + url, null);
             }
-            
-        } finally {
-            try {
-                socket.close();
-            } catch (Exception e) {
-                // Ignore
+            if (prefs == null || !prefs.allowHttp) {
+                return HttpResponse.failure(url, HttpResponse.ERROR_REQUEST,
+                        "HTTP not allowed (enable in Settings → Network)", null);
             }
         }
-    }
-
-    private static byte[] getHttpsBytesImpl(Context context, String url, Hashtable headers) throws Exception {
-        java.net.URL u = new java.net.URL(url);
         String host = u.getHost();
-        int port = u.getPort() > 0 ? u.getPort() : 443;
+        int port = u.getPort() > 0 ? u.getPort() : (https ? 443 : 80);
         String path = u.getPath();
         if (path == null || path.length() == 0) {
             path = "/";
@@ -355,142 +193,70 @@ public class BouncyCastleHttpClient {
         if (u.getQuery() != null) {
             path += "?" + u.getQuery();
         }
+        String label = (https ? "BC" : "HTTP") + (text ? "" : " (bytes)");
 
-        Log.d(TAG, "BC connecting (bytes) to " + host + ":" + port + path);
+        // Resolve trust before opening the socket so a missing store costs no network time.
+        boolean allowSelfSigned = prefs != null && prefs.allowSelfSignedCerts;
+        // Pinned server: the pins are the whole trust decision, so no anchors are loaded.
+        byte[][] pins = https && prefs != null ? prefs.pinsFor(host) : null;
+        boolean skipCa = !https || allowSelfSigned || pins != null;
+        TrustAnchorIndex anchors = skipCa ? null : getTrustAnchors(context);
+        X509TrustManager tm = (skipCa || anchors != null) ? null : getTrustManager(context);
+        if (anchors == null && tm == null && !skipCa) {
+            return HttpResponse.failure(url, HttpResponse.ERROR_REQUEST,
+                    "CA bundle not available (res/raw/ca_bundle.pem)", null);
+        }
 
+        Log.d(TAG, label + " connecting to " + host + ":" + port + path);
         Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(host, port), 20000);
-        socket.setSoTimeout(20000);
         try {
-            TlsClientProtocol tlsProtocol = new TlsClientProtocol(
-                    socket.getInputStream(), socket.getOutputStream());
-            Log.d(TAG, "BC created TlsClientProtocol instance (bytes)");
-
-            boolean allowSelfSigned = context != null && ApiPrefs.isAllowSelfSignedCerts(context);
-            X509TrustManager tm = allowSelfSigned ? null : getTrustManager(context);
-            if (tm == null && !allowSelfSigned) {
-                Log.e(TAG, "BC CA bundle not available for bytes request");
-                return null;
-            }
-            DefaultTlsClient tlsClient = createTlsClient(host, tm, allowSelfSigned);
-
-            tlsProtocol.connect(tlsClient);
-            Log.d(TAG, "BC TLS handshake successful (bytes)");
-
-            OutputStream tlsOut = tlsProtocol.getOutputStream();
-            InputStream tlsIn = tlsProtocol.getInputStream();
-
-            logRequest("GET", url, headers);
-            PrintWriter writer = new PrintWriter(tlsOut, true);
-            writer.print("GET " + path + " HTTP/1.1\r\n");
-            writeHeaders(writer, headers, host, port, true);
-            writer.print("\r\n");
-            writer.flush();
-
-            String statusLine = readAsciiLine(tlsIn);
-            if (statusLine == null) {
-                logResponseError(url, "No response from server (bytes)");
-                Log.e(TAG, "BC bytes: no response from server");
-                return null;
-            }
-
-            int statusCode = 0;
-            try {
-                String[] parts = statusLine.split(" ");
-                if (parts.length >= 2) {
-                    statusCode = Integer.parseInt(parts[1]);
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
-
-            String line;
-            int contentLength = -1;
-            while ((line = readAsciiLine(tlsIn)) != null) {
-                if (line.length() == 0) break;
-                if (line.toLowerCase().startsWith("content-length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring(15).trim());
-                    } catch (Exception e) {
-                        // Ignore
-                    }
-                }
-            }
-
-            if (statusCode < 200 || statusCode >= 300) {
-                logResponseError(url, "HTTP " + statusCode + " (bytes)");
-                Log.e(TAG, "BC bytes: HTTP " + statusCode);
-                return null;
-            }
+            socket.connect(new java.net.InetSocketAddress(host, port), 20000);
+            socket.setSoTimeout(20000);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return HttpResponse.failure(url, HttpResponse.ERROR_NETWORK, null, e);
+        }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            if (contentLength > 0) {
-                byte[] buf = new byte[8192];
-                int total = 0;
-                while (total < contentLength) {
-                    int n = tlsIn.read(buf, 0, Math.min(buf.length, contentLength - total));
-                    if (n <= 0) break;
-                    baos.write(buf, 0, n);
-                    total += n;
+        try {
+            InputStream in;
+            OutputStream out;
+            if (https) {
+                // SpongyCastle 1.58 uses the 2-arg (blocking) constructor
+                TlsClientProtocol tlsProtocol = new TlsClientProtocol(
+                        socket.getInputStream(), socket.getOutputStream());
+                CertValidationCache cache = (allowSelfSigned || pins != null) ? null : getCertCache(context, anchors);
+                String sessionKey = sessionKey(host, port, pins, allowSelfSigned);
+                DefaultTlsClient tlsClient = createTlsClient(host, pins, anchors, tm, cache, allowSelfSigned,
+                        TlsCipherSuites.forOrder(prefs != null ? prefs.tlsCipherOrder : null), sessionKey);
+                try {
+                    tlsProtocol.connect(tlsClient);
+                } catch (IOException e) {
+                    Log.e(TAG, "BC TLS handshake failed", e);
+                    tlsSessions.remove(sessionKey);
+                    return HttpResponse.failure(url, HttpResponse.ERROR_TLS, null, e);
                 }
+                Log.d(TAG, "BC TLS handshake successful" + (text ? "" : " (bytes)"));
+                in = tlsProtocol.getInputStream();
+                out = tlsProtocol.getOutputStream();
             } else {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = tlsIn.read(buf)) > 0) {
-                    baos.write(buf, 0, n);
-                }
+                in = socket.getInputStream();
+                out = socket.getOutputStream();
             }
 
-            byte[] result = baos.toByteArray();
-            logResponseBytes(url, statusCode, "OK", result.length);
-            return result;
-        } finally {
-            try {
-                socket.close();
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
-    }
-
-    /**
-     * Plain HTTP GET request (no TLS). Only used when allowHttp setting is enabled.
-     */
-    private static String getHttpImpl(Context context, String url, Hashtable headers) throws Exception {
-        java.net.URL u = new java.net.URL(url);
-        String host = u.getHost();
-        int port = u.getPort() > 0 ? u.getPort() : 80;
-        String path = u.getPath();
-        if (path == null || path.length() == 0) {
-            path = "/";
-        }
-        if (u.getQuery() != null) {
-            path += "?" + u.getQuery();
-        }
-
-        Log.d(TAG, "HTTP connecting to " + host + ":" + port + path);
-
-        Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(host, port), 20000);
-        socket.setSoTimeout(20000);
-        try {
-            OutputStream out = socket.getOutputStream();
-            InputStream in = socket.getInputStream();
-
             logRequest("GET", url, headers);
             PrintWriter writer = new PrintWriter(out, true);
             writer.print("GET " + path + " HTTP/1.1\r\n");
-            writeHeaders(writer, headers, host, port, false);
+            writeHeaders(writer, headers, host, port, https, text);
             writer.print("\r\n");
             writer.flush();
+            long sentAt = System.currentTimeMillis();
 
             String statusLine = readAsciiLine(in);
+            long firstByteAt = System.currentTimeMillis();
             if (statusLine == null) {
-                logResponseError(url, "No response from server");
-                return "Error: No response from server";
+                return HttpResponse.failure(url, HttpResponse.ERROR_PROTOCOL, "No response from server", null);
             }
-
-            Log.d(TAG, "HTTP response: " + statusLine);
+            Log.d(TAG, label + " response: " + statusLine);
 
             int statusCode = 0;
             String reason = "";
@@ -505,163 +271,66 @@ public class BouncyCastleHttpClient {
             } catch (Exception e) {
                 // Ignore
             }
+            if (statusCode <= 0) {
+                return HttpResponse.failure(url, HttpResponse.ERROR_PROTOCOL, "Bad status line: " + statusLine, null);
+            }
 
+            // Read headers until blank line
+            Hashtable responseHeaders = new Hashtable();
             String line;
-            int contentLength = -1;
-            boolean chunked = false;
             while ((line = readAsciiLine(in)) != null) {
                 if (line.length() == 0) break;
-                String lower = line.toLowerCase();
-                if (lower.startsWith("content-length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring(15).trim());
-                    } catch (Exception e) {}
-                }
-                if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
-                    chunked = true;
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                String name = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+                String previous = (String) responseHeaders.get(name);
+                responseHeaders.put(name, previous != null ? previous + ", " + value : value);
+            }
+            int contentLength = -1;
+            String lengthHeader = (String) responseHeaders.get("content-length");
+            if (lengthHeader != null) {
+                try {
+                    contentLength = Integer.parseInt(lengthHeader);
+                } catch (NumberFormatException e) {
+                    // Ignore; read to EOF
                 }
             }
+            String transferEncoding = (String) responseHeaders.get("transfer-encoding");
+            boolean chunked = transferEncoding != null && transferEncoding.toLowerCase().indexOf("chunked") != -1;
+            String contentEncoding = (String) responseHeaders.get("content-encoding");
 
-            // Read body (bytes first, then decode)
-            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
-            if (chunked) {
-                while (true) {
-                    String sizeLine = readAsciiLine(in);
-                    if (sizeLine == null) break;
-                    int semicolon = sizeLine.indexOf(';');
-                    if (semicolon > 0) {
-                        sizeLine = sizeLine.substring(0, semicolon);
-                    }
-                    int size = 0;
-                    try {
-                        size = Integer.parseInt(sizeLine.trim(), 16);
-                    } catch (Exception e) {
-                        return "Error: Invalid chunk size";
-                    }
-                    if (size <= 0) {
-                        // Consume trailing headers
-                        while ((line = readAsciiLine(in)) != null && line.length() > 0) {}
-                        break;
-                    }
-                    int remaining = size;
-                    byte[] buf = new byte[8192];
-                    while (remaining > 0) {
-                        int n = in.read(buf, 0, Math.min(buf.length, remaining));
-                        if (n <= 0) break;
-                        bodyBytes.write(buf, 0, n);
-                        remaining -= n;
-                    }
-                    readAsciiLine(in); // Consume CRLF after chunk
-                }
-            } else if (contentLength > 0) {
-                byte[] buf = new byte[8192];
-                int total = 0;
-                while (total < contentLength) {
-                    int n = in.read(buf, 0, Math.min(buf.length, contentLength - total));
-                    if (n <= 0) break;
-                    bodyBytes.write(buf, 0, n);
-                    total += n;
-                }
+            // Body goes straight from the (de-chunked, decompressed) stream into the caller's buffer.
+            HttpBodyStreams.Buffer body = buffer;
+            if (body == null) {
+                body = new HttpBodyStreams.Buffer(contentLength > 0 ? contentLength : 8192);
             } else {
-                byte[] buf = new byte[4096];
-                int n;
-                while ((n = in.read(buf)) > 0) {
-                    bodyBytes.write(buf, 0, n);
-                }
+                body.reset();
+            }
+            HttpBodyStreams.CountingInputStream wire = new HttpBodyStreams.CountingInputStream(
+                    HttpBodyStreams.framed(in, chunked, contentLength));
+            try {
+                HttpBodyStreams.readFully(HttpBodyStreams.decoded(wire, contentEncoding), body);
+            } catch (java.util.zip.ZipException e) {
+                return HttpResponse.failure(url, HttpResponse.ERROR_PROTOCOL, "Bad " + contentEncoding + " body", e);
             }
-            String body = new String(bodyBytes.toByteArray(), "UTF-8");
+            logBodyEncoding(url, contentEncoding, wire.getCount(), body.size());
 
-            logResponse(url, statusCode, reason, body.length(), body);
-            return body;
+            HttpResponse response = HttpResponse.completed(url, statusCode, reason, responseHeaders,
+                    body.array(), body.size(), wire.getCount(), firstByteAt);
+            logResponse(response, text);
+            serverClock.record(response.serverDateMillis(), sentAt, firstByteAt);
+            return response;
         } finally {
-            try { socket.close(); } catch (Exception e) {}
+            closeQuietly(socket);
         }
     }
 
-    /**
-     * Plain HTTP GET request returning bytes (no TLS). Only used when allowHttp setting is enabled.
-     */
-    private static byte[] getHttpBytesImpl(Context context, String url, Hashtable headers) throws Exception {
-        java.net.URL u = new java.net.URL(url);
-        String host = u.getHost();
-        int port = u.getPort() > 0 ? u.getPort() : 80;
-        String path = u.getPath();
-        if (path == null || path.length() == 0) {
-            path = "/";
-        }
-        if (u.getQuery() != null) {
-            path += "?" + u.getQuery();
-        }
-
-        Log.d(TAG, "HTTP connecting (bytes) to " + host + ":" + port + path);
-
-        Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(host, port), 20000);
-        socket.setSoTimeout(20000);
+    private static void closeQuietly(Socket socket) {
         try {
-            OutputStream out = socket.getOutputStream();
-            InputStream in = socket.getInputStream();
-
-            logRequest("GET", url, headers);
-            PrintWriter writer = new PrintWriter(out, true);
-            writer.print("GET " + path + " HTTP/1.1\r\n");
-            writeHeaders(writer, headers, host, port, false);
-            writer.print("\r\n");
-            writer.flush();
-
-            String statusLine = readAsciiLine(in);
-            if (statusLine == null) {
-                logResponseError(url, "No response from server (bytes)");
-                return null;
-            }
-
-            int statusCode = 0;
-            try {
-                String[] parts = statusLine.split(" ");
-                if (parts.length >= 2) {
-                    statusCode = Integer.parseInt(parts[1]);
-                }
-            } catch (Exception e) {}
-
-            String line;
-            int contentLength = -1;
-            while ((line = readAsciiLine(in)) != null) {
-                if (line.length() == 0) break;
-                if (line.toLowerCase().startsWith("content-length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring(15).trim());
-                    } catch (Exception e) {}
-                }
-            }
-
-            if (statusCode < 200 || statusCode >= 300) {
-                logResponseError(url, "HTTP " + statusCode + " (bytes)");
-                return null;
-            }
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            if (contentLength > 0) {
-                byte[] buf = new byte[8192];
-                int total = 0;
-                while (total < contentLength) {
-                    int n = in.read(buf, 0, Math.min(buf.length, contentLength - total));
-                    if (n <= 0) break;
-                    baos.write(buf, 0, n);
-                    total += n;
-                }
-            } else {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = in.read(buf)) > 0) {
-                    baos.write(buf, 0, n);
-                }
-            }
-
-            byte[] result = baos.toByteArray();
-            logResponseBytes(url, statusCode, "OK", result.length);
-            return result;
-        } finally {
-            try { socket.close(); } catch (Exception e) {}
+            socket.close();
+        } catch (Exception e) {
+            // Ignore
         }
     }
 
@@ -689,7 +358,8 @@ public class BouncyCastleHttpClient {
         return new String(line.toByteArray(), "ISO-8859-1");
     }
 
-    private static void writeHeaders(PrintWriter writer, Hashtable headers, String host, int port, boolean isHttps) {
+    private static void writeHeaders(PrintWriter writer, Hashtable headers, String host, int port, boolean isHttps,
+            boolean acceptCompressed) {
         boolean hasHost = hasHeader(headers, "Host");
         boolean hasConnection = hasHeader(headers, "Connection");
         if (!hasHost && host != null && host.length() > 0) {
@@ -714,6 +384,9 @@ public class BouncyCastleHttpClient {
                 writer.print(key + ": " + value + "\r\n");
             }
         }
+        if (acceptCompressed && !hasHeader(headers, "Accept-Encoding")) {
+            writer.print("Accept-Encoding: " + HttpBodyStreams.ACCEPT_ENCODING + "\r\n");
+        }
         if (!hasConnection) {
             writer.print("Connection: close\r\n");
         }
@@ -737,11 +410,71 @@ public class BouncyCastleHttpClient {
         return false;
     }
     
-    private static DefaultTlsClient createTlsClient(final String hostname, final X509TrustManager tm, final boolean allowSelfSigned) {
-        SecureRandom secureRandom = new SecureRandom();
-        final BcTlsCrypto crypto = new BcTlsCrypto(secureRandom);
+    /**
+     * Identifies where a TLS session may be resumed: the same server under the same trust mode,
+     * since a resumed handshake skips the certificate check.
+     */
+    private static String sessionKey(String host, int port, byte[][] pins, boolean allowSelfSigned) {
+        StringBuffer sb = new StringBuffer(host).append(':').append(port);
+        if (allowSelfSigned) sb.append(" self-signed");
+        if (pins != null) {
+            sb.append(" pins");
+            for (int i = 0; i < pins.length; i++) {
+                sb.append(' ').append(java.util.Arrays.hashCode(pins[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static TlsSession resumableSession(String key) {
+        CachedSession cached = (CachedSession) tlsSessions.get(key);
+        if (cached == null) return null;
+        if (!cached.session.isResumable()
+                || System.currentTimeMillis() - cached.storedAt > TLS_SESSION_MAX_AGE_MS) {
+            tlsSessions.remove(key);
+            return null;
+        }
+        return cached.session;
+    }
+
+    /** Keeps a resumed session's original timestamp; servers age sessions from the full handshake. */
+    private static void storeSession(String key, TlsSession session) {
+        if (session == null || !session.isResumable()) {
+            tlsSessions.remove(key);
+            return;
+        }
+        CachedSession previous = (CachedSession) tlsSessions.get(key);
+        long storedAt = previous != null
+                && java.util.Arrays.equals(previous.session.getSessionID(), session.getSessionID())
+                ? previous.storedAt : System.currentTimeMillis();
+        tlsSessions.put(key, new CachedSession(session, storedAt));
+    }
+
+    private static DefaultTlsClient createTlsClient(final String hostname, final byte[][] pins, final TrustAnchorIndex anchors,
+            final X509TrustManager tm, final CertValidationCache cache, final boolean allowSelfSigned,
+            final int[] cipherSuites, final String sessionKey) {
+        final BcTlsCrypto crypto = getCrypto();
 
         return new DefaultTlsClient(crypto) {
+            private TlsSession offered;
+
+            // Offering the last session to this server lets it skip the key exchange and the
+            // certificate chain: one round trip less, no ECDHE or signature work on the NOOK.
+            public TlsSession getSessionToResume() {
+                offered = resumableSession(sessionKey);
+                return offered;
+            }
+
+            public void notifyHandshakeComplete() throws java.io.IOException {
+                super.notifyHandshakeComplete();
+                TlsSession session = context.getResumableSession();
+                if (offered != null && session != null
+                        && java.util.Arrays.equals(offered.getSessionID(), session.getSessionID())) {
+                    Log.d(TAG, "BC resumed TLS session with " + hostname);
+                }
+                storeSession(sessionKey, session);
+            }
+
             public ProtocolVersion getClientVersion() {
                 return ProtocolVersion.TLSv12;
             }
@@ -751,10 +484,12 @@ public class BouncyCastleHttpClient {
             }
 
             public int[] getCipherSuites() {
-                return new int[] {
-                        CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
-                        CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384
-                };
+                return cipherSuites;
+            }
+
+            public void notifySelectedCipherSuite(int selectedCipherSuite) {
+                super.notifySelectedCipherSuite(selectedCipherSuite);
+                Log.d(TAG, "BC negotiated " + TlsCipherSuites.name(selectedCipherSuite));
             }
 
             public Hashtable getClientExtensions() throws java.io.IOException {
@@ -778,26 +513,65 @@ public class BouncyCastleHttpClient {
             public TlsAuthentication getAuthentication() {
                 return new TlsAuthentication() {
                     public void notifyServerCertificate(TlsServerCertificate serverCertificate) throws java.io.IOException {
+                        if (pins != null) {
+                            // Pinned server: accept only a leaf that is, or chains up to, a certificate
+                            // with a pinned key; no trust store.
+                            long start = System.currentTimeMillis();
+                            int pinned;
+                            try {
+                                pinned = SpkiPins.pinnedIndex(pins, encodedChain(serverCertificate));
+                                if (pinned > 0) {
+                                    SpkiPins.verifyBelowPin(toX509Chain(serverCertificate), pinned, hostname, new Date());
+                                }
+                            } catch (Throwable t) {
+                                Log.e(TAG, "BC SPKI pin check failed for " + hostname, t);
+                                throw new TlsFatalAlert(AlertDescription.bad_certificate);
+                            }
+                            if (pinned < 0) {
+                                Log.e(TAG, "BC no presented key matches the SPKI pins for " + hostname);
+                                throw new TlsFatalAlert(AlertDescription.bad_certificate);
+                            }
+                            Log.d(TAG, "BC server key matched SPKI pin "
+                                    + (pinned == 0 ? "(leaf)" : "(chain position " + pinned + ", chain and hostname verified)")
+                                    + " in " + (System.currentTimeMillis() - start) + "ms");
+                            return;
+                        }
                         // If self-signed certs allowed, skip validation
                         if (allowSelfSigned) {
                             Log.d(TAG, "BC skipping certificate validation (self-signed allowed)");
                             return;
                         }
-                        if (tm == null) {
+                        if (anchors == null && tm == null) {
                             throw new TlsFatalAlert(AlertDescription.bad_certificate);
                         }
                         try {
+                            long start = System.currentTimeMillis();
+                            byte[][] encoded = encodedChain(serverCertificate);
+                            if (cache != null && encoded != null && cache.contains(hostname, encoded, start)) {
+                                Log.d(TAG, "BC server certificate matches validated cache entry ("
+                                        + (System.currentTimeMillis() - start) + "ms)");
+                                return;
+                            }
                             X509Certificate[] chain = toX509Chain(serverCertificate);
                             if (chain == null || chain.length == 0) {
                                 throw new TlsFatalAlert(AlertDescription.bad_certificate);
                             }
-                            String authType = chain[0].getPublicKey().getAlgorithm();
-                            tm.checkServerTrusted(chain, authType);
-                            if (!verifyHostname(hostname, chain[0])) {
+                            if (anchors != null) {
+                                anchors.validate(chain, new Date());
+                            } else {
+                                String authType = chain[0].getPublicKey().getAlgorithm();
+                                tm.checkServerTrusted(chain, authType);
+                            }
+                            if (!CertHostnames.matches(hostname, chain[0])) {
                                 Log.e(TAG, "BC hostname verification failed for " + hostname);
                                 throw new TlsFatalAlert(AlertDescription.bad_certificate);
                             }
-                            Log.d(TAG, "BC server certificate validated against CA bundle");
+                            Log.d(TAG, "BC server certificate validated against "
+                                    + (anchors != null ? "trust index" : "CA bundle")
+                                    + " in " + (System.currentTimeMillis() - start) + "ms");
+                            if (cache != null && encoded != null) {
+                                cache.put(hostname, encoded, earliestNotAfter(chain), System.currentTimeMillis());
+                            }
                         } catch (TlsFatalAlert e) {
                             throw e;
                         } catch (Throwable t) {
@@ -814,6 +588,87 @@ public class BouncyCastleHttpClient {
         };
     }
 
+    /** Crypto provider shared by all connections, so SecureRandom is constructed and seeded once per process. */
+    private static synchronized PrewarmedTlsCrypto getCrypto() {
+        if (sharedCrypto == null) {
+            sharedCrypto = new PrewarmedTlsCrypto(new SecureRandom());
+        }
+        return sharedCrypto;
+    }
+
+    /**
+     * Starts paying the first-handshake costs on a background thread: TLS class loading, the shared
+     * SecureRandom, trust anchors and an ECDHE key pair for secp256r1. Call when a fetch is coming but
+     * the network isn't up yet (e.g. while WiFi associates after an alarm); returns immediately.
+     */
+    public static void warmUp(final Context context, final ApiPrefs.Snapshot prefs) {
+        synchronized (BouncyCastleHttpClient.class) {
+            if (warmupThread != null && warmupThread.isAlive()) {
+                return;
+            }
+            warmupThread = new Thread(new Runnable() {
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    try {
+                        PrewarmedTlsCrypto crypto = getCrypto();
+                        long cryptoMs = System.currentTimeMillis() - start;
+                        crypto.pregenerate(NamedGroup.secp256r1);
+                        long ecMs = System.currentTimeMillis() - start - cryptoMs;
+                        crypto.warmSymmetric();
+                        // Handshake classes that would otherwise load on the fetch thread.
+                        Class.forName("org.spongycastle.tls.TlsClientProtocol");
+                        Class.forName("org.spongycastle.tls.TlsECDHEKeyExchange");
+                        Class.forName("org.spongycastle.tls.crypto.impl.bc.BcTlsCertificate");
+                        boolean pinned = prefs != null && prefs.spkiPinHashes != null;
+                        boolean allowSelfSigned = prefs != null && prefs.allowSelfSignedCerts;
+                        if (!pinned && !allowSelfSigned) {
+                            TrustAnchorIndex anchors = getTrustAnchors(context);
+                            if (anchors == null) {
+                                getTrustManager(context);
+                            }
+                        }
+                        String msg = "BC warm-up done in " + (System.currentTimeMillis() - start)
+                                + "ms (crypto " + cryptoMs + "ms, ECDHE key " + ecMs + "ms)";
+                        Log.d(TAG, msg);
+                        FileLogger.d(TAG, msg);
+                    } catch (Throwable t) {
+                        Log.w(TAG, "BC warm-up failed: " + t);
+                    }
+                }
+            }, "TLS-warmup");
+            warmupThread.start();
+        }
+    }
+
+    /** Loads the precompiled trust index once per process; null if missing (falls back to the PEM bundle). */
+    private static synchronized TrustAnchorIndex getTrustAnchors(Context context) {
+        if (trustAnchors != null) {
+            return trustAnchors;
+        }
+        if (trustAnchorsFailed || context == null) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        InputStream is = null;
+        try {
+            is = context.getResources().openRawResource(R.raw.trust_index);
+            trustAnchors = TrustAnchorIndex.load(is);
+            String msg = "BC trust index loaded: " + trustAnchors.size() + " anchors in "
+                    + (System.currentTimeMillis() - start) + "ms";
+            Log.d(TAG, msg);
+            FileLogger.d(TAG, msg);
+            return trustAnchors;
+        } catch (Throwable t) {
+            trustAnchorsFailed = true;
+            Log.w(TAG, "BC trust index unavailable, falling back to PEM bundle: " + t);
+            return null;
+        } finally {
+            if (is != null) {
+                try { is.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
     private static synchronized X509TrustManager getTrustManager(Context context) {
         if (trustManager != null) {
             return trustManager;
@@ -822,6 +677,7 @@ public class BouncyCastleHttpClient {
             Log.w(TAG, "BC no context; cannot load CA bundle");
             return null;
         }
+        long start = System.currentTimeMillis();
         InputStream is = null;
         try {
             is = context.getResources().openRawResource(R.raw.ca_bundle);
@@ -849,6 +705,8 @@ public class BouncyCastleHttpClient {
             for (int j = 0; j < tms.length; j++) {
                 if (tms[j] instanceof X509TrustManager) {
                     trustManager = (X509TrustManager) tms[j];
+                    Log.d(TAG, "BC CA bundle loaded: " + certs.size() + " certs in "
+                            + (System.currentTimeMillis() - start) + "ms");
                     return trustManager;
                 }
             }
@@ -865,208 +723,58 @@ public class BouncyCastleHttpClient {
         }
     }
 
-    private static X509Certificate[] toX509Chain(TlsServerCertificate serverCertificate) throws Exception {
-        if (serverCertificate == null || serverCertificate.getCertificate() == null) {
-            return null;
+    /** Cache of validated chains, persisted in the app's files dir and tied to the active trust store. */
+    private static synchronized CertValidationCache getCertCache(Context context, TrustAnchorIndex anchors) {
+        if (certCache != null) {
+            return certCache;
         }
-        org.spongycastle.tls.Certificate tlsCert = serverCertificate.getCertificate();
-        TlsCertificate[] bcCerts = tlsCert.getCertificateList();
-        if (bcCerts == null || bcCerts.length == 0) {
+        if (context == null) {
             return null;
         }
-        X509Certificate[] chain = new X509Certificate[bcCerts.length];
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        for (int i = 0; i < bcCerts.length; i++) {
-            byte[] encoded = bcCerts[i].getEncoded();
-            ByteArrayInputStream bais = new ByteArrayInputStream(encoded);
-            chain[i] = (X509Certificate) cf.generateCertificate(bais);
-        }
-        return chain;
-    }
-
-    private static boolean verifyHostname(String hostname, X509Certificate cert) {
-        if (hostname == null || hostname.length() == 0 || cert == null) {
-            return false;
-        }
-        String host = hostname.toLowerCase();
-        AltNameResult altResult = getSubjectAltNames(cert);
-        if (altResult != null && altResult.sanPresent) {
-            if (matchAltNames(host, altResult)) {
-                return true;
-            }
-            return false;
-        }
-
-        String cn = getCommonName(cert);
-        return cn != null && matchHostname(host, cn.toLowerCase());
-    }
-
-    private static String getCommonName(X509Certificate cert) {
-        try {
-            X500Principal principal = cert.getSubjectX500Principal();
-            if (principal == null) {
-                return null;
-            }
-            String dn = principal.getName("RFC2253");
-            String[] parts = dn.split(",");
-            for (int i = 0; i < parts.length; i++) {
-                String part = parts[i].trim();
-                if (part.startsWith("CN=") && part.length() > 3) {
-                    return part.substring(3);
-                }
-            }
-        } catch (Throwable t) {
-            Log.w(TAG, "BC CN parse failed: " + t);
-        }
-        return null;
-    }
-
-    private static boolean matchHostname(String hostname, String pattern) {
-        if (hostname == null || pattern == null) {
-            return false;
-        }
-        String host = hostname.toLowerCase();
-        String pat = pattern.toLowerCase();
-        if (host.equals(pat)) {
-            return true;
-        }
-        if (pat.startsWith("*.")) {
-            String suffix = pat.substring(1); // ".example.com"
-            if (host.endsWith(suffix)) {
-                String prefix = host.substring(0, host.length() - suffix.length());
-                return prefix.length() > 0 && prefix.indexOf('.') == -1;
-            }
-        }
-        return false;
-    }
-
-    private static class AltNameResult {
-        boolean sanPresent = false;
-        Vector dnsNames = new Vector();
-        Vector ipNames = new Vector();
+        String trustStoreId = anchors != null ? anchors.id() : "pem-bundle";
+        certCache = new CertValidationCache(new File(context.getFilesDir(), "validated_certs"), trustStoreId);
+        return certCache;
     }
 
-    private static AltNameResult getSubjectAltNames(X509Certificate cert) {
-        AltNameResult result = new AltNameResult();
-        Throwable parseError = null;
-        try {
-            Collection altNames = cert.getSubjectAlternativeNames();
-            if (altNames != null) {
-                result.sanPresent = true;
-                addAltNamesFromCollection(result, altNames);
-                return result;
-            }
-        } catch (CertificateParsingException e) {
-            parseError = e;
-        } catch (Throwable t) {
-            parseError = t;
+    private static byte[][] encodedChain(TlsServerCertificate serverCertificate) throws IOException {
+        if (serverCertificate == null || serverCertificate.getCertificate() == null) {
+            return null;
         }
-
-        AltNameResult manual = parseSanExtension(cert);
-        if (manual != null) {
-            if (manual.dnsNames.size() > 0 || manual.ipNames.size() > 0) {
-                if (parseError != null) {
-                    Log.d(TAG, "BC SAN parse failed, but manual SAN parse succeeded");
-                }
-                return manual;
-            }
-            if (parseError != null) {
-                Log.w(TAG, "BC SAN parse failed and manual SAN parse was empty: " + parseError);
-            }
-            return manual;
+        TlsCertificate[] bcCerts = serverCertificate.getCertificate().getCertificateList();
+        if (bcCerts == null || bcCerts.length == 0) {
+            return null;
         }
-        if (parseError != null) {
-            Log.w(TAG, "BC SAN parse failed and manual SAN parse missing: " + parseError);
+        byte[][] encoded = new byte[bcCerts.length][];
+        for (int i = 0; i < bcCerts.length; i++) {
+            encoded[i] = bcCerts[i].getEncoded();
         }
-        return result;
+        return encoded;
     }
 
-    private static void addAltNamesFromCollection(AltNameResult result, Collection altNames) {
-        java.util.Iterator it = altNames.iterator();
-        while (it.hasNext()) {
-            Object entryObj = it.next();
-            if (!(entryObj instanceof List)) {
-                continue;
-            }
-            List entry = (List) entryObj;
-            if (entry.size() < 2) {
-                continue;
-            }
-            Integer type = (Integer) entry.get(0);
-            Object value = entry.get(1);
-            if (type == null || value == null) {
-                continue;
-            }
-            if (type.intValue() == 2) { // dNSName
-                result.dnsNames.addElement(value.toString().toLowerCase());
-            } else if (type.intValue() == 7) { // iPAddress
-                result.ipNames.addElement(value.toString().toLowerCase());
-            }
+    private static long earliestNotAfter(X509Certificate[] chain) {
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < chain.length; i++) {
+            earliest = Math.min(earliest, chain[i].getNotAfter().getTime());
         }
+        return earliest;
     }
 
-    private static AltNameResult parseSanExtension(X509Certificate cert) {
-        byte[] ext = cert.getExtensionValue("2.5.29.17"); // Subject Alternative Name
-        if (ext == null) {
+    private static X509Certificate[] toX509Chain(TlsServerCertificate serverCertificate) throws Exception {
+        if (serverCertificate == null || serverCertificate.getCertificate() == null) {
             return null;
         }
-        AltNameResult result = new AltNameResult();
-        result.sanPresent = true;
-        ASN1InputStream extStream = null;
-        ASN1InputStream octetStream = null;
-        try {
-            extStream = new ASN1InputStream(ext);
-            ASN1Primitive extObj = extStream.readObject();
-            if (!(extObj instanceof ASN1OctetString)) {
-                return result;
-            }
-            byte[] octets = ((ASN1OctetString) extObj).getOctets();
-            octetStream = new ASN1InputStream(octets);
-            ASN1Primitive namesObj = octetStream.readObject();
-            GeneralNames names = GeneralNames.getInstance(namesObj);
-            GeneralName[] nameList = names.getNames();
-            for (int i = 0; i < nameList.length; i++) {
-                GeneralName name = nameList[i];
-                if (name == null) {
-                    continue;
-                }
-                if (name.getTagNo() == GeneralName.dNSName) {
-                    String dns = DERIA5String.getInstance(name.getName()).getString();
-                    if (dns != null) {
-                        result.dnsNames.addElement(dns.toLowerCase());
-                    }
-                } else if (name.getTagNo() == GeneralName.iPAddress) {
-                    ASN1OctetString ipOctets = ASN1OctetString.getInstance(name.getName());
-                    if (ipOctets != null) {
-                        String ip = InetAddress.getByAddress(ipOctets.getOctets()).getHostAddress();
-                        if (ip != null) {
-                            result.ipNames.addElement(ip.toLowerCase());
-                        }
-                    }
-                }
-            }
-        } catch (Throwable t) {
-            Log.w(TAG, "BC manual SAN parse failed: " + t);
-        } finally {
-            try { if (extStream != null) extStream.close(); } catch (Throwable ignored) {}
-            try { if (octetStream != null) octetStream.close(); } catch (Throwable ignored) {}
-        }
-        return result;
-    }
-
-    private static boolean matchAltNames(String host, AltNameResult result) {
-        for (int i = 0; i < result.dnsNames.size(); i++) {
-            String dns = (String) result.dnsNames.elementAt(i);
-            if (matchHostname(host, dns)) {
-                return true;
-            }
+        org.spongycastle.tls.Certificate tlsCert = serverCertificate.getCertificate();
+        TlsCertificate[] bcCerts = tlsCert.getCertificateList();
+        if (bcCerts == null || bcCerts.length == 0) {
+            return null;
         }
-        for (int i = 0; i < result.ipNames.size(); i++) {
-            String ip = (String) result.ipNames.elementAt(i);
-            if (host.equals(ip)) {
-                return true;
-            }
+        X509Certificate[] chain = new X509Certificate[bcCerts.length];
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        for (int i = 0; i < bcCerts.length; i++) {
+            byte[] encoded = bcCerts[i].getEncoded();
+            ByteArrayInputStream bais = new ByteArrayInputStream(encoded);
+            chain[i] = (X509Certificate) cf.generateCertificate(bais);
         }
-        return false;
+        return chain;
     }
 }
@@ -0,0 +1,198 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.net.InetAddress;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+import javax.security.auth.x500.X500Principal;
+
+import org.spongycastle.asn1.ASN1InputStream;
+import org.spongycastle.asn1.ASN1OctetString;
+import org.spongycastle.asn1.ASN1Primitive;
+import org.spongycastle.asn1.DERIA5String;
+import org.spongycastle.asn1.x509.GeneralName;
+import org.spongycastle.asn1.x509.GeneralNames;
+
+/**
+ * Server hostname check for a leaf certificate (RFC 2818): SAN dNSName / iPAddress entries when
+ * the certificate has any, otherwise the subject CN; a "*." wildcard covers one label.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class CertHostnames {
+    private CertHostnames() {
+    }
+
+    /** True if cert names hostname: a SAN DNS or IP entry when SANs are present, else the subject CN. */
+    static boolean matches(String hostname, X509Certificate cert) {
+        if (hostname == null || hostname.length() == 0 || cert == null) {
+            return false;
+        }
+        String host = hostname.toLowerCase();
+        AltNameResult altResult = getSubjectAltNames(cert);
+        if (altResult != null && altResult.sanPresent) {
+            if (matchAltNames(host, altResult)) {
+                return true;
+            }
+            return false;
+        }
+
+        String cn = getCommonName(cert);
+        return cn != null && matchHostname(host, cn.toLowerCase());
+    }
+
+    private static String getCommonName(X509Certificate cert) {
+        try {
+            X500Principal principal = cert.getSubjectX500Principal();
+            if (principal == null) {
+                return null;
+            }
+            String dn = principal.getName("RFC2253");
+            String[] parts = dn.split(",");
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i].trim();
+                if (part.startsWith("CN=") && part.length() > 3) {
+                    return part.substring(3);
+                }
+            }
+        } catch (Throwable t) {
+            // No usable CN.
+        }
+        return null;
+    }
+
+    private static boolean matchHostname(String hostname, String pattern) {
+        if (hostname == null || pattern == null) {
+            return false;
+        }
+        String host = hostname.toLowerCase();
+        String pat = pattern.toLowerCase();
+        if (host.equals(pat)) {
+            return true;
+        }
+        if (pat.startsWith("*.")) {
+            String suffix = pat.substring(1); // ".example.com"
+            if (host.endsWith(suffix)) {
+                String prefix = host.substring(0, host.length() - suffix.length());
+                return prefix.length() > 0 && prefix.indexOf('.') == -1;
+            }
+        }
+        return false;
+    }
+
+    private static class AltNameResult {
+        boolean sanPresent = false;
+        Vector dnsNames = new Vector();
+        Vector ipNames = new Vector();
+    }
+
+    /**
+     * SubjectAltNames from the platform parser, or from the raw extension when that throws (some
+     * Android 2.x certificate implementations fail on otherwise valid SANs).
+     */
+    private static AltNameResult getSubjectAltNames(X509Certificate cert) {
+        AltNameResult result = new AltNameResult();
+        try {
+            Collection altNames = cert.getSubjectAlternativeNames();
+            if (altNames != null) {
+                result.sanPresent = true;
+                addAltNamesFromCollection(result, altNames);
+                return result;
+            }
+        } catch (Throwable t) {
+            // Fall through to the manual parse.
+        }
+        AltNameResult manual = parseSanExtension(cert);
+        return manual != null ? manual : result;
+    }
+
+    private static void addAltNamesFromCollection(AltNameResult result, Collection altNames) {
+        java.util.Iterator it = altNames.iterator();
+        while (it.hasNext()) {
+            Object entryObj = it.next();
+            if (!(entryObj instanceof List)) {
+                continue;
+            }
+            List entry = (List) entryObj;
+            if (entry.size() < 2) {
+                continue;
+            }
+            Integer type = (Integer) entry.get(0);
+            Object value = entry.get(1);
+            if (type == null || value == null) {
+                continue;
+            }
+            if (type.intValue() == 2) { // dNSName
+                result.dnsNames.addElement(value.toString().toLowerCase());
+            } else if (type.intValue() == 7) { // iPAddress
+                result.ipNames.addElement(value.toString().toLowerCase());
+            }
+        }
+    }
+
+    private static AltNameResult parseSanExtension(X509Certificate cert) {
+        byte[] ext = cert.getExtensionValue("2.5.29.17"); // Subject Alternative Name
+        if (ext == null) {
+            return null;
+        }
+        AltNameResult result = new AltNameResult();
+        result.sanPresent = true;
+        ASN1InputStream extStream = null;
+        ASN1InputStream octetStream = null;
+        try {
+            extStream = new ASN1InputStream(ext);
+            ASN1Primitive extObj = extStream.readObject();
+            if (!(extObj instanceof ASN1OctetString)) {
+                return result;
+            }
+            byte[] octets = ((ASN1OctetString) extObj).getOctets();
+            octetStream = new ASN1InputStream(octets);
+            ASN1Primitive namesObj = octetStream.readObject();
+            GeneralNames names = GeneralNames.getInstance(namesObj);
+            GeneralName[] nameList = names.getNames();
+            for (int i = 0; i < nameList.length; i++) {
+                GeneralName name = nameList[i];
+                if (name == null) {
+                    continue;
+                }
+                if (name.getTagNo() == GeneralName.dNSName) {
+                    String dns = DERIA5String.getInstance(name.getName()).getString();
+                    if (dns != null) {
+                        result.dnsNames.addElement(dns.toLowerCase());
+                    }
+                } else if (name.getTagNo() == GeneralName.iPAddress) {
+                    ASN1OctetString ipOctets = ASN1OctetString.getInstance(name.getName());
+                    if (ipOctets != null) {
+                        String ip = InetAddress.getByAddress(ipOctets.getOctets()).getHostAddress();
+                        if (ip != null) {
+                            result.ipNames.addElement(ip.toLowerCase());
+                        }
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            // Keep whatever names were read before the bad entry.
+        } finally {
+            try { if (extStream != null) extStream.close(); } catch (Throwable ignored) {}
+            try { if (octetStream != null) octetStream.close(); } catch (Throwable ignored) {}
+        }
+        return result;
+    }
+
+    private static boolean matchAltNames(String host, AltNameResult result) {
+        for (int i = 0; i < result.dnsNames.size(); i++) {
+            String dns = (String) result.dnsNames.elementAt(i);
+            if (matchHostname(host, dns)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < result.ipNames.size(); i++) {
+            String ip = (String) result.ipNames.elementAt(i);
+            if (host.equals(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
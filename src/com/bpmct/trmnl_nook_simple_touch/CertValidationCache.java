@@ -0,0 +1,174 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.Vector;
+
+/**
+ * Remembers server chains that already passed full validation, so a repeat connection to the
+ * same host with the same certificates only costs a SHA-256 compare.
+ *
+ * Entries are keyed by hostname and must match both the leaf fingerprint and the fingerprint of
+ * the whole presented chain; any difference falls back to full validation. An entry expires at
+ * the earliest notAfter in the chain (capped at MAX_AGE_MS so trust store updates are picked up),
+ * and the file is discarded when the trust store it was validated against changes.
+ *
+ * Persisted as a small text file so the cache survives process restarts and reboots.
+ */
+final class CertValidationCache {
+    private static final String FILE_VERSION = "v1";
+    private static final int MAX_ENTRIES = 8;
+    private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final class Entry {
+        final String host;
+        final String leafFingerprint;
+        final String chainFingerprint;
+        final long expiresAt;
+
+        Entry(String host, String leafFingerprint, String chainFingerprint, long expiresAt) {
+            this.host = host;
+            this.leafFingerprint = leafFingerprint;
+            this.chainFingerprint = chainFingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final File file;
+    private final String trustStoreId;
+    /** Most recently used last. */
+    private final Vector entries = new Vector();
+    private boolean loaded = false;
+
+    /**
+     * @param file backing file (e.g. in Context.getFilesDir())
+     * @param trustStoreId identifies the anchors entries were validated against; a mismatch drops the file
+     */
+    CertValidationCache(File file, String trustStoreId) {
+        this.file = file;
+        this.trustStoreId = trustStoreId;
+    }
+
+    /** True if this exact chain was validated for this host and has not expired. */
+    synchronized boolean contains(String host, byte[][] chain, long now) {
+        if (host == null || chain == null || chain.length == 0) return false;
+        load();
+        int i = indexOf(host);
+        if (i < 0) return false;
+        Entry e = (Entry) entries.elementAt(i);
+        if (now >= e.expiresAt) {
+            entries.removeElementAt(i);
+            save();
+            return false;
+        }
+        if (!e.leafFingerprint.equals(sha256Hex(chain, 0, 1))
+                || !e.chainFingerprint.equals(sha256Hex(chain, 0, chain.length))) {
+            return false;
+        }
+        entries.removeElementAt(i);
+        entries.addElement(e);
+        return true;
+    }
+
+    /** Records a chain that just passed full validation. notAfter is the earliest expiry in the chain. */
+    synchronized void put(String host, byte[][] chain, long notAfter, long now) {
+        if (host == null || chain == null || chain.length == 0) return;
+        load();
+        int i = indexOf(host);
+        if (i >= 0) entries.removeElementAt(i);
+        long expiresAt = Math.min(notAfter, now + MAX_AGE_MS);
+        if (expiresAt <= now) return;
+        entries.addElement(new Entry(host, sha256Hex(chain, 0, 1), sha256Hex(chain, 0, chain.length), expiresAt));
+        while (entries.size() > MAX_ENTRIES) {
+            entries.removeElementAt(0);
+        }
+        save();
+    }
+
+    private int indexOf(String host) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (((Entry) entries.elementAt(i)).host.equals(host)) return i;
+        }
+        return -1;
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (file == null || !file.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String header = reader.readLine();
+            if (header == null || !header.equals(FILE_VERSION + " " + trustStoreId)) {
+                // Validated against a different trust store (or an older format): start over.
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null && entries.size() < MAX_ENTRIES) {
+                String[] parts = line.split(" ");
+                if (parts.length != 4) continue;
+                entries.addElement(new Entry(parts[0], parts[1], parts[2], Long.parseLong(parts[3])));
+            }
+        } catch (Throwable t) {
+            entries.removeAllElements();
+        } finally {
+            if (reader != null) {
+                try { reader.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    private void save() {
+        if (file == null) return;
+        try {
+            File tmp = new File(file.getPath() + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+            pw.println(FILE_VERSION + " " + trustStoreId);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = (Entry) entries.elementAt(i);
+                pw.println(e.host + " " + e.leafFingerprint + " " + e.chainFingerprint + " " + e.expiresAt);
+            }
+            pw.close();
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (Throwable t) {
+            // Cache is an optimization; a failed write just means a full validation next time.
+        }
+    }
+
+    /** SHA-256 over certificates [from, to), each prefixed by its length so boundaries are unambiguous. */
+    static String sha256Hex(byte[][] chain, int from, int to) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (int i = from; i < to; i++) {
+                int len = chain[i].length;
+                md.update((byte) (len >>> 24));
+                md.update((byte) (len >>> 16));
+                md.update((byte) (len >>> 8));
+                md.update((byte) len);
+                md.update(chain[i]);
+            }
+            return toHex(md.digest());
+        } catch (Exception e) {
+            // Unique per call, so it can never match a stored entry.
+            return "unavailable-" + System.nanoTime();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x10) sb.append('0');
+            sb.append(Integer.toHexString(b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Resumes the refresh loop when the charger is plugged in after critical battery stopped it.
+ * Declared in the manifest, so it fires even after the process was reclaimed. RefreshCycle
+ * enables it only while it waits at critical battery (the enabled state outlives the process
+ * and a reboot) and disables it again here.
+ */
+public class ChargerReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent == null || !Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) return;
+        RefreshCycle.get(context).onPowerConnected();
+    }
+}
@@ -118,6 +118,38 @@ public class CredentialsActivity extends Activity {
                 ViewGroup.LayoutParams.WRAP_CONTENT);
         inner.addView(tokenInput, tokenParams);
 
+        TextView pinsLabel = new TextView(this);
+        pinsLabel.setText("Server Key Pins (optional, self-hosted)");
+        pinsLabel.setTextSize(14);
+        pinsLabel.setTextColor(0xFF000000);
+        LinearLayout.LayoutParams pinsLabelParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT);
+        pinsLabelParams.topMargin = 12;
+        inner.addView(pinsLabel, pinsLabelParams);
+
+        final EditText pinsInput = new EditText(this);
+        pinsInput.setSingleLine(false);
+        pinsInput.setMaxLines(3);
+        pinsInput.setTextColor(0xFF000000);
+        pinsInput.setTextSize(14);
+        pinsInput.setPadding(12, 12, 12, 12);
+        pinsInput.setHint("sha256/base64... (one per line)");
+        pinsInput.setText(ApiPrefs.getSpkiPins(this));
+        LinearLayout.LayoutParams pinsParams = new LinearLayout.LayoutParams(
+                420,
+                ViewGroup.LayoutParams.WRAP_CONTENT);
+        inner.addView(pinsInput, pinsParams);
+
+        TextView pinsHint = new TextView(this);
+        pinsHint.setText("SHA-256 of the server's public key. When set, only these keys are trusted for the API host.");
+        pinsHint.setTextSize(11);
+        pinsHint.setTextColor(0xFF888888);
+        LinearLayout.LayoutParams pinsHintParams = new LinearLayout.LayoutParams(
+                420, ViewGroup.LayoutParams.WRAP_CONTENT);
+        pinsHintParams.topMargin = 4;
+        inner.addView(pinsHint, pinsHintParams);
+
         final TextView statusView = new TextView(this);
         statusView.setTextSize(12);
         statusView.setTextColor(0xFF000000);
@@ -163,12 +195,20 @@ public class CredentialsActivity extends Activity {
                 String id = idInput.getText() != null ? idInput.getText().toString().trim() : "";
                 String token = tokenInput.getText() != null ? tokenInput.getText().toString().trim() : "";
                 String baseUrl = baseUrlInput.getText() != null ? baseUrlInput.getText().toString().trim() : "";
+                String pins = pinsInput.getText() != null ? pinsInput.getText().toString().trim() : "";
                 if (id.length() == 0 || token.length() == 0) {
                     statusView.setText("Device ID and API Key are required.");
                     return;
                 }
+                try {
+                    SpkiPins.parse(pins);
+                } catch (IllegalArgumentException e) {
+                    statusView.setText(e.getMessage());
+                    return;
+                }
                 ApiPrefs.saveCredentials(CredentialsActivity.this, id, token);
                 ApiPrefs.saveApiBaseUrl(CredentialsActivity.this, baseUrl);
+                ApiPrefs.saveSpkiPins(CredentialsActivity.this, pins);
                 // Auto-disable gift mode when credentials are saved
                 ApiPrefs.setGiftModeEnabled(CredentialsActivity.this, false);
                 statusView.setText("Saved.");
@@ -184,6 +224,8 @@ public class CredentialsActivity extends Activity {
             public void onClick(View v) {
                 idInput.setText("");
                 tokenInput.setText("");
+                pinsInput.setText("");
+                ApiPrefs.saveSpkiPins(CredentialsActivity.this, "");
                 baseUrlInput.setText(ApiPrefs.getDefaultApiBaseUrl(CredentialsActivity.this));
                 ApiPrefs.saveApiBaseUrl(CredentialsActivity.this, ApiPrefs.getDefaultApiBaseUrl(CredentialsActivity.this));
                 statusView.setText("");
@@ -0,0 +1,106 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Absolute-time targets for the refresh cycle, so fetch time and scheduling delays don't add up.
+ *
+ * Each cycle's target ("due") instant is the previous target plus the period, not "now plus the
+ * period" after the fetch has finished, and can be snapped to whole minutes or to multiples of the
+ * period since local midnight (so a 15 min refresh lands on :00, :15, :30, :45). Work is started
+ * early by the measured fetch time so the image is on screen at the target, not after it.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class CycleClock {
+    static final String ALIGN_NONE = "none";
+    static final String ALIGN_MINUTE = "minute";
+    static final String ALIGN_INTERVAL = "interval";
+    /** Settings cycles through these. */
+    static final String[] ALIGN_CHOICES = { ALIGN_NONE, ALIGN_MINUTE, ALIGN_INTERVAL };
+
+    /** Weight of the newest sample in the fetch-time averages. */
+    private static final float EWMA_WEIGHT = 0.3f;
+    private static final long MAX_SAMPLE_MS = 2 * 60 * 1000;
+
+    private long dueAt = 0;
+    private long fetchMs = -1;
+    private long tailMs = -1;
+
+    /**
+     * Picks the next target instant. Continues from the previous target when it is recent, so the
+     * cadence has no cumulative drift; otherwise (first cycle, after a backoff or quiet hours)
+     * starts from now. Targets closer than half a period are pushed out by one period.
+     */
+    synchronized long nextDue(long now, long periodMs, String align, TimeZone zone) {
+        long target;
+        if (dueAt > now - periodMs && dueAt < now + periodMs) {
+            target = dueAt + periodMs;
+        } else {
+            target = now + periodMs;
+        }
+        if (ALIGN_MINUTE.equals(align)) {
+            target = roundToGrid(target, 60 * 1000, zone);
+        } else if (ALIGN_INTERVAL.equals(align)) {
+            target = roundToGrid(target, periodMs, zone);
+        }
+        while (target - now < periodMs / 2) {
+            target += periodMs;
+        }
+        dueAt = target;
+        return target;
+    }
+
+    /** Overrides the target, e.g. for a staggered slot, a backoff delay or the end of quiet hours. */
+    synchronized void setDue(long at) {
+        dueAt = at;
+    }
+
+    /** Target of the cycle now in progress (0 before the first). */
+    synchronized long dueAt() {
+        return dueAt;
+    }
+
+    /**
+     * Records one completed fetch.
+     *
+     * @param startedAt when the fetch started
+     * @param firstByteAt when the /display response's first byte arrived (0 if unknown)
+     * @param displayedAt when the image was on screen
+     */
+    synchronized void recordFetch(long startedAt, long firstByteAt, long displayedAt) {
+        long total = displayedAt - startedAt;
+        if (total >= 0 && total <= MAX_SAMPLE_MS) {
+            fetchMs = fetchMs < 0 ? total : (long) (fetchMs + EWMA_WEIGHT * (total - fetchMs));
+        }
+        long tail = displayedAt - firstByteAt;
+        if (firstByteAt > 0 && tail >= 0 && tail <= MAX_SAMPLE_MS) {
+            tailMs = tailMs < 0 ? tail : (long) (tailMs + EWMA_WEIGHT * (tail - tailMs));
+        }
+    }
+
+    /** Average fetch start to image on screen; how early an awake cycle starts. */
+    synchronized long fetchLeadMs() {
+        return Math.max(0, fetchMs);
+    }
+
+    /** Average API first byte to image on screen; added to the wake-ahead, which ends at the first byte. */
+    synchronized long tailLeadMs() {
+        return Math.max(0, tailMs);
+    }
+
+    /** Nearest multiple of step after local midnight of the same day. */
+    static long roundToGrid(long time, long step, TimeZone zone) {
+        if (step <= 0) return time;
+        Calendar cal = Calendar.getInstance(zone);
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long midnight = cal.getTimeInMillis();
+        long k = (time - midnight + step / 2) / step;
+        return midnight + k * step;
+    }
+}
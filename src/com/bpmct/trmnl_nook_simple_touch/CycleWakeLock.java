@@ -0,0 +1,111 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.PowerManager;
+
+/**
+ * Partial wake lock held for one fetch cycle: from the alarm (or any other fetch trigger) through
+ * the connectivity wait, fetch, decode and screensaver write, until the next alarm is set.
+ *
+ * An RTC_WAKEUP alarm only keeps the CPU up for the broadcast itself, and FLAG_KEEP_SCREEN_ON
+ * only while the window is focused and the screen on; without this the NOOK can suspend in the
+ * middle of a handshake and the cycle stretches into timeouts. acquire() is idempotent within a
+ * cycle; release() ends it. A cycle that never reaches release() (activity paused before the
+ * sleep step, a stuck request) is released at MAX_HOLD_MS. Hold times are logged per cycle.
+ * onDeadline runs just before that release, while the CPU is still held (RefreshCycle abandons
+ * the fetch and sets a fallback alarm there). onRelease runs after every release, including the
+ * deadline one (RefreshCycle stops FetchService there).
+ */
+final class CycleWakeLock {
+    /** Connectivity wait plus two attempts each for /display and the image, with room to spare. */
+    static final long MAX_HOLD_MS = 3 * 60 * 1000;
+
+    private final PowerManager.WakeLock lock;
+    private final Handler handler;
+    private final TrmnlApiResponseParser.Logger log;
+    private final Runnable onDeadline;
+    private final Runnable onRelease;
+    private final Runnable deadline = new Runnable() {
+        public void run() {
+            if (!isHeld()) return;
+            if (onDeadline != null) onDeadline.run();
+            release("deadline");
+        }
+    };
+
+    private long heldSince = 0;
+    private String reason;
+    private int cycles = 0;
+    private long totalMs = 0;
+    private long maxMs = 0;
+
+    CycleWakeLock(Context context, Handler handler, TrmnlApiResponseParser.Logger log, Runnable onDeadline,
+            Runnable onRelease) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wl = null;
+        if (pm != null) {
+            wl = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "TRMNL fetch cycle");
+            wl.setReferenceCounted(false);
+        }
+        this.lock = wl;
+        this.handler = handler;
+        this.log = log;
+        this.onDeadline = onDeadline;
+        this.onRelease = onRelease;
+    }
+
+    /** Holds the CPU awake until release() or MAX_HOLD_MS; no-op if this cycle already holds it. */
+    synchronized void acquire(String why) {
+        if (lock == null || heldSince > 0) return;
+        try {
+            // The timeout is a backstop in case the handler deadline never runs.
+            lock.acquire(MAX_HOLD_MS + 30 * 1000);
+        } catch (Throwable t) {
+            if (log != null) log.logW("wake lock acquire: " + t);
+            return;
+        }
+        heldSince = System.currentTimeMillis();
+        reason = why;
+        handler.removeCallbacks(deadline);
+        handler.postDelayed(deadline, MAX_HOLD_MS);
+    }
+
+    /** Ends the cycle's hold and logs how long it lasted; no-op if not held. */
+    synchronized void release(String outcome) {
+        if (heldSince == 0) return;
+        handler.removeCallbacks(deadline);
+        try {
+            lock.release();
+        } catch (Throwable t) {
+            // Already released by the acquire timeout.
+        }
+        long held = System.currentTimeMillis() - heldSince;
+        heldSince = 0;
+        cycles++;
+        totalMs += held;
+        if (held > maxMs) maxMs = held;
+        if (log != null) {
+            String msg = "wake lock: held " + WakeAheadStats.seconds(held) + " (" + reason + " -> " + outcome
+                    + "), avg " + WakeAheadStats.seconds(totalMs / cycles) + ", max " + WakeAheadStats.seconds(maxMs)
+                    + " over " + cycles + " cycles";
+            if ("deadline".equals(outcome)) {
+                log.logW(msg);
+            } else {
+                log.logD(msg);
+            }
+        }
+        if (onRelease != null) onRelease.run();
+    }
+
+    synchronized boolean isHeld() {
+        return heldSince > 0;
+    }
+
+    /** Time left before the deadline release, or -1 if not held (no deadline pending). */
+    synchronized long remainingMs() {
+        if (heldSince == 0) return -1;
+        long left = MAX_HOLD_MS - (System.currentTimeMillis() - heldSince);
+        return left > 0 ? left : 0;
+    }
+}
@@ -1,19 +1,10 @@
 package com.bpmct.trmnl_nook_simple_touch;
 
 import android.app.Activity;
-import android.app.AlarmManager;
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
-import android.os.BatteryManager;
 import android.os.Bundle;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.SystemClock;
@@ -33,29 +24,16 @@ import android.widget.Button;
 import android.widget.FrameLayout;
 import android.view.Gravity;
 
-import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.util.Hashtable;
-import java.util.Locale;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.util.Calendar;
-
-public class DisplayActivity extends Activity {
+public class DisplayActivity extends Activity implements RefreshCycle.Display {
     public static final String EXTRA_CLEAR_IMAGE = "clear_image";
+    /** Set by RefreshCycle.onBoot(): resume the cycle rather than fetch unconditionally. */
+    public static final String EXTRA_BOOT = "boot";
     private static final String TAG = "TRMNLAPI";
-    private static final long DEFAULT_REFRESH_MS = 15 * 60 * 1000;
-    private static final String API_DISPLAY_PATH = "/display";
-    private static final String ALARM_REFRESH_ACTION = "com.bpmct.trmnl_nook_simple_touch.ALARM_REFRESH_ACTION";
-    /** When true, skip API and show generic on screen (for testing). When false, foreground = API image, screensaver file = generic. */
-    private static final boolean USE_GENERIC_IMAGE = false;
-    /** Delay after showing API image before writing screensaver and going to sleep (show picture, then screensaver, then sleep full interval). */
-    private static final long SCREENSAVER_DELAY_MS = 5 * 1000;
+    private static final int APP_ROTATION_DEGREES = 90;
     private TextView contentView;
     private TextView logView;
     private ImageView imageView;
@@ -75,38 +53,46 @@ public class DisplayActivity extends Activity {
     private RotateLayout imageRotateLayout;
     private boolean menuVisible = false;
     private final Handler refreshHandler = new Handler();
-    private Runnable refreshRunnable;
-    private volatile boolean fetchInProgress = false;
-    private volatile boolean fetchStartedFromMenu = false;
-    private volatile long refreshMs = DEFAULT_REFRESH_MS;
-    /** Last displayed API image; used for screensaver file when allow-sleep + write-screensaver. */
-    private Bitmap lastDisplayedImage;
-    /** Reason for current fetch (for logging) */
-    private volatile String fetchReason = "unknown";
+    /** The fetch/sleep cycle; this Activity only renders what it reports. */
+    private RefreshCycle refreshCycle;
     private final StringBuilder logBuffer = new StringBuilder();
     private static final int MAX_LOG_CHARS = 6000;
-    private static final int APP_ROTATION_DEGREES = 90;
-
-    private AlarmManager alarmManager;
-    private PendingIntent alarmPendingIntent;
-    private BroadcastReceiver alarmReceiver;
-    private BroadcastReceiver connectivityReceiver;
-    private Runnable pendingSleepRunnable;
-    private Runnable pendingWifiWarmupRunnable;
-    private Runnable pendingConnectivityTimeoutRunnable;
-    private static final long CONNECTIVITY_MAX_WAIT_MS = 30 * 1000;
+    /** onCreate time and what the first frame showed, for the time-to-first-pixel log line. */
+    private long createdAt;
+    private String firstFrameSource = "boot screen";
+    private boolean firstFrameLogged = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdAt = SystemClock.uptimeMillis();
 
         // Initialize file logging from saved preference
         FileLogger.setEnabled(ApiPrefs.isFileLoggingEnabled(this));
+        refreshCycle = RefreshCycle.get(this);
+
+        // The last frame (raw gray snapshot), read before any layout so the first draw shows it
+        // instead of the boot log. Credentials and WiFi are only looked at after that.
+        Bitmap firstFrame = null;
+        if (!RefreshCycle.USE_GENERIC_IMAGE && !ApiPrefs.isGiftModeEnabled(this)) {
+            firstFrame = refreshCycle.loadFrameSnapshot();
+            if (firstFrame != null) {
+                firstFrameSource = "snapshot";
+            } else {
+                firstFrame = decodeCachedImage();
+                if (firstFrame != null) firstFrameSource = "screensaver png";
+            }
+            if (firstFrame != null) {
+                logD("startup: " + firstFrameSource + " " + firstFrame.getWidth() + "x" + firstFrame.getHeight()
+                        + " ready " + (SystemClock.uptimeMillis() - createdAt) + "ms after onCreate");
+            }
+        }
 
         // Write the generic screensaver on first-ever launch so NOOK shows something
-        // branded if it sleeps before any API image has been displayed.
+        // branded if it sleeps before any API image has been displayed. Off the UI thread:
+        // the JPEG decode and PNG encode would hold the first frame back by seconds.
         if (!ApiPrefs.isScreensaverWrittenOnce(this)) {
-            writeGenericScreensaver();
+            refreshCycle.writeGenericScreensaverInBackground();
             ApiPrefs.setScreensaverWrittenOnce(this, true);
         }
 
@@ -115,7 +101,12 @@ public class DisplayActivity extends Activity {
                 WindowManager.LayoutParams.FLAG_FULLSCREEN,
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
-        FrameLayout root = new FrameLayout(this);
+        FrameLayout root = new FrameLayout(this) {
+            protected void dispatchDraw(Canvas canvas) {
+                super.dispatchDraw(canvas);
+                onFirstDraw();
+            }
+        };
         root.setLayoutParams(new FrameLayout.LayoutParams(
                 ViewGroup.LayoutParams.FILL_PARENT,
                 ViewGroup.LayoutParams.FILL_PARENT));
@@ -248,13 +239,12 @@ public class DisplayActivity extends Activity {
             public boolean onTouch(View v, MotionEvent event) {
                 if (event.getAction() == MotionEvent.ACTION_UP) {
                     logD("menu: next tapped");
-                    if (USE_GENERIC_IMAGE) {
+                    if (RefreshCycle.USE_GENERIC_IMAGE) {
                         hideMenu();
-                        showGenericImageAndSleep();
+                        refreshCycle.showGenericImageAndSleep();
                     } else {
-                        fetchReason = "menu-next";
                         showMenuStatus("Loading...", false);
-                        startFetch();
+                        refreshCycle.fetch("menu-next", false);
                     }
                     return true;
                 }
@@ -314,63 +304,63 @@ public class DisplayActivity extends Activity {
                 ViewGroup.LayoutParams.FILL_PARENT,
                 ViewGroup.LayoutParams.FILL_PARENT));
 
+        if (firstFrame != null) showImageViews(firstFrame);
+
         setContentView(appRotateLayout);
+        if (firstFrame != null) forceFullRefresh();
 
-        // Alarm + receiver for wake-from-sleep refresh (Electric-Sign pattern).
-        alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
-        alarmPendingIntent = PendingIntent.getBroadcast(this, 0, new Intent(ALARM_REFRESH_ACTION), PendingIntent.FLAG_CANCEL_CURRENT);
-        alarmReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                DisplayActivity a = DisplayActivity.this;
-                if (ApiPrefs.isAllowSleep(a)) {
-                    setKeepScreenAwake(true);
-                }
-                if (USE_GENERIC_IMAGE) {
-                    showGenericImageAndSleep();
-                    return;
-                }
-                if (fetchInProgress) {
-                    logD("alarm: fetch already in progress, skipping");
-                    return;
-                }
-                fetchReason = "alarm";
-                // Electric-Sign-style: if we slept with WiFi off, turn it on and wait before fetching
-                WifiManager wifi = (WifiManager) a.getSystemService(Context.WIFI_SERVICE);
-                        if (ApiPrefs.isAllowSleep(a) && wifi != null && !wifi.isWifiEnabled()
-                        && !isConnectedToNetwork(a)) {
-                    wifi.setWifiEnabled(true);
-                    a.waitForWifiThenFetch();
-                    return;
-                }
-                startFetch();
-            }
-        };
-        registerReceiver(alarmReceiver, new IntentFilter(ALARM_REFRESH_ACTION));
+        // The wake alarm, scheduling and fetches live in RefreshCycle (AlarmReceiver/FetchService
+        // run them without this Activity); attach so results are rendered here.
+        refreshCycle.attach(this);
 
         setKeepScreenAwake(true);
 
         boolean wifiJustOn = ensureWifiOnWhenForeground();
 
-        // Initial display: generic image (no API) or fetch from API
-        if (USE_GENERIC_IMAGE) {
-            showGenericImageAndSleep();
+        // Initial display: generic image (no API) or fetch from API. After a reboot the fetch is
+        // skipped while the cached image is fresh, and the restored target is rescheduled.
+        String reason = getIntent() != null && getIntent().getBooleanExtra(EXTRA_BOOT, false) ? "boot" : "onCreate";
+        if (RefreshCycle.USE_GENERIC_IMAGE) {
+            refreshCycle.showGenericImageAndSleep();
         } else if (ensureCredentials()) {
-            fetchReason = "onCreate";
-            if (wifiJustOn) {
-                waitForWifiThenFetch();
-            } else {
-                startFetch();
-            }
+            refreshCycle.fetch(reason, wifiJustOn);
+        }
+    }
+
+    /**
+     * The image file ScheduleRecord points at (the screensaver), or null. Slower than the snapshot;
+     * only used until the first frame after an upgrade has written one.
+     */
+    private Bitmap decodeCachedImage() {
+        String path = refreshCycle.cachedImagePath();
+        if (path == null) return null;
+        try {
+            return BitmapFactory.decodeFile(path);
+        } catch (Throwable t) {
+            logW("cached image: " + t);
+            return null;
         }
     }
 
+    /** Logs time-to-first-pixel once: onCreate to the end of the first draw of the content. */
+    private void onFirstDraw() {
+        if (firstFrameLogged) return;
+        firstFrameLogged = true;
+        logD("startup: first frame drawn " + (SystemClock.uptimeMillis() - createdAt) + "ms after onCreate ("
+                + firstFrameSource + ")");
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
         getWindow().setFlags(
                 WindowManager.LayoutParams.FLAG_FULLSCREEN,
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
+        if (refreshCycle.isRefreshingPanel()) {
+            // Resumed because a screen-off cycle turned the screen on to show its image: don't
+            // keep the screen on or refetch; the cycle turns it off again.
+            return;
+        }
         setKeepScreenAwake(true);
 
         boolean wifiJustOn = ensureWifiOnWhenForeground();
@@ -378,110 +368,12 @@ public class DisplayActivity extends Activity {
         applyIntentState(getIntent());
         if (ApiPrefs.isGiftModeEnabled(this)) {
             showGiftModeScreen();
-        } else if (USE_GENERIC_IMAGE) {
-            showGenericImageAndSleep();
+        } else if (RefreshCycle.USE_GENERIC_IMAGE) {
+            refreshCycle.showGenericImageAndSleep();
         } else if (ensureCredentials()) {
-            if (!fetchInProgress) {
-                fetchReason = "onResume";
-                if (wifiJustOn) {
-                    waitForWifiThenFetch();
-                } else {
-                    startFetch();
-                }
-            }
-            // Don't schedule here - fetch completion will schedule the next refresh
-        }
-    }
-
-    /** When we just turned WiFi on, delay fetch so connection can establish. */
-    private void scheduleFetchAfterWifiWarmup() {
-        if (pendingWifiWarmupRunnable != null) {
-            refreshHandler.removeCallbacks(pendingWifiWarmupRunnable);
-        }
-        pendingWifiWarmupRunnable = new Runnable() {
-            @Override
-            public void run() {
-                pendingWifiWarmupRunnable = null;
-                startFetch();
-            }
-        };
-        refreshHandler.postDelayed(pendingWifiWarmupRunnable, WIFI_WARMUP_MS);
-        logD("fetch in " + (WIFI_WARMUP_MS / 1000L) + "s (wifi warming up)");
-    }
-
-    /** Wait for network to come up, then start fetch. Starts as soon as connectivity appears; max wait CONNECTIVITY_MAX_WAIT_MS. */
-    private void waitForWifiThenFetch() {
-        cancelConnectivityWait();
-        if (isConnectedToNetwork(this)) {
-            startFetch();
-            return;
-        }
-        // Only show Connecting in the dialog when user tapped Next. Resume/alarm wake: keep previous display, wait in background.
-        if (menuVisible) {
-            showMenuStatus("Connecting…", false);
-        }
-        ensureWifiOnWhenForeground();
-        final DisplayActivity a = this;
-        final boolean showErrorInMenu = menuVisible;
-        connectivityReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (!isConnectedToNetwork(context)) return;
-                refreshHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (connectivityReceiver == null) return;
-                        logD("connected, starting fetch");
-                        cancelConnectivityWait();
-                        startFetch();
-                    }
-                });
-            }
-        };
-        try {
-            registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
-        } catch (Throwable t) {
-            logW("register connectivity receiver: " + t);
-            scheduleFetchAfterWifiWarmup();
-            return;
-        }
-        pendingConnectivityTimeoutRunnable = new Runnable() {
-            @Override
-            public void run() {
-                pendingConnectivityTimeoutRunnable = null;
-                logD("connectivity wait timed out");
-                logD("Ensure you are connected to WiFi. Press the home button and go into settings to configure.");
-                cancelConnectivityWait();
-                if (showErrorInMenu) {
-                    a.showMenuStatus("Couldn't connect. Will retry next cycle.", true);
-                } else {
-                    if (a.contentView != null) a.contentView.setText("Couldn't connect. Will retry next cycle.");
-                    if (a.contentScroll != null) a.contentScroll.setVisibility(View.VISIBLE);
-                    if (a.imageView != null) a.imageView.setVisibility(View.GONE);
-                    if (a.logView != null) a.logView.setVisibility(View.VISIBLE);
-                    a.forceFullRefresh();
-                }
-                a.scheduleNextCycle();
-            }
-        };
-        refreshHandler.postDelayed(pendingConnectivityTimeoutRunnable, CONNECTIVITY_MAX_WAIT_MS);
-        setBootStatus("Waiting for WiFi...");
-        logD("waiting for connectivity, fetch as soon as up (max " + (CONNECTIVITY_MAX_WAIT_MS / 1000L) + "s)");
-        logD("Ensure you are connected to WiFi. Press the home button and go into settings to configure.");
-    }
-
-    private void cancelConnectivityWait() {
-        if (connectivityReceiver != null) {
-            try {
-                unregisterReceiver(connectivityReceiver);
-            } catch (Throwable t) {
-                Log.w(TAG, "unregister connectivityReceiver: " + t);
-            }
-            connectivityReceiver = null;
-        }
-        if (pendingConnectivityTimeoutRunnable != null) {
-            refreshHandler.removeCallbacks(pendingConnectivityTimeoutRunnable);
-            pendingConnectivityTimeoutRunnable = null;
+            // Skipped if a fetch is running or the image is still fresh (e.g. back from Settings)
+            refreshCycle.fetch("onResume", wifiJustOn);
+            // Don't schedule here - fetch completion schedules the next refresh; a skip keeps the pending one
         }
     }
 
@@ -497,18 +389,9 @@ public class DisplayActivity extends Activity {
     /** WiFi is only off while sleeping; when app is in foreground, ensure it's on so fetch works.
      * @return true if WiFi was off and we turned it on (caller should delay fetch to allow connection). */
     private boolean ensureWifiOnWhenForeground() {
-        if (!ApiPrefs.isAllowSleep(this)) return false;
-        WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-        if (wifi != null && !wifi.isWifiEnabled()) {
-            wifi.setWifiEnabled(true);
-            logD("wifi on (app in foreground), wait ~15s for connection");
-            return true;
-        }
-        return false;
+        return refreshCycle.ensureWifiOn("app in foreground");
     }
 
-    private static final long WIFI_WARMUP_MS = 15 * 1000;
-
     @Override
     public void onUserInteraction() {
         super.onUserInteraction();
@@ -531,34 +414,10 @@ public class DisplayActivity extends Activity {
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        if (refreshRunnable != null) {
-            refreshHandler.removeCallbacks(refreshRunnable);
-        }
-        if (pendingSleepRunnable != null) {
-            refreshHandler.removeCallbacks(pendingSleepRunnable);
-            pendingSleepRunnable = null;
-        }
-        if (pendingWifiWarmupRunnable != null) {
-            refreshHandler.removeCallbacks(pendingWifiWarmupRunnable);
-            pendingWifiWarmupRunnable = null;
-        }
-        cancelConnectivityWait();
-    }
-
     @Override
     protected void onDestroy() {
-        cancelConnectivityWait();
-        try {
-            if (alarmReceiver != null) {
-                unregisterReceiver(alarmReceiver);
-                alarmReceiver = null;
-            }
-        } catch (Throwable t) {
-            Log.w(TAG, "onDestroy unregisterReceiver: " + t);
-        }
+        // The cycle carries on without us; FetchService holds the process while one is running.
+        refreshCycle.detach(this);
         super.onDestroy();
     }
 
@@ -582,213 +441,6 @@ public class DisplayActivity extends Activity {
         }
     }
 
-    /** Schedule alarm to wake and trigger next fetch at (now + millis). */
-    /** Schedule the next fetch cycle based on allow-sleep setting. */
-    private void scheduleNextCycle() {
-        if (ApiPrefs.isAllowSleep(this)) {
-            scheduleScreensaverThenSleep();
-        } else {
-            scheduleRefresh();
-        }
-    }
-
-    private long scheduleReload(long millis) {
-        if (alarmManager == null || alarmPendingIntent == null) return 0;
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(System.currentTimeMillis() + millis);
-        long wakeTime = cal.getTimeInMillis();
-        alarmManager.set(AlarmManager.RTC_WAKEUP, wakeTime, alarmPendingIntent);
-        return wakeTime;
-    }
-
-    /** After SCREENSAVER_DELAY_MS (5s), put device in sleep-ready state (clear keep-screen-on, WiFi off, alarm set).
-     * We do NOT show generic in-app — the API image stays on screen. If "write screensaver" is on we write
-     * the displayed API image to the NOOK screensaver path so the device shows it when it sleeps (e.g. after 2m). */
-    private void scheduleScreensaverThenSleep() {
-        if (pendingSleepRunnable != null) {
-            refreshHandler.removeCallbacks(pendingSleepRunnable);
-        }
-        pendingSleepRunnable = new Runnable() {
-            @Override
-            public void run() {
-                pendingSleepRunnable = null;
-                if (!ApiPrefs.isAllowSleep(DisplayActivity.this)) return;
-                // Write screensaver so NOOK shows our image while asleep
-                if (lastDisplayedImage != null) {
-                    writeScreenshotToScreensaver(lastDisplayedImage);
-                } else {
-                    writeGenericScreensaver();
-                }
-                long sleepMs = refreshMs - SCREENSAVER_DELAY_MS;
-                if (sleepMs < 0) sleepMs = 0;
-                // Wake 45s early so WiFi warmup finishes by the time we want the next image
-                sleepMs = Math.max(0, sleepMs - WIFI_WARMUP_MS);
-                scheduleReload(sleepMs);
-                setKeepScreenAwake(false);
-                if (ApiPrefs.isAutoDisableWifi(DisplayActivity.this)) {
-                    WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-                    if (wifi != null) wifi.setWifiEnabled(false);
-                }
-                logD("sleep-ready: alarm in " + (sleepMs / 1000L) + "s (+15s warmup = next image on time; NOOK may blank after idle, e.g. 2m)");
-            }
-        };
-        refreshHandler.postDelayed(pendingSleepRunnable, SCREENSAVER_DELAY_MS);
-        logD("sleep-ready in " + (SCREENSAVER_DELAY_MS / 1000L) + "s (API image stays; NOOK shows screensaver when it sleeps)");
-    }
-
-    /** Show bundled generic image (res/drawable-mdpi/generic_display.jpg) and, if allow-sleep, write it as screensaver and go to sleep. */
-    private void showGenericImageAndSleep() {
-        Bitmap bitmap = null;
-        try {
-            bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.generic_display);
-        } catch (Throwable t) {
-            logW("generic_display decode failed: " + t);
-        }
-        if (bitmap == null) {
-            logW("generic_display not found or failed to load");
-            return;
-        }
-        imageView.setImageBitmap(bitmap);
-        imageView.setVisibility(View.VISIBLE);
-        if (imageRotateLayout != null) imageRotateLayout.setVisibility(View.VISIBLE);
-        if (contentScroll != null) contentScroll.setVisibility(View.GONE);
-        if (logView != null) logView.setVisibility(View.GONE);
-        forceFullRefresh();
-        logD("displayed generic image");
-        logD("next display in " + (refreshMs / 1000L) + "s");
-        if (ApiPrefs.isAllowSleep(this)) {
-            writeScreenshotToScreensaver(bitmap);
-            scheduleReload(refreshMs);
-            setKeepScreenAwake(false);
-            if (ApiPrefs.isAutoDisableWifi(this)) {
-                WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-                if (wifi != null) wifi.setWifiEnabled(false);
-            }
-            logD("sleep allowed: alarm set, screen off, wifi off");
-        } else {
-            scheduleRefresh();
-        }
-    }
-
-    private static boolean isConnectedToNetwork(Context context) {
-        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (cm == null) return false;
-        NetworkInfo wifi = cm.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-        if (wifi != null && wifi.isConnected()) return true;
-        NetworkInfo mobile = cm.getNetworkInfo(ConnectivityManager.TYPE_MOBILE);
-        return mobile != null && mobile.isConnected();
-    }
-
-    /** Write bundled generic_display.jpg to screensaver path. Used as fallback when no API image has been displayed yet. */
-    private void writeGenericScreensaver() {
-        Bitmap b = null;
-        try {
-            b = BitmapFactory.decodeResource(getResources(), R.drawable.generic_display);
-        } catch (Throwable t) {
-            logW("generic_display for screensaver: " + t);
-        }
-        if (b != null) writeScreenshotToScreensaver(b);
-    }
-
-    /** Write given bitmap to screensaver path so NOOK shows it while asleep. */
-    private void writeScreenshotToScreensaver(Bitmap bitmap) {
-        if (bitmap == null) return;
-        String path = ApiPrefs.getScreensaverPath();
-        if (path == null || path.length() == 0) return;
-        String dirPath = path;
-        int lastSlash = dirPath.lastIndexOf('/');
-        if (lastSlash >= 0) dirPath = dirPath.substring(0, lastSlash);
-        try {
-            new File(dirPath).mkdirs();
-        } catch (Throwable t) {
-            logW("screensaver mkdir: " + t);
-        }
-        try {
-            FileOutputStream out = new FileOutputStream(new File(path));
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.flush();
-            out.close();
-            logD("screensaver written: " + path);
-        } catch (Throwable t) {
-            logW("screensaver write failed: " + t);
-        }
-    }
-
-    /** Battery percentage (0-100) from ACTION_BATTERY_CHANGED, or -1 if unknown. */
-    private static int getBatteryPercent(Context context) {
-        if (context == null) return -1;
-        try {
-            Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-            if (intent == null) return -1;
-            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-            if (level < 0 || scale <= 0) return -1;
-            return Math.round((level * 100f) / scale);
-        } catch (Throwable t) {
-            return -1;
-        }
-    }
-
-    /** WiFi RSSI in dBm (e.g. -69), or -999 if unknown. Requires ACCESS_WIFI_STATE. */
-    private static int getWifiRssi(Context context) {
-        if (context == null) return -999;
-        try {
-            WifiManager wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-            if (wm == null) return -999;
-            WifiInfo info = wm.getConnectionInfo();
-            if (info == null) return -999;
-            return info.getRssi();
-        } catch (Throwable t) {
-            return -999;
-        }
-    }
-
-    private void startFetch() {
-        // Cancel any pending sleep runnable to prevent WiFi being turned off mid-fetch
-        if (pendingSleepRunnable != null) {
-            refreshHandler.removeCallbacks(pendingSleepRunnable);
-            pendingSleepRunnable = null;
-        }
-        // Always wait for WiFi before attempting fetch
-        if (!isConnectedToNetwork(this)) {
-            WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-            if (wifi != null && !wifi.isWifiEnabled()) {
-                wifi.setWifiEnabled(true);
-            }
-            waitForWifiThenFetch();
-            return;
-        }
-        if (!ensureCredentials()) {
-            return;
-        }
-        if (fetchInProgress) {
-            return;
-        }
-        fetchInProgress = true;
-        fetchStartedFromMenu = menuVisible;
-        setBootStatus("Fetching...");
-        appendLogLine("Fetching...");
-        // Only show Loading in the dialog when user tapped Next. Resume/alarm wake: keep previous display, fetch in background.
-        if (menuVisible) {
-            showMenuStatus("Loading...", false);
-        }
-        String httpsUrl = ApiPrefs.getApiBaseUrl(this) + API_DISPLAY_PATH;
-        logD("fetch reason=" + fetchReason + " wifi=" + getWifiStateString());
-        logD("start: " + httpsUrl);
-        ApiFetchTask.start(this, httpsUrl, ApiPrefs.getApiId(this), ApiPrefs.getApiToken(this));
-    }
-
-    private String getWifiStateString() {
-        WifiManager wifi = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-        if (wifi == null) return "null";
-        if (!wifi.isWifiEnabled()) return "off";
-        WifiInfo info = wifi.getConnectionInfo();
-        if (info == null) return "on/no-info";
-        int ip = info.getIpAddress();
-        if (ip == 0) return "on/no-ip";
-        return "connected";
-    }
-
     /** Show "Loading..." in content area and hide log so the dialog is clean. */
     private void showLoadingMessage() {
         if (contentView != null) contentView.setText("Loading...");
@@ -798,41 +450,6 @@ public class DisplayActivity extends Activity {
         forceFullRefresh();
     }
 
-    private void scheduleRefresh() {
-        if (ApiPrefs.isAllowSleep(this)) {
-            return;
-        }
-        if (refreshRunnable == null) {
-            refreshRunnable = new Runnable() {
-                public void run() {
-                    fetchReason = "timer";
-                    startFetch();
-                    refreshHandler.postDelayed(this, refreshMs);
-                }
-            };
-        }
-        refreshHandler.removeCallbacks(refreshRunnable);
-        logD("next display in " + (refreshMs / 1000L) + "s");
-        refreshHandler.postDelayed(refreshRunnable, refreshMs);
-    }
-
-    private void updateRefreshRateSeconds(final int seconds) {
-        if (seconds <= 0) {
-            return;
-        }
-        long newMs = seconds * 1000L;
-        if (newMs == refreshMs) {
-            return;
-        }
-        refreshMs = newMs;
-        logD("refresh rate set to " + seconds + "s");
-        refreshHandler.post(new Runnable() {
-            public void run() {
-                scheduleRefresh();
-            }
-        });
-    }
-
     private void appendLogLine(String line) {
         // Keep buffer bounded.
         if (logBuffer.length() > MAX_LOG_CHARS) {
@@ -1065,7 +682,7 @@ public class DisplayActivity extends Activity {
                 Bitmap custom = BitmapFactory.decodeFile(customPath);
                 if (custom != null) {
                     logD("Using custom gift screensaver: " + customPath);
-                    writeScreenshotToScreensaver(custom);
+                    refreshCycle.writeScreensaver(custom);
                     return;
                 } else {
                     logW("Could not decode custom gift screensaver: " + customPath);
@@ -1077,7 +694,7 @@ public class DisplayActivity extends Activity {
         // Fallback: use bundled gift screensaver image (native portrait 600x800)
         Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.gift_screensaver);
         if (bitmap != null) {
-            writeScreenshotToScreensaver(bitmap);
+            refreshCycle.writeScreensaver(bitmap);
         }
     }
 
@@ -1138,7 +755,7 @@ public class DisplayActivity extends Activity {
 
     private void updateMenuBattery() {
         if (batteryView == null) return;
-        int percent = getBatteryPercent(this);
+        int percent = RefreshCycle.getBatteryPercent(this);
         if (percent >= 0) {
             batteryView.setText("Battery: " + percent + "%");
         } else {
@@ -1245,342 +862,119 @@ public class DisplayActivity extends Activity {
         return true;
     }
 
-    private void logD(final String msg) {
-        Log.d(TAG, msg);
-        FileLogger.d(TAG, msg);
-        if (!bootComplete) logToScreen(msg);
-    }
+    // RefreshCycle.Display: the cycle reports, this Activity renders.
 
-    private void logW(final String msg) {
-        Log.w(TAG, msg);
-        FileLogger.w(TAG, msg);
-        if (!bootComplete) logToScreen("W " + msg);
-    }
-    
-    private void logToScreen(final String msg) {
-        runOnUiThread(new Runnable() {
-            public void run() { appendLogLine(msg); }
-        });
+    public boolean isMenuVisible() {
+        return menuVisible;
     }
 
-    private void logE(final String msg, final Throwable t) {
-        Log.e(TAG, msg, t);
-        FileLogger.e(TAG, msg, t);
-        runOnUiThread(new Runnable() {
-            public void run() {
-                appendLogLine("E " + msg + (t != null ? (": " + t.toString()) : ""));
-            }
-        });
+    public void onFetchStarting(boolean fromMenu) {
+        setBootStatus("Fetching...");
+        appendLogLine("Fetching...");
+        if (fromMenu) {
+            showMenuStatus("Loading...", false);
+        }
     }
 
-    /**
-     * Fetches JSON from API and displays as text.
-     */
-    private static class ApiFetchTask extends AsyncTask {
-        private final WeakReference activityRef;
-        private final String httpsUrl;
-        private final String apiId;
-        private final String apiToken;
-        private ApiFetchTask(DisplayActivity activity, String httpsUrl, String apiId, String apiToken) {
-            this.activityRef = new WeakReference(activity);
-            this.httpsUrl = httpsUrl;
-            this.apiId = apiId;
-            this.apiToken = apiToken;
+    public void onWaitingForNetwork(boolean fromMenu) {
+        if (fromMenu) {
+            showMenuStatus("Connecting…", false);
         }
+        setBootStatus("Waiting for WiFi...");
+    }
 
-        public static void start(DisplayActivity activity, String httpsUrl, String apiId, String apiToken) {
-            if (activity == null || httpsUrl == null) return;
-            try {
-                new ApiFetchTask(activity, httpsUrl, apiId, apiToken).execute(new Object[] { httpsUrl });
-            } catch (Throwable t) {
-                activity.logE("fetch start failed", t);
-            }
+    public void onConnectTimeout(boolean fromMenu) {
+        if (fromMenu) {
+            showMenuStatus("Couldn't connect. Will retry next cycle.", true);
+        } else {
+            if (contentView != null) contentView.setText("Couldn't connect. Will retry next cycle.");
+            if (contentScroll != null) contentScroll.setVisibility(View.VISIBLE);
+            if (imageView != null) imageView.setVisibility(View.GONE);
+            if (logView != null) logView.setVisibility(View.VISIBLE);
+            forceFullRefresh();
         }
+    }
 
-        protected Object doInBackground(Object[] params) {
-            String httpsUrl = (String) params[0];
-            DisplayActivity a = (DisplayActivity) activityRef.get();
-            int batteryPercent = getBatteryPercent(a != null ? a : null);
-            int rssi = getWifiRssi(a != null ? a : null);
-            if (a != null && batteryPercent >= 0) a.logD("Percent-Charged: " + batteryPercent);
-            if (a != null && rssi != -999) a.logD("rssi: " + rssi);
-            
-            // Try BouncyCastle TLS first (supports TLS 1.2)
-            if (BouncyCastleHttpClient.isAvailable()) {
-                if (a != null) a.logD("trying BouncyCastle TLS 1.2");
-                Hashtable headers = buildApiHeaders(apiId, apiToken, batteryPercent, rssi);
-                
-                // Try up to 2 times with 3s backoff
-                String bcResult = null;
-                for (int attempt = 1; attempt <= 2; attempt++) {
-                    if (attempt > 1) {
-                        if (a != null) a.logW("Attempt " + (attempt-1) + " failed: " + bcResult + " - retrying in 5s");
-                        try { Thread.sleep(5000); } catch (InterruptedException ignored) {}
-                        if (a != null) a.logD("Retrying fetch...");
-                    }
-                    bcResult = BouncyCastleHttpClient.getHttps(
-                            a != null ? a.getApplicationContext() : null,
-                            httpsUrl,
-                            headers);
-                    if (bcResult != null && !bcResult.startsWith("Error:")) {
-                        ApiResult parsed = null;
-                        if (a != null) {
-                            final DisplayActivity aFinal = a;
-                            TrmnlApiResponseParser.Result r = TrmnlApiResponseParser.parseAndMaybeFetchImage(
-                                    aFinal.getApplicationContext(),
-                                    bcResult,
-                                    new TrmnlApiResponseParser.Logger() {
-                                        public void logD(String msg) { aFinal.logD(msg); }
-                                        public void logW(String msg) { aFinal.logW(msg); }
-                                    });
-                            if (r != null && r.showImage && r.bitmap != null) {
-                                if (r.refreshRateSeconds > 0) {
-                                    a.updateRefreshRateSeconds(r.refreshRateSeconds);
-                                }
-                                parsed = new ApiResult(r.rawText, r.imageUrl, r.bitmap);
-                            } else {
-                                // Preserve previous behavior: still allow refresh rate update even if no image
-                                if (r != null && r.refreshRateSeconds > 0) {
-                                    a.updateRefreshRateSeconds(r.refreshRateSeconds);
-                                }
-                                parsed = new ApiResult(bcResult);
-                            }
-                        }
-                        return (parsed != null) ? parsed : new ApiResult(bcResult);
-                    }
-                }
-                if (a != null) a.logW("All attempts failed: " + bcResult);
-                return bcResult;
-            }
-
-            String error = "Error: TLS 1.2 client unavailable (BouncyCastle required)";
-            if (a != null) a.logW(error);
-            return error;
-        }
-        
-        private Object fetchUrl(String url, boolean isHttps, String apiId, String apiToken,
-                                int batteryPercent, int rssi) {
-            HttpURLConnection conn = null;
-            try {
-                DisplayActivity a0 = (DisplayActivity) activityRef.get();
-                if (a0 != null) a0.logD("fetching: " + url + (isHttps ? " (HTTPS)" : " (HTTP)"));
-                URL u = new URL(url);
-                conn = (HttpURLConnection) u.openConnection();
-                conn.setConnectTimeout(15000);
-                conn.setReadTimeout(20000);
-                conn.setRequestProperty("User-Agent", "TRMNL-Nook/1.0 (Android 2.1)");
-                conn.setRequestProperty("Accept", "application/json");
-                
-                // Add API authentication headers (matching curl format)
-                if (apiId != null) {
-                    conn.setRequestProperty("ID", apiId);
-                }
-                if (apiToken != null) {
-                    conn.setRequestProperty("access-token", apiToken);
-                }
-                if (batteryPercent >= 0) {
-                    conn.setRequestProperty("Percent-Charged", String.valueOf(batteryPercent));
-                }
-                if (rssi != -999) {
-                    conn.setRequestProperty("rssi", String.valueOf(rssi));
-                }
+    public void onImage(Bitmap bitmap) {
+        showImageViews(bitmap);
+        hideMenu();
+        forceFullRefresh();
+    }
 
-                // Explicit connect for API 7
-                try {
-                    conn.connect();
-                } catch (Throwable t) {
-                    String errorMsg = "Error: " + t.getMessage();
-                    DisplayActivity a4 = (DisplayActivity) activityRef.get();
-                    if (a4 != null) a4.logE("connect() failed", t);
-                    return errorMsg;
-                }
+    public void onPanelRefresh(Bitmap bitmap) {
+        // The cycle turned the screen on for this image only. Unlike setKeepScreenAwake(true) this
+        // doesn't poke user activity, so the screen goes back off when the cycle lets go of it.
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED
+                | WindowManager.LayoutParams.FLAG_DISMISS_KEYGUARD
+                | WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        showImageViews(bitmap);
+        // Close a menu left open without hideMenu()'s flash: one e-ink refresh only.
+        menuVisible = false;
+        if (menuLayout != null) menuLayout.setVisibility(View.GONE);
+        if (menuScrim != null) menuScrim.setVisibility(View.GONE);
+        forceFullRefresh();
+    }
 
-                int code;
-                try {
-                    code = conn.getResponseCode();
-                } catch (Throwable t) {
-                    String errorMsg = "Error: " + t.getMessage();
-                    DisplayActivity a5 = (DisplayActivity) activityRef.get();
-                    if (a5 != null) a5.logE("getResponseCode() failed", t);
-                    // Log full stack trace for SSL errors
-                    if (t.getMessage() != null && t.getMessage().contains("SSL")) {
-                        DisplayActivity a6 = (DisplayActivity) activityRef.get();
-                        if (a6 != null) a6.logE("SSL error details", t);
-                    }
-                    return errorMsg;
-                }
-                
-                DisplayActivity a7 = (DisplayActivity) activityRef.get();
-                if (a7 != null) a7.logD("response code: " + code);
-                
-                if (code == -1) {
-                    String errorMsg = "Error: Connection failed (code=-1)";
-                    DisplayActivity a8 = (DisplayActivity) activityRef.get();
-                    if (a8 != null) a8.logW(errorMsg);
-                    return errorMsg;
-                }
+    private void showImageViews(Bitmap bitmap) {
+        hideBootScreen();
+        imageView.setImageBitmap(bitmap);
+        imageView.setVisibility(View.VISIBLE);
+        if (imageRotateLayout != null) imageRotateLayout.setVisibility(View.VISIBLE);
+        if (contentScroll != null) contentScroll.setVisibility(View.GONE);
+        if (logView != null) logView.setVisibility(View.GONE);
+    }
 
-                if (code >= 200 && code < 300) {
-                    InputStream is = conn.getInputStream();
-                    StringBuilder sb = new StringBuilder();
-                    byte[] buf = new byte[8192];
-                    int n;
-                    while ((n = is.read(buf)) > 0) {
-                        sb.append(new String(buf, 0, n, "UTF-8"));
-                    }
-                    is.close();
-                    String json = sb.toString();
-                DisplayActivity a9 = (DisplayActivity) activityRef.get();
-                    if (a9 != null) a9.logD("got " + json.length() + " chars from " + (isHttps ? "HTTPS" : "HTTP"));
-                    return json;
-                } else {
-                    return "Error: HTTP " + code;
-                }
-            } catch (Throwable t) {
-                String errorMsg = "Error: " + t.getMessage();
-                DisplayActivity a10 = (DisplayActivity) activityRef.get();
-                if (a10 != null) a10.logE("fetch failed", t);
-                // Log full stack trace for SSL errors
-                if (t.getMessage() != null && t.getMessage().contains("SSL")) {
-                    DisplayActivity a11 = (DisplayActivity) activityRef.get();
-                    if (a11 != null) a11.logE("SSL error full stack trace", t);
-                }
-                return errorMsg;
-            } finally {
-                if (conn != null) {
-                    try { conn.disconnect(); } catch (Throwable ignored) {}
-                }
-            }
+    public void onNoImage(boolean fromMenu) {
+        if (fromMenu) {
+            // User tapped Next - show error in menu dialog, let them retry
+            showMenuStatus("No image - tap Next to retry", true);
+            forceFullRefresh();
         }
+    }
 
-        protected void onPostExecute(Object result) {
-            final DisplayActivity a = (DisplayActivity) activityRef.get();
-            if (a == null || a.contentView == null) return;
-
-            a.fetchInProgress = false;
-            final boolean fromMenu = a.fetchStartedFromMenu;
-            a.fetchStartedFromMenu = false;
-            if (result instanceof ApiResult) {
-                ApiResult ar = (ApiResult) result;
-                if (ar.showImage && ar.bitmap != null) {
-                    if (ar.rawText != null) {
-                        a.logD("response body:\n" + ar.rawText);
-                    }
-                    a.hideBootScreen();
-                    a.imageView.setImageBitmap(ar.bitmap);
-                    a.lastDisplayedImage = ar.bitmap;
-                    // Always write screensaver immediately so TRMNL appears in NOOK's screensaver list
-                    a.writeScreenshotToScreensaver(ar.bitmap);
-                    a.imageView.setVisibility(View.VISIBLE);
-                    if (a.imageRotateLayout != null) a.imageRotateLayout.setVisibility(View.VISIBLE);
-                    if (a.contentScroll != null) {
-                        a.contentScroll.setVisibility(View.GONE);
-                    }
-                    if (a.logView != null) {
-                        a.logView.setVisibility(View.GONE);
-                    }
-                    a.hideMenu();
-                    if (ar.imageUrl != null) {
-                        a.logD("image url: " + ar.imageUrl);
-                    }
-                    a.forceFullRefresh();
-                    a.logD("displayed image");
-                    a.logD("next display in " + (a.refreshMs / 1000L) + "s");
-                    a.scheduleNextCycle();
-                    int pct = getBatteryPercent(a);
-                    if (pct >= 0) a.logD("Percent-Charged: " + pct);
-                    int rssi = getWifiRssi(a);
-                    if (rssi != -999) a.logD("rssi: " + rssi);
-                    return;
-                }
-
-                // Got API response but no image - show error and schedule retry
-                String text = ar.rawText != null ? ar.rawText : "Error: null result";
-                a.logD("response body:\n" + text);
-                a.logD("no image in response, will retry");
-                if (fromMenu) {
-                    // User tapped Next - show error in menu dialog, let them retry
-                    a.showMenuStatus("No image - tap Next to retry", true);
-                    a.forceFullRefresh();
-                } else {
-                    // Background fetch - keep current display, just schedule retry
-                    a.logD("next display in " + (a.refreshMs / 1000L) + "s");
-                }
-                // Schedule next refresh (keep trying)
-                if (ApiPrefs.isAllowSleep(a)) {
-                    a.scheduleScreensaverThenSleep();
-                } else {
-                    a.scheduleRefresh();
-                }
-                return;
-            }
+    public void onFetchError(String text) {
+        // Show error with boot header + logs
+        hideMenu();
+        setBootStatus("Error - tap to retry");
+        if (bootLayout != null) bootLayout.setVisibility(View.VISIBLE);
+        if (imageView != null) imageView.setVisibility(View.GONE);
+        if (contentScroll != null) contentScroll.setVisibility(View.GONE);
+        if (logView != null) logView.setVisibility(View.VISIBLE);
+        forceFullRefresh();
+    }
 
-            String text = result != null ? result.toString() : "Error: null result";
-            // Show error with boot header + logs
-            a.hideMenu();
-            a.logW("ERROR: " + text);
-            a.setBootStatus("Error - tap to retry");
-            if (a.bootLayout != null) a.bootLayout.setVisibility(View.VISIBLE);
-            if (a.imageView != null) a.imageView.setVisibility(View.GONE);
-            if (a.contentScroll != null) a.contentScroll.setVisibility(View.GONE);
-            if (a.logView != null) a.logView.setVisibility(View.VISIBLE);
-            a.forceFullRefresh();
-            a.logD("fetch error: " + text);
-            a.logD("next display in " + (a.refreshMs / 1000L) + "s");
-            // Schedule next refresh even on error (keep trying)
-            a.scheduleNextCycle();
-            int pct = getBatteryPercent(a);
-            if (pct >= 0) a.logD("Percent-Charged: " + pct);
-            int rssi = getWifiRssi(a);
-            if (rssi != -999) a.logD("rssi: " + rssi);
-        }
+    public void onChargeMe(Bitmap bitmap) {
+        showImageViews(bitmap);
+        forceFullRefresh();
     }
 
-    private static class ApiResult {
-        final String rawText;
-        final boolean showImage;
-        final Bitmap bitmap;
-        final String imageUrl;
-
-        ApiResult(String rawText) {
-            this.rawText = rawText;
-            this.showImage = false;
-            this.bitmap = null;
-            this.imageUrl = null;
-        }
+    public void onMissingCredentials() {
+        ensureCredentials();
+    }
 
-        ApiResult(String rawText, String imageUrl, Bitmap bitmap) {
-            this.rawText = rawText;
-            this.showImage = true;
-            this.bitmap = bitmap;
-            this.imageUrl = imageUrl;
-        }
+    public void setScreenAwake(boolean awake) {
+        setKeepScreenAwake(awake);
     }
 
-    private static Hashtable buildApiHeaders(String apiId, String apiToken, int batteryPercent, int rssi) {
-        Hashtable headers = new Hashtable();
-        headers.put("User-Agent", "TRMNL-Nook/1.0 (Android 2.1)");
-        headers.put("Accept", "application/json");
-        if (apiId != null) {
-            headers.put("ID", apiId);
-        }
-        if (apiToken != null) {
-            headers.put("access-token", apiToken);
-        }
-        if (batteryPercent >= 0) {
-            headers.put("Percent-Charged", String.valueOf(batteryPercent));
-        }
-        if (rssi != -999) {
-            headers.put("rssi", String.valueOf(rssi));
-        }
-        return headers;
+    public void onLog(String line) {
+        if (!bootComplete) logToScreen(line);
     }
 
+    private void logD(final String msg) {
+        Log.d(TAG, msg);
+        FileLogger.d(TAG, msg);
+        if (!bootComplete) logToScreen(msg);
+    }
 
-    private static Hashtable buildImageHeaders() {
-        Hashtable headers = new Hashtable();
-        headers.put("User-Agent", "TRMNL-Nook/1.0 (Android 2.1)");
-        headers.put("Accept", "image/*");
-        return headers;
+    private void logW(final String msg) {
+        Log.w(TAG, msg);
+        FileLogger.w(TAG, msg);
+        if (!bootComplete) logToScreen("W " + msg);
+    }
+    
+    private void logToScreen(final String msg) {
+        runOnUiThread(new Runnable() {
+            public void run() { appendLogLine(msg); }
+        });
     }
 }
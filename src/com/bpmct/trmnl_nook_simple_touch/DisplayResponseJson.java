@@ -0,0 +1,389 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+/**
+ * Pull-style reader for the TRMNL /api/display response.
+ *
+ * Walks the response bytes once, straight from the HTTP body buffer, and keeps only the
+ * top-level keys the client knows about. Keys are compared as bytes and only the values kept
+ * are turned into Strings; every other value (nested plugin data, arrays, unknown keys) is
+ * stepped over without creating strings or objects. JSON's structural characters are ASCII and
+ * never occur inside a multi-byte UTF-8 sequence, so the bytes can be scanned as they are. On
+ * Android 2.1 this is much cheaper than building an org.json tree just to read three fields
+ * (see tools/bench/run-bench.sh json).
+ *
+ * Missing keys keep their defaults (-1 for numbers, null for strings, false for flags);
+ * a JSON null counts as missing. Numbers given as strings are accepted, like optInt(), and a
+ * number or boolean where a string is expected reads as its text, like optString().
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class DisplayResponseJson {
+    int status = -1;
+    int refreshRate = -1;
+    String imageUrl;
+    String filename;
+    int imageUrlTimeout = -1;
+    boolean resetFirmware;
+    boolean updateFirmware;
+    String firmwareUrl;
+    String specialFunction;
+    String temperatureProfile;
+
+    private static final String[] KEYS = {
+            "status", "refresh_rate", "image_url", "filename", "image_url_timeout",
+            "reset_firmware", "update_firmware", "firmware_url", "special_function",
+            "temperature_profile"
+    };
+    private static final byte[][] KEY_BYTES = new byte[KEYS.length][];
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_BYTES[i] = ascii(KEYS[i]);
+        }
+    }
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    private DisplayResponseJson(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Parses a /display response body in place.
+     *
+     * @param body UTF-8 bytes, e.g. HttpResponse.body; only body[offset, offset + length) is read
+     * @throws IllegalArgumentException if the bytes are not a JSON object
+     */
+    static DisplayResponseJson parse(byte[] body, int offset, int length) {
+        if (body == null || length <= 0 || offset < 0 || offset + length > body.length) {
+            throw new IllegalArgumentException("no response body");
+        }
+        DisplayResponseJson r = new DisplayResponseJson(body, offset, length);
+        r.readObject();
+        return r;
+    }
+
+    private void readObject() {
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            int key = readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (key < 0) {
+                skipValue();
+            } else {
+                readField(key);
+            }
+            skipWhitespace();
+            int c = next();
+            if (c == '}') return;
+            if (c != ',') throw error("expected , or }");
+        }
+    }
+
+    /** Index into KEYS for the key at pos, or -1; leaves pos after the closing quote. */
+    private int readKey() {
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            int c = next();
+            if (c == '"') break;
+            if (c == '\\') {
+                escaped = true;
+                next();
+            }
+        }
+        if (escaped) {
+            pos = start - 1;
+            String key = readString();
+            for (int i = 0; i < KEYS.length; i++) {
+                if (KEYS[i].equals(key)) return i;
+            }
+            return -1;
+        }
+        int len = pos - 1 - start;
+        for (int i = 0; i < KEY_BYTES.length; i++) {
+            if (KEY_BYTES[i].length == len && bytesAt(start, KEY_BYTES[i])) return i;
+        }
+        return -1;
+    }
+
+    private void readField(int key) {
+        int c = peek();
+        if (c == 'n') {
+            expectWord(NULL);
+            return;
+        }
+        switch (key) {
+            case 0: status = readInt(); break;
+            case 1: refreshRate = readInt(); break;
+            case 2: imageUrl = readStringValue(); break;
+            case 3: filename = readStringValue(); break;
+            case 4: imageUrlTimeout = readInt(); break;
+            case 5: resetFirmware = readBoolean(); break;
+            case 6: updateFirmware = readBoolean(); break;
+            case 7: firmwareUrl = readStringValue(); break;
+            case 8: specialFunction = readStringValue(); break;
+            case 9: temperatureProfile = readStringValue(); break;
+            default: skipValue(); break;
+        }
+    }
+
+    /** A number, or a number given as a string (like optInt()); -1 if it is neither. */
+    private int readInt() {
+        int c = peek();
+        if (c == '"') {
+            return toInt(readString().trim());
+        }
+        if (c == '{' || c == '[' || c == 't' || c == 'f') {
+            skipValue();
+            return -1;
+        }
+        int start = pos;
+        skipNumber();
+        // Plain integers (the usual case) are read from the bytes directly.
+        long value = 0;
+        int i = start;
+        boolean negative = i < pos && buf[i] == '-';
+        if (negative) i++;
+        boolean plain = i < pos && pos - i <= 10;
+        for (; plain && i < pos; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) plain = false;
+            else value = value * 10 + d;
+        }
+        if (plain && value <= Integer.MAX_VALUE) {
+            return (int) (negative ? -value : value);
+        }
+        return toInt(latin1(start, pos));
+    }
+
+    private static int toInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(s);
+            } catch (NumberFormatException e2) {
+                return -1;
+            }
+        }
+    }
+
+    private boolean readBoolean() {
+        int c = peek();
+        if (c == 't') {
+            expectWord(TRUE);
+            return true;
+        }
+        if (c == 'f') {
+            expectWord(FALSE);
+            return false;
+        }
+        if (c == '"') {
+            return "true".equalsIgnoreCase(readString());
+        }
+        skipValue();
+        return false;
+    }
+
+    /**
+     * A string value, or the token text of a number or boolean (like optString()); objects,
+     * arrays and null are skipped and read as absent.
+     */
+    private String readStringValue() {
+        int c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        int start = pos;
+        if (c == 't') {
+            expectWord(TRUE);
+        } else if (c == 'f') {
+            expectWord(FALSE);
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            skipNumber();
+        } else {
+            skipValue();
+            return null;
+        }
+        return latin1(start, pos);
+    }
+
+    private String readString() {
+        expect('"');
+        int start = pos;
+        // Fast path: no escapes, one UTF-8 decode of the value's bytes.
+        while (pos < end) {
+            int c = buf[pos];
+            if (c == '"') {
+                pos++;
+                return utf8(start, pos - 1);
+            }
+            if (c == '\\') break;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(utf8(start, pos));
+        while (true) {
+            // Runs between escapes are decoded as UTF-8 in one piece.
+            int run = pos;
+            while (pos < end && buf[pos] != '"' && buf[pos] != '\\') pos++;
+            if (pos > run) sb.append(utf8(run, pos));
+            int c = next();
+            if (c == '"') return sb.toString();
+            c = next();
+            switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > end) throw error("bad \\u escape");
+                    int v = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int d = Character.digit((char) buf[pos + i], 16);
+                        if (d < 0) throw error("bad \\u escape");
+                        v = (v << 4) | d;
+                    }
+                    sb.append((char) v);
+                    pos += 4;
+                    break;
+                default: sb.append((char) c); break;
+            }
+        }
+    }
+
+    /** Steps over any JSON value, including nested objects and arrays, without building it. */
+    private void skipValue() {
+        int depth = 0;
+        do {
+            skipWhitespace();
+            int c = next();
+            switch (c) {
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case '"':
+                    skipStringBody();
+                    break;
+                case ',':
+                case ':':
+                    if (depth == 0) throw error("unexpected " + (char) c);
+                    break;
+                default:
+                    // Number or literal: consume up to the next delimiter.
+                    while (pos < end) {
+                        int d = buf[pos];
+                        if (d == ',' || d == '}' || d == ']' || (d >= 0 && d <= ' ')) break;
+                        pos++;
+                    }
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipStringBody() {
+        while (true) {
+            int c = next();
+            if (c == '"') return;
+            if (c == '\\') next();
+        }
+    }
+
+    private void skipNumber() {
+        while (pos < end) {
+            int c = buf[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        // Bytes >= 0x80 are negative; they are never whitespace.
+        while (pos < end && buf[pos] >= 0 && buf[pos] <= ' ') pos++;
+    }
+
+    private boolean bytesAt(int at, byte[] word) {
+        if (at + word.length > end) return false;
+        for (int i = 0; i < word.length; i++) {
+            if (buf[at + i] != word[i]) return false;
+        }
+        return true;
+    }
+
+    private void expectWord(byte[] word) {
+        if (!bytesAt(pos, word)) throw error("expected " + latin1(word, 0, word.length));
+        pos += word.length;
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("expected " + c);
+    }
+
+    private int peek() {
+        if (pos >= end) throw error("unexpected end");
+        return buf[pos];
+    }
+
+    private int next() {
+        if (pos >= end) throw error("unexpected end");
+        return buf[pos++];
+    }
+
+    private String utf8(int from, int to) {
+        try {
+            return new String(buf, from, to - from, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            return latin1(from, to);
+        }
+    }
+
+    private String latin1(int from, int to) {
+        return latin1(buf, from, to);
+    }
+
+    private static String latin1(byte[] b, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (b[from + i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at " + pos);
+    }
+}
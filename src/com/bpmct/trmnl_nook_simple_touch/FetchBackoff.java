@@ -0,0 +1,92 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.util.Random;
+
+/**
+ * Decides when to try again after a failed fetch.
+ *
+ * Consecutive failures back off exponentially from the refresh interval (x1, x2, x4, ...) up to
+ * MAX_BACKOFF_MS, with random jitter so a fleet that failed together does not retry together.
+ * A Retry-After from the server (429/503 or any other status) is a floor on the delay.
+ *
+ * After BREAKER_THRESHOLD consecutive failures the circuit is open: every wake makes a single
+ * probe request (no in-task retries) at the capped interval, so a long server or WiFi outage
+ * costs a few wakes a day instead of one per refresh. The first success closes it again.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class FetchBackoff {
+    static final long MAX_BACKOFF_MS = 4L * 60 * 60 * 1000;
+    /** Upper bound on a server-provided Retry-After, in case of a bogus date or huge value. */
+    static final long MAX_RETRY_AFTER_MS = 12L * 60 * 60 * 1000;
+    static final int BREAKER_THRESHOLD = 6;
+
+    private final Random random;
+    private int failures = 0;
+    private String lastDecision = null;
+
+    FetchBackoff() {
+        this(new Random());
+    }
+
+    FetchBackoff(Random random) {
+        this.random = random;
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+    }
+
+    /** Consecutive failures since the last success. */
+    synchronized int failures() {
+        return failures;
+    }
+
+    /** True while failures have reached the breaker threshold: probe once per wake, no retries. */
+    synchronized boolean isOpen() {
+        return failures >= BREAKER_THRESHOLD;
+    }
+
+    /**
+     * Records a failed fetch and returns how long to wait before the next attempt.
+     *
+     * @param response the failed response, or null for failures with no server reply (no WiFi)
+     * @param refreshMs the normal refresh interval
+     */
+    synchronized long onFailure(HttpResponse response, long refreshMs, long now) {
+        failures++;
+        long cap = Math.max(refreshMs, MAX_BACKOFF_MS);
+        long delay = refreshMs;
+        for (int i = 1; i < failures && delay < cap; i++) {
+            delay *= 2;
+        }
+        if (delay > cap || failures >= BREAKER_THRESHOLD) {
+            delay = cap;
+        }
+        // Spread over [75%, 100%] of the step.
+        delay -= (long) (random.nextDouble() * delay / 4);
+
+        long retryAfter = response != null ? response.retryAfterMillis(now) : -1;
+        if (retryAfter > MAX_RETRY_AFTER_MS) {
+            retryAfter = MAX_RETRY_AFTER_MS;
+        }
+        if (retryAfter >= 0 && delay < retryAfter) {
+            // Honor the server's delay plus up to 10% so everyone it told the same thing doesn't return at once.
+            delay = retryAfter + (long) (random.nextDouble() * retryAfter / 10);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("backoff: failure ").append(failures);
+        if (response != null) sb.append(" (").append(response.describe()).append(")");
+        if (retryAfter >= 0) sb.append(", Retry-After ").append(retryAfter / 1000L).append("s");
+        if (failures >= BREAKER_THRESHOLD) sb.append(", circuit open");
+        sb.append(", next attempt in ").append(delay / 1000L).append("s");
+        lastDecision = sb.toString();
+        return delay;
+    }
+
+    /** Human-readable summary of the last onFailure decision, for the log. */
+    synchronized String lastDecision() {
+        return lastDecision;
+    }
+}
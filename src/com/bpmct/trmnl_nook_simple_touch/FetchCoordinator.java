@@ -0,0 +1,163 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+/**
+ * Single-flight gate for /display fetches.
+ *
+ * Fetches are triggered from onCreate, onResume, the wake alarm, the awake-mode timer, the
+ * charger receiver and the Next button, often several within a few seconds of each other. At
+ * most one fetch runs at a time: a trigger that arrives while one is in flight joins it instead
+ * of starting another (and a joining Next tap gets the in-flight result shown in the menu).
+ * Opportunistic triggers (returning to the activity) are also skipped while the last displayed
+ * image is younger than the caller's freshness window and was fetched with the same server and
+ * device settings.
+ *
+ * A Next tap outranks background work: if the fetch in flight was started by anything else, the
+ * tap PREEMPTs it. begin() then hands out a new generation, the caller cancels the old task, and
+ * finish() ignores the superseded one, so an interactive fetch never waits behind a background
+ * attempt sleeping through its retry delay.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class FetchCoordinator {
+    /** Next tap: never skipped. */
+    static final int TRIGGER_USER = 0;
+    /** The schedule itself (alarm, timer) or a screen with nothing current on it: never skipped. */
+    static final int TRIGGER_SCHEDULED = 1;
+    /** Resume and the like: skipped while the image is fresh. */
+    static final int TRIGGER_OPPORTUNISTIC = 2;
+
+    static final int START = 0;
+    static final int JOINED = 1;
+    static final int FRESH = 2;
+    static final int PREEMPT = 3;
+
+    private boolean inFlight = false;
+    private boolean inFlightUser = false;
+    private int generation = 0;
+    private int joined = 0;
+    private boolean userWaiting = false;
+    private long lastDisplayedAt = 0;
+    private String lastDisplayedKey = null;
+
+    /** Trigger kind for a RefreshCycle fetch reason. */
+    static int triggerOf(String reason) {
+        if ("menu-next".equals(reason)) return TRIGGER_USER;
+        if ("onResume".equals(reason) || "boot".equals(reason)) return TRIGGER_OPPORTUNISTIC;
+        return TRIGGER_SCHEDULED;
+    }
+
+    /**
+     * Decides what a trigger does: START a fetch, JOIN the one in flight, PREEMPT it (a Next tap
+     * over background work), or nothing because the image is FRESH. Does not mark a fetch in
+     * flight; see begin().
+     *
+     * @param key identifies the settings the image was fetched with (server and device)
+     */
+    synchronized int admit(int trigger, String key, long freshMs, long now) {
+        if (inFlight) {
+            if (trigger == TRIGGER_USER && !inFlightUser) return PREEMPT;
+            join(trigger);
+            return JOINED;
+        }
+        if (trigger == TRIGGER_OPPORTUNISTIC && isFresh(key, freshMs, now)) {
+            return FRESH;
+        }
+        return START;
+    }
+
+    /**
+     * Marks a fetch in flight and returns its generation, or -1 (and the trigger joins) if one
+     * already is and this trigger doesn't outrank it. A Next tap over background work gets a new
+     * generation; the caller must cancel the superseded task.
+     */
+    synchronized int begin(int trigger) {
+        boolean user = trigger == TRIGGER_USER;
+        if (inFlight && (inFlightUser || !user)) {
+            join(trigger);
+            return -1;
+        }
+        // Triggers that joined a preempted fetch are served by the one replacing it.
+        if (!inFlight) joined = 0;
+        inFlight = true;
+        inFlightUser = user;
+        userWaiting = user;
+        return ++generation;
+    }
+
+    private void join(int trigger) {
+        joined++;
+        if (trigger == TRIGGER_USER) userWaiting = true;
+    }
+
+    synchronized boolean isInFlight() {
+        return inFlight;
+    }
+
+    /** True if a Next tap started or joined the fetch in flight. */
+    synchronized boolean userWaiting() {
+        return userWaiting;
+    }
+
+    /** True if the fetch with this generation has been preempted (or already finished). */
+    synchronized boolean isSuperseded(int fetchGeneration) {
+        return !inFlight || fetchGeneration != generation;
+    }
+
+    /**
+     * Ends the fetch in flight.
+     *
+     * @param fetchGeneration the value begin() returned for this fetch
+     * @param displayed true if an image from this fetch is now on screen
+     * @return how many triggers joined it, or -1 if it was superseded and its result must be dropped
+     */
+    synchronized int finish(int fetchGeneration, boolean displayed, String key, long now) {
+        if (isSuperseded(fetchGeneration)) return -1;
+        int n = joined;
+        inFlight = false;
+        inFlightUser = false;
+        joined = 0;
+        userWaiting = false;
+        if (displayed) {
+            lastDisplayedAt = now;
+            lastDisplayedKey = key;
+        }
+        return n;
+    }
+
+    /**
+     * Abandons the fetch in flight without a result (the cycle hit its wake lock deadline). Its
+     * finish() is then ignored like a superseded one's, and the next trigger starts afresh.
+     *
+     * @return true if a fetch was in flight
+     */
+    synchronized boolean abort() {
+        if (!inFlight) return false;
+        inFlight = false;
+        inFlightUser = false;
+        joined = 0;
+        userWaiting = false;
+        return true;
+    }
+
+    /**
+     * Seeds the last displayed image from a ScheduleRecord when the process starts, so a resume
+     * or boot right after a restart can still be skipped as FRESH. Ignored once this process has
+     * displayed something itself.
+     */
+    synchronized void restoreDisplayed(long displayedAt, String key) {
+        if (lastDisplayedAt > 0 || displayedAt <= 0) return;
+        lastDisplayedAt = displayedAt;
+        lastDisplayedKey = key;
+    }
+
+    /** Age of the displayed image in ms, or -1 if nothing has been displayed. */
+    synchronized long imageAgeMs(long now) {
+        return lastDisplayedAt > 0 ? now - lastDisplayedAt : -1;
+    }
+
+    private boolean isFresh(String key, long freshMs, long now) {
+        if (lastDisplayedAt <= 0 || key == null || !key.equals(lastDisplayedKey)) return false;
+        long age = now - lastDisplayedAt;
+        return age >= 0 && age < freshMs;
+    }
+}
@@ -0,0 +1,27 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Keeps the process alive while a fetch cycle runs, so it finishes and sets the next alarm
+ * whether or not DisplayActivity exists. AlarmReceiver starts it with ALARM_REFRESH_ACTION to run
+ * a wake; RefreshCycle also starts it (no action) whenever a cycle takes its wake lock, and stops
+ * it when the lock is released. No UI and no state of its own; the cycle is RefreshCycle.
+ */
+public class FetchService extends Service {
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && RefreshCycle.ALARM_REFRESH_ACTION.equals(intent.getAction())) {
+            RefreshCycle.get(this).onAlarm();
+        }
+        // The next alarm restarts it; nothing to redeliver if the process is killed.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * The last displayed frame as raw 4-bit gray, for drawing at startup before anything else.
+ *
+ * The screensaver PNG holds the same frame, but inflating it costs more than the whole first
+ * e-ink refresh on the NOOK. This file is a 16-byte header and two pixels per byte (high nibble
+ * first), 240 KB for 800x600, and unpacks with a table lookup. The Pearl panel shows 16 gray
+ * levels and TRMNL images are 1 or 2 bit, so nothing visible is lost.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class FrameSnapshot {
+    private static final int MAGIC = 0x54524d47; // "TRMG"
+    private static final int VERSION = 1;
+    /** Larger than any frame we draw; a corrupt header must not allocate the heap away. */
+    private static final int MAX_SIDE = 2048;
+    /** ARGB for each 4-bit level. */
+    private static final int[] LEVELS = new int[16];
+    static {
+        for (int i = 0; i < 16; i++) {
+            int v = i * 17;
+            LEVELS[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+    }
+
+    final int width;
+    final int height;
+    private final byte[] packed;
+
+    private FrameSnapshot(int width, int height, byte[] packed) {
+        this.width = width;
+        this.height = height;
+        this.packed = packed;
+    }
+
+    /** Packs ARGB pixels (from Bitmap.getPixels) to 4-bit gray. */
+    static FrameSnapshot fromPixels(int[] argb, int width, int height) {
+        int count = width * height;
+        byte[] out = new byte[(count + 1) / 2];
+        for (int i = 0; i < count; i++) {
+            int c = argb[i];
+            // Rec. 601 luma in 8-bit fixed point, then the top 4 bits.
+            int y = ((((c >> 16) & 0xFF) * 77) + (((c >> 8) & 0xFF) * 150) + ((c & 0xFF) * 29)) >> 12;
+            if ((i & 1) == 0) {
+                out[i >> 1] = (byte) (y << 4);
+            } else {
+                out[i >> 1] |= (byte) y;
+            }
+        }
+        return new FrameSnapshot(width, height, out);
+    }
+
+    /** Unpacks to opaque ARGB pixels (for Bitmap.createBitmap). */
+    int[] toPixels() {
+        int count = width * height;
+        int[] out = new int[count];
+        int[] levels = LEVELS;
+        for (int i = 0, p = 0; i < count; i += 2, p++) {
+            int b = packed[p];
+            out[i] = levels[(b >> 4) & 0x0F];
+            if (i + 1 < count) out[i + 1] = levels[b & 0x0F];
+        }
+        return out;
+    }
+
+    /** Size of the file on disk in bytes. */
+    int fileBytes() {
+        return 16 + packed.length;
+    }
+
+    /** Writes to a temp file and renames it over the old one, so a reader never sees half a frame. */
+    boolean write(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 16384));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.write(packed);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                return tmp.renameTo(file);
+            }
+            return true;
+        } catch (Throwable t) {
+            return false;
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    /** Reads a snapshot, or null if there is none or it is damaged. */
+    static FrameSnapshot read(File file) {
+        if (file == null || !file.exists()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16384));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            int w = in.readInt();
+            int h = in.readInt();
+            if (w <= 0 || h <= 0 || w > MAX_SIDE || h > MAX_SIDE) return null;
+            byte[] packed = new byte[(w * h + 1) / 2];
+            in.readFully(packed);
+            return new FrameSnapshot(w, h, packed);
+        } catch (Throwable t) {
+            return null;
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stream helpers for reading an HTTP/1.1 response body off a socket or TLS stream:
+ * de-chunking / length limiting, counting the bytes that came over the wire, and
+ * undoing gzip/deflate Content-Encoding as the body is read.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class HttpBodyStreams {
+    /** Sent on text requests; images are already compressed and are requested without it. */
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private HttpBodyStreams() {
+    }
+
+    /** The message body of a response: chunked, Content-Length delimited, or read to EOF. */
+    static InputStream framed(InputStream in, boolean chunked, int contentLength) {
+        if (chunked) {
+            return new ChunkedInputStream(in);
+        }
+        if (contentLength >= 0) {
+            return new LengthLimitedInputStream(in, contentLength);
+        }
+        return in;
+    }
+
+    /**
+     * Wraps the (framed) body in a decompressor for the given Content-Encoding.
+     * Identity and unknown encodings are returned unchanged.
+     */
+    static InputStream decoded(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return body;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(body, 4096);
+        }
+        if (encoding.equals("deflate")) {
+            // RFC 9110 says zlib-wrapped, but some servers send raw deflate; sniff the zlib header.
+            PushbackInputStream pb = new PushbackInputStream(body, 2);
+            int cmf = pb.read();
+            int flg = cmf < 0 ? -1 : pb.read();
+            if (flg >= 0) pb.unread(flg);
+            if (cmf >= 0) pb.unread(cmf);
+            boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(pb, new Inflater(!zlib), 4096);
+        }
+        return body;
+    }
+
+    /** Reads the stream to EOF straight into out's backing array. */
+    static void readFully(InputStream in, Buffer out) throws IOException {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream whose backing array can be handed out without copying, and reused
+     * across requests via reset() so steady-state fetches don't reallocate body storage.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int initialSize) {
+            super(initialSize);
+        }
+
+        /** Backing array; valid bytes are [0, size()). */
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /** Counts bytes read through it (i.e. bytes on the wire when placed below a decompressor). */
+    static final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        public int read() throws IOException {
+            int c = in.read();
+            if (c >= 0) count++;
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) count += skipped;
+            return skipped;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class LengthLimitedInputStream extends FilterInputStream {
+        private int remaining;
+
+        LengthLimitedInputStream(InputStream in, int length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c >= 0) remaining--;
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            return Math.min(in.available(), remaining);
+        }
+
+        public void close() {
+            // Leave the connection stream open.
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private int chunkRemaining = 0;
+        private boolean eof = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n <= 0 ? -1 : (one[0] & 0xFF);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) return -1;
+            if (chunkRemaining == 0 && !nextChunk()) return -1;
+            int n = in.read(b, off, Math.min(len, chunkRemaining));
+            if (n <= 0) {
+                eof = true;
+                return -1;
+            }
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                readLine(); // CRLF after chunk data
+            }
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            String sizeLine = readLine();
+            if (sizeLine == null) {
+                eof = true;
+                return false;
+            }
+            int semicolon = sizeLine.indexOf(';');
+            if (semicolon > 0) {
+                sizeLine = sizeLine.substring(0, semicolon);
+            }
+            int size;
+            try {
+                size = Integer.parseInt(sizeLine.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size");
+            }
+            if (size <= 0) {
+                // Consume trailing headers after last chunk
+                String line;
+                while ((line = readLine()) != null && line.length() > 0) {
+                    // Ignore
+                }
+                eof = true;
+                return false;
+            }
+            chunkRemaining = size;
+            return true;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') return sb.toString();
+                if (c != '\r') sb.append((char) c);
+            }
+            return sb.length() == 0 ? null : sb.toString();
+        }
+
+        public void close() {
+            // Leave the connection stream open.
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
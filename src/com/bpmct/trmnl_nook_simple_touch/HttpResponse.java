@@ -0,0 +1,190 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Result of one HTTP(S) GET made by BouncyCastleHttpClient.
+ *
+ * A response is either a completed exchange (status, headers, body) or a typed failure
+ * (see the ERROR_ kinds). Non-2xx replies are ERROR_HTTP_STATUS but keep their status,
+ * headers and body so callers can read Retry-After and error pages.
+ *
+ * The body is a slice of {@link #body}: bytes [0, bodyLength). When the caller supplied a
+ * reusable buffer the array belongs to it and is only valid until that buffer is reused, so
+ * consumers read it in place (bodyStream(), BitmapFactory.decodeByteArray(body, 0, bodyLength))
+ * rather than holding on to it.
+ */
+final class HttpResponse {
+    static final int OK = 0;
+    /** DNS, connect, timeout or connection dropped. */
+    static final int ERROR_NETWORK = 1;
+    /** TLS handshake failed, including certificate / pin rejection. */
+    static final int ERROR_TLS = 2;
+    /** Server replied with a non-2xx status. */
+    static final int ERROR_HTTP_STATUS = 3;
+    /** Reply was not valid HTTP (no status line, bad chunking, bad compression). */
+    static final int ERROR_PROTOCOL = 4;
+    /** Request not attempted: bad URL, plain HTTP not allowed, no trust store. */
+    static final int ERROR_REQUEST = 5;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    final String url;
+    final int error;
+    final int status;
+    final String reason;
+    /** Response headers by lower-case name; repeated headers are joined with ", ". */
+    final Hashtable headers;
+    final byte[] body;
+    final int bodyLength;
+    /** Body bytes as received, before Content-Encoding was undone. */
+    final long wireBytes;
+    /** Wall-clock time the status line arrived; 0 if the server never answered. */
+    final long firstByteAt;
+    final String message;
+    final Throwable cause;
+
+    private HttpResponse(String url, int error, int status, String reason, Hashtable headers,
+            byte[] body, int bodyLength, long wireBytes, long firstByteAt, String message, Throwable cause) {
+        this.url = url;
+        this.error = error;
+        this.status = status;
+        this.reason = reason;
+        this.headers = headers != null ? headers : new Hashtable();
+        this.body = body != null ? body : EMPTY;
+        this.bodyLength = body != null ? bodyLength : 0;
+        this.wireBytes = wireBytes;
+        this.firstByteAt = firstByteAt;
+        this.message = message;
+        this.cause = cause;
+    }
+
+    static HttpResponse completed(String url, int status, String reason, Hashtable headers,
+            byte[] body, int bodyLength, long wireBytes, long firstByteAt) {
+        int error = status >= 200 && status < 300 ? OK : ERROR_HTTP_STATUS;
+        return new HttpResponse(url, error, status, reason, headers, body, bodyLength, wireBytes, firstByteAt, null, null);
+    }
+
+    static HttpResponse failure(String url, int error, String message, Throwable cause) {
+        return new HttpResponse(url, error, 0, null, null, null, 0, 0, 0, message, cause);
+    }
+
+    boolean isOk() {
+        return error == OK;
+    }
+
+    String header(String name) {
+        return name != null ? (String) headers.get(name.toLowerCase()) : null;
+    }
+
+    /** 429 Too Many Requests or 503 Service Unavailable: the server asked us to slow down. */
+    boolean isServerBusy() {
+        return error == ERROR_HTTP_STATUS && (status == 429 || status == 503);
+    }
+
+    /**
+     * True if trying again within the same wake is worthwhile: network and TLS drops, protocol
+     * errors and 5xx / 408. Not when the server is busy or sent Retry-After (the scheduler honors
+     * that instead), and not for other 4xx, which the same request will just get again.
+     */
+    boolean isRetryableNow() {
+        switch (error) {
+            case ERROR_NETWORK:
+            case ERROR_TLS:
+            case ERROR_PROTOCOL:
+                return true;
+            case ERROR_HTTP_STATUS:
+                if (isServerBusy() || header("Retry-After") != null) return false;
+                return status >= 500 || status == 408;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Delay the server asked for via Retry-After, in ms from now, or -1 if absent or unparseable.
+     * Accepts both delta-seconds ("120") and an HTTP-date ("Fri, 31 Dec 1999 23:59:59 GMT").
+     */
+    long retryAfterMillis(long now) {
+        String value = header("Retry-After");
+        if (value == null) return -1;
+        value = value.trim();
+        if (value.length() == 0) return -1;
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                return Long.parseLong(value) * 1000L;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        long date = parseHttpDate(value);
+        return date > 0 ? Math.max(0, date - now) : -1;
+    }
+
+    /**
+     * The Date header in ms, or -1 if absent, unparseable, or the response came from a cache
+     * (an Age header), in which case Date is when it was first generated.
+     */
+    long serverDateMillis() {
+        if (header("Age") != null) return -1;
+        String value = header("Date");
+        return value != null ? parseHttpDate(value.trim()) : -1;
+    }
+
+    /** RFC 1123 date ("Fri, 31 Dec 1999 23:59:59 GMT") in ms, or -1. */
+    static long parseHttpDate(String value) {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date date = format.parse(value);
+            return date != null ? date.getTime() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    InputStream bodyStream() {
+        return new ByteArrayInputStream(body, 0, bodyLength);
+    }
+
+    /** Body decoded as UTF-8 (at most maxBytes of it, for logging). */
+    String bodyText(int maxBytes) {
+        int n = Math.min(bodyLength, maxBytes);
+        try {
+            return new String(body, 0, n, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return new String(body, 0, n);
+        }
+    }
+
+    String bodyText() {
+        return bodyText(bodyLength);
+    }
+
+    /** Short human-readable description of a failure, e.g. "HTTP 503 Service Unavailable". */
+    String describe() {
+        switch (error) {
+            case OK:
+                return "HTTP " + status;
+            case ERROR_HTTP_STATUS:
+                return "HTTP " + status + (reason != null && reason.length() > 0 ? " " + reason : "");
+            default:
+                if (message != null) return message;
+                if (cause != null) {
+                    return cause.getClass().getSimpleName() + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
+                }
+                return "request failed";
+        }
+    }
+
+    public String toString() {
+        return describe();
+    }
+}
@@ -0,0 +1,87 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+/**
+ * Scheduling profile for one cycle, picked from charger state and battery level.
+ *
+ * CHARGING: refresh at most every CHARGING_MAX_INTERVAL_MS and keep WiFi up (no radio teardown).
+ * NORMAL: the server's refresh_rate.
+ * LOW (at or below LOW_PERCENT): LOW_STRETCH times the refresh rate, to last until someone notices.
+ * CRITICAL (at or below CRITICAL_PERCENT): show a "charge me" screen and stop waking until the
+ * charger is connected, rather than dying mid-cycle with a stale image on screen.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class PowerProfile {
+    static final int CHARGING = 0;
+    static final int NORMAL = 1;
+    static final int LOW = 2;
+    static final int CRITICAL = 3;
+
+    static final int LOW_PERCENT = 20;
+    static final int CRITICAL_PERCENT = 5;
+    static final int LOW_STRETCH = 3;
+    static final long CHARGING_MAX_INTERVAL_MS = 5 * 60 * 1000;
+
+    final int kind;
+    /** Battery percent, or -1 if unknown (treated as NORMAL). */
+    final int batteryPercent;
+    final boolean plugged;
+
+    private PowerProfile(int kind, int batteryPercent, boolean plugged) {
+        this.kind = kind;
+        this.batteryPercent = batteryPercent;
+        this.plugged = plugged;
+    }
+
+    static PowerProfile of(int batteryPercent, boolean plugged) {
+        int kind;
+        if (plugged) {
+            kind = CHARGING;
+        } else if (batteryPercent < 0) {
+            kind = NORMAL;
+        } else if (batteryPercent <= CRITICAL_PERCENT) {
+            kind = CRITICAL;
+        } else if (batteryPercent <= LOW_PERCENT) {
+            kind = LOW;
+        } else {
+            kind = NORMAL;
+        }
+        return new PowerProfile(kind, batteryPercent, plugged);
+    }
+
+    /** Refresh period for this profile given the server's refresh rate. */
+    long cycleMs(long refreshMs) {
+        switch (kind) {
+            case CHARGING:
+                return Math.min(refreshMs, CHARGING_MAX_INTERVAL_MS);
+            case LOW:
+                return refreshMs * LOW_STRETCH;
+            default:
+                return refreshMs;
+        }
+    }
+
+    /** On external power WiFi stays associated through the sleep. */
+    boolean keepsWifiOn() {
+        return kind == CHARGING;
+    }
+
+    boolean stopsWaking() {
+        return kind == CRITICAL;
+    }
+
+    String name() {
+        switch (kind) {
+            case CHARGING: return "charging";
+            case LOW: return "low battery";
+            case CRITICAL: return "critical battery";
+            default: return "normal";
+        }
+    }
+
+    /** Log line, e.g. "power: low battery (18%), interval 2700s". */
+    String describe(long refreshMs) {
+        return "power: " + name() + (batteryPercent >= 0 ? " (" + batteryPercent + "%)" : "")
+                + (stopsWaking() ? ", not waking until charged" : ", interval " + (cycleMs(refreshMs) / 1000L) + "s");
+    }
+}
@@ -0,0 +1,79 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.security.SecureRandom;
+import java.util.Hashtable;
+
+import org.spongycastle.crypto.AsymmetricCipherKeyPair;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.tls.HashAlgorithm;
+import org.spongycastle.tls.crypto.TlsECConfig;
+import org.spongycastle.tls.crypto.TlsECDomain;
+import org.spongycastle.tls.crypto.TlsHash;
+import org.spongycastle.tls.crypto.impl.bc.BcTlsCrypto;
+import org.spongycastle.tls.crypto.impl.bc.BcTlsECDomain;
+
+/**
+ * BcTlsCrypto that can do its expensive first-use work ahead of the handshake.
+ *
+ * One instance (and its SecureRandom) is shared by every connection, so the random is seeded
+ * once per process. {@link #pregenerate(int)} makes an ECDHE key pair for a curve in advance;
+ * the next handshake that negotiates that curve takes it instead of generating one (each pair
+ * is handed out once). {@link #warmSymmetric()} runs the record-layer primitives once so their
+ * classes and tables are loaded before the first real record.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class PrewarmedTlsCrypto extends BcTlsCrypto {
+    /** Pregenerated ECDHE key pairs by named group; each is removed when used. */
+    private final Hashtable pregenerated = new Hashtable();
+
+    PrewarmedTlsCrypto(SecureRandom random) {
+        super(random);
+        // Force seeding now rather than inside the first ClientHello.
+        random.nextBytes(new byte[32]);
+    }
+
+    /** Generates a key pair for namedGroup if none is waiting. Safe to call from any thread. */
+    void pregenerate(int namedGroup) {
+        Integer key = Integer.valueOf(namedGroup);
+        synchronized (pregenerated) {
+            if (pregenerated.containsKey(key)) return;
+        }
+        TlsECConfig config = new TlsECConfig();
+        config.setNamedGroup(namedGroup);
+        AsymmetricCipherKeyPair pair = new BcTlsECDomain(this, config).generateKeyPair();
+        synchronized (pregenerated) {
+            pregenerated.put(key, pair);
+        }
+    }
+
+    /** Runs SHA-256 and AES-GCM once so the first TLS record doesn't pay for class loading and table setup. */
+    void warmSymmetric() {
+        TlsHash hash = createHash(HashAlgorithm.sha256);
+        hash.update(new byte[64], 0, 64);
+        hash.calculateHash();
+        try {
+            AEADBlockCipher gcm = createAEADBlockCipher_AES_GCM();
+            gcm.init(true, new AEADParameters(new KeyParameter(new byte[16]), 128, new byte[12]));
+            byte[] out = new byte[gcm.getOutputSize(256)];
+            int n = gcm.processBytes(new byte[256], 0, 256, out, 0);
+            gcm.doFinal(out, n);
+        } catch (Exception e) {
+            // Only a warm-up; the real handshake will report any problem.
+        }
+    }
+
+    public TlsECDomain createECDomain(TlsECConfig ecConfig) {
+        return new BcTlsECDomain(this, ecConfig) {
+            public AsymmetricCipherKeyPair generateKeyPair() {
+                AsymmetricCipherKeyPair pair;
+                synchronized (pregenerated) {
+                    pair = (AsymmetricCipherKeyPair) pregenerated.remove(Integer.valueOf(this.ecConfig.getNamedGroup()));
+                }
+                return pair != null ? pair : super.generateKeyPair();
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Daily local-time window during which the display does not fetch or wake the radio.
+ *
+ * Start and end are minutes after local midnight; a window whose end is not after its start
+ * wraps past midnight (e.g. 22:00-06:00). A start of -1 means quiet hours are off.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class QuietHours {
+    /** Windows offered in Settings as {start, end} minutes; the first entry is "off". */
+    static final int[][] PRESETS = {
+            { -1, -1 },
+            { 22 * 60, 6 * 60 },
+            { 23 * 60, 7 * 60 },
+            { 20 * 60, 7 * 60 },
+            { 19 * 60, 7 * 60 },
+            { 18 * 60, 8 * 60 },
+    };
+
+    final int startMinute;
+    final int endMinute;
+
+    QuietHours(int startMinute, int endMinute) {
+        this.startMinute = startMinute;
+        this.endMinute = endMinute;
+    }
+
+    boolean isEnabled() {
+        return startMinute >= 0 && startMinute < 24 * 60 && endMinute >= 0 && endMinute < 24 * 60
+                && startMinute != endMinute;
+    }
+
+    /** True if the instant falls inside the window in the given time zone. */
+    boolean contains(long time, TimeZone zone) {
+        if (!isEnabled()) return false;
+        int minute = minuteOfDay(time, zone);
+        if (startMinute < endMinute) {
+            return minute >= startMinute && minute < endMinute;
+        }
+        return minute >= startMinute || minute < endMinute;
+    }
+
+    /** The first end-of-window instant after time (the next local endMinute:00). */
+    long nextEnd(long time, TimeZone zone) {
+        Calendar cal = Calendar.getInstance(zone);
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, endMinute / 60);
+        cal.set(Calendar.MINUTE, endMinute % 60);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        if (cal.getTimeInMillis() <= time) {
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return cal.getTimeInMillis();
+    }
+
+    /** Label like "22:00-06:00", or "Off". */
+    String label() {
+        if (!isEnabled()) return "Off";
+        return hhmm(startMinute) + "-" + hhmm(endMinute);
+    }
+
+    private static int minuteOfDay(long time, TimeZone zone) {
+        Calendar cal = Calendar.getInstance(zone);
+        cal.setTimeInMillis(time);
+        return cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+    }
+
+    private static String hhmm(int minutes) {
+        int h = minutes / 60;
+        int m = minutes % 60;
+        return (h < 10 ? "0" : "") + h + ":" + (m < 10 ? "0" : "") + m;
+    }
+}
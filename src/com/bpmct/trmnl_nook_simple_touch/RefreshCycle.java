@@ -0,0 +1,1562 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.AsyncTask;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Calendar;
+import java.util.Hashtable;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The fetch/sleep cycle, independent of any Activity: fetch triggers, the connectivity wait, the
+ * /display fetch and image decode, the screensaver write, the WiFi policy and the next wake alarm.
+ *
+ * One instance per process (get()), so the schedule, backoff and wake-ahead history outlive
+ * DisplayActivity. The wake alarm goes to the manifest-declared AlarmReceiver, which starts
+ * FetchService, so a wake still runs its cycle when the Activity has been killed and the process
+ * is started just for the alarm. While DisplayActivity exists it attaches as the Display: it
+ * renders results, menu status and the boot log, and forwards user triggers (Next, resume) here.
+ * Without it the cycle still updates the screensaver and sets the next alarm.
+ *
+ * With screen-off fetch on, an alarm that finds the screen off leaves it off through the WiFi
+ * wait, handshake, download and decode (the partial wake lock keeps the CPU up), writes the
+ * screensaver, and only then turns the screen on for PANEL_REFRESH_MS to show the new image.
+ *
+ * Everything except ApiFetchTask.doInBackground runs on the main thread.
+ */
+final class RefreshCycle {
+    static final String ALARM_REFRESH_ACTION = "com.bpmct.trmnl_nook_simple_touch.ALARM_REFRESH_ACTION";
+    /** When true, skip API and show generic on screen (for testing). When false, foreground = API image, screensaver file = generic. */
+    static final boolean USE_GENERIC_IMAGE = false;
+    private static final String TAG = "TRMNLAPI";
+    private static final long DEFAULT_REFRESH_MS = 15 * 60 * 1000;
+    private static final String API_DISPLAY_PATH = "/display";
+    /** Delay after showing API image before writing screensaver and going to sleep (show picture, then screensaver, then sleep full interval). */
+    private static final long SCREENSAVER_DELAY_MS = 5 * 1000;
+    /** Screen-off fetch: how long the screen is on for the final refresh (one full e-ink update plus margin). */
+    private static final long PANEL_REFRESH_MS = 2 * 1000;
+    private static final long CONNECTIVITY_MAX_WAIT_MS = 30 * 1000;
+    private static final long WIFI_WARMUP_MS = 15 * 1000;
+    /** WiFi handling for a sleep: WifiPowerPolicy decides, keep it on (charger), or off (quiet hours). */
+    private static final int SLEEP_WIFI_POLICY = 0;
+    private static final int SLEEP_WIFI_KEEP = 1;
+    private static final int SLEEP_WIFI_OFF = 2;
+    /** Prefetch stops queueing when the files partition gets this low. */
+    private static final long PREFETCH_MIN_FREE_BYTES = 2L * 1024L * 1024L;
+    /** Wake lock time kept back after a prefetched screen: showing the first one, the sleep step. */
+    private static final long PREFETCH_TAIL_MS = 20 * 1000;
+
+    /**
+     * What DisplayActivity renders. Called on the main thread, except onLog, which may come from
+     * the fetch thread.
+     */
+    interface Display {
+        /** True while the menu dialog is open; a fetch started then reports into it. */
+        boolean isMenuVisible();
+        void onFetchStarting(boolean fromMenu);
+        void onWaitingForNetwork(boolean fromMenu);
+        void onConnectTimeout(boolean fromMenu);
+        void onImage(Bitmap bitmap);
+        /**
+         * Shows the image of a screen-off cycle on a screen turned on just for it: one refresh,
+         * visible over the lock screen, without poking user activity.
+         */
+        void onPanelRefresh(Bitmap bitmap);
+        void onNoImage(boolean fromMenu);
+        void onFetchError(String text);
+        void onChargeMe(Bitmap bitmap);
+        void onMissingCredentials();
+        void setScreenAwake(boolean awake);
+        void onLog(String line);
+    }
+
+    private static RefreshCycle instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final AlarmManager alarmManager;
+    private final PendingIntent alarmPendingIntent;
+    /** Alarm-to-connectivity / first-byte history that sets how early the wake alarm fires. */
+    private final WakeAheadStats wakeAheadStats;
+    /** refresh_rate, next target and last image, persisted so a reboot resumes the cycle. */
+    private final ScheduleRecord scheduleRecord;
+    /** Raw gray copy of the last frame written, drawn by DisplayActivity before its first layout. */
+    private final File frameSnapshotFile;
+    /** Disk work kept off the UI thread (frame snapshot, first-launch screensaver), in order. */
+    private final ExecutorService io;
+    /** Screens prefetched for the playlist (prefetch_depth), shown without WiFi. */
+    private final ScreenQueue screenQueue;
+    /** Keeps the CPU up from a fetch trigger until the cycle's next wake is set. */
+    private final CycleWakeLock cycleWakeLock;
+    /** Screen-on lock for the final refresh of a screen-off cycle; no user-activity poke. */
+    private final PowerManager.WakeLock panelWakeLock;
+    private final PowerManager powerManager;
+    /** Absolute cycle targets and measured fetch lead. */
+    private final CycleClock cycleClock = new CycleClock();
+    /** Failure backoff and circuit breaker. */
+    private final FetchBackoff fetchBackoff = new FetchBackoff();
+    /** At most one fetch in flight; later triggers join it (see FetchCoordinator). */
+    private final FetchCoordinator fetchCoordinator = new FetchCoordinator();
+    private volatile Display display;
+
+    /** Task for the fetch in flight, so a Next tap can cancel a background one it preempts. */
+    private ApiFetchTask currentFetchTask;
+    private volatile boolean fetchStartedFromMenu = false;
+    private volatile long refreshMs = DEFAULT_REFRESH_MS;
+    /** Last displayed API image; used for screensaver file when allow-sleep + write-screensaver. */
+    private Bitmap lastDisplayedImage;
+    /** Reason for current fetch (for logging) */
+    private volatile String fetchReason = "unknown";
+    private Runnable refreshRunnable;
+    private BroadcastReceiver connectivityReceiver;
+    /** Registered while waiting at critical battery for the charger to be connected. */
+    private Runnable pendingSleepRunnable;
+    private Runnable pendingWifiWarmupRunnable;
+    private Runnable pendingConnectivityTimeoutRunnable;
+    /** Wall-clock time the current alarm wake fired, until its timings are recorded; 0 otherwise. */
+    private volatile long alarmFiredAt = 0;
+    private volatile long alarmConnectedAt = 0;
+    /** Whether WiFi was disconnected when the current alarm fired (it had to associate). */
+    private volatile boolean alarmWasCold = false;
+    /** WiFi decision for the current sleep, logged with its outcome at the next alarm. */
+    private WifiPowerPolicy lastWifiPolicy;
+    /** When the current fetch started and its /display response's first byte arrived (for CycleClock). */
+    private volatile long fetchStartedAt = 0;
+    private volatile long apiFirstByteAt = 0;
+    /** When the current image went on screen (or to the screensaver, headless). */
+    private volatile long imageShownAt = 0;
+    /** This alarm wake fetches with the screen off (screen_off_fetch); cleared when the cycle ends. */
+    private boolean screenOffCycle = false;
+    /** When the panel refresh turned the screen on; 0 when it is not holding it. */
+    private long panelOnAt = 0;
+    /** Bitmap last written to the screensaver file, so the sleep step doesn't encode it twice. */
+    private volatile Bitmap screensaverBitmap;
+
+    static synchronized RefreshCycle get(Context context) {
+        if (instance == null) {
+            instance = new RefreshCycle(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RefreshCycle(Context context) {
+        this.context = context;
+        this.handler = new Handler(Looper.getMainLooper());
+        // A process started by the alarm has not been through DisplayActivity.onCreate.
+        FileLogger.setEnabled(ApiPrefs.isFileLoggingEnabled(context));
+        wakeAheadStats = new WakeAheadStats(new File(context.getFilesDir(), "wake_ahead"));
+        scheduleRecord = new ScheduleRecord(new File(context.getFilesDir(), "schedule"));
+        frameSnapshotFile = new File(context.getFilesDir(), "frame.gray4");
+        screenQueue = new ScreenQueue(new File(context.getFilesDir(), "queue"));
+        io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RefreshCycle-io");
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        if (scheduleRecord.load()) {
+            if (scheduleRecord.refreshMs() > 0) refreshMs = scheduleRecord.refreshMs();
+            cycleClock.setDue(scheduleRecord.dueAt());
+            fetchCoordinator.restoreDisplayed(scheduleRecord.displayedAt(), scheduleRecord.displayKey());
+            logD("schedule restored: " + scheduleRecord.describe(System.currentTimeMillis()));
+        }
+        cycleWakeLock = new CycleWakeLock(context, handler, new TrmnlApiResponseParser.Logger() {
+            public void logD(String msg) { RefreshCycle.this.logD(msg); }
+            public void logW(String msg) { RefreshCycle.this.logW(msg); }
+        }, new Runnable() {
+            public void run() {
+                onCycleDeadline();
+            }
+        }, new Runnable() {
+            public void run() {
+                onCycleReleased();
+            }
+        });
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock panel = null;
+        if (powerManager != null) {
+            panel = powerManager.newWakeLock(PowerManager.SCREEN_DIM_WAKE_LOCK | PowerManager.ACQUIRE_CAUSES_WAKEUP,
+                    "TRMNL panel refresh");
+            panel.setReferenceCounted(false);
+        }
+        panelWakeLock = panel;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent alarm = new Intent(ALARM_REFRESH_ACTION);
+        alarm.setClass(context, AlarmReceiver.class);
+        // UPDATE_CURRENT: creating this after a process restart must not cancel the pending alarm.
+        alarmPendingIntent = PendingIntent.getBroadcast(context, 0, alarm, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /** DisplayActivity attaches in onCreate; results go to the newest attached Activity. */
+    void attach(Display d) {
+        display = d;
+    }
+
+    void detach(Display d) {
+        if (display == d) display = null;
+    }
+
+    long refreshMs() {
+        return refreshMs;
+    }
+
+    /** Last frame written to disk (see ScheduleRecord), or null if there is none to show. */
+    String cachedImagePath() {
+        String path = scheduleRecord.imagePath();
+        if (path == null || !new File(path).exists()) return null;
+        return path;
+    }
+
+    /**
+     * BOOT_COMPLETED (see BootReceiver). Alarms do not survive a reboot, so nothing would wake the
+     * next cycle. With credentials or gift mode set up, DisplayActivity is started: it shows the
+     * cached image and resumes with a "boot" fetch, which is skipped as fresh while the cached image
+     * is still current; the skip sets the restored target again (see admitFetch).
+     */
+    void onBoot() {
+        logD("boot: " + scheduleRecord.describe(System.currentTimeMillis()));
+        if (!ApiPrefs.hasCredentials(context) && !ApiPrefs.isGiftModeEnabled(context)) {
+            logD("boot: not set up, cycle not started");
+            return;
+        }
+        Intent i = new Intent(context, DisplayActivity.class);
+        i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        i.putExtra(DisplayActivity.EXTRA_BOOT, true);
+        try {
+            context.startActivity(i);
+        } catch (Throwable t) {
+            logW("boot: start display failed: " + t);
+        }
+    }
+
+    /**
+     * Takes the cycle's wake lock and, if it was not already held, starts FetchService so the
+     * process is not reclaimed mid-cycle when no Activity is in front. Both end in endCycle().
+     */
+    void holdCycle(String why) {
+        if (cycleWakeLock.isHeld()) return;
+        cycleWakeLock.acquire(why);
+        try {
+            context.startService(new Intent(context, FetchService.class));
+        } catch (Throwable t) {
+            logW("start fetch service: " + t);
+        }
+    }
+
+    /** Releases the cycle's wake lock; FetchService stops with it. */
+    void endCycle(String outcome) {
+        cycleWakeLock.release(outcome);
+    }
+
+    /**
+     * The cycle wake lock reached its deadline (a stuck request or connectivity wait); runs just
+     * before it is released. The fetch is abandoned and the next wake set now, while the CPU is
+     * still held: after the release nothing else may run before the NOOK suspends. An abandoned
+     * fetch counts as a failure (FetchBackoff); otherwise the cycle's existing target is kept.
+     */
+    private void onCycleDeadline() {
+        boolean waiting = connectivityReceiver != null || pendingWifiWarmupRunnable != null;
+        cancelConnectivityWait();
+        if (pendingWifiWarmupRunnable != null) {
+            handler.removeCallbacks(pendingWifiWarmupRunnable);
+            pendingWifiWarmupRunnable = null;
+        }
+        boolean aborted = fetchCoordinator.abort();
+        if (currentFetchTask != null) {
+            currentFetchTask.cancel(true);
+            currentFetchTask = null;
+        }
+        alarmFiredAt = 0;
+        PowerProfile profile = readPowerProfile();
+        if (profile.stopsWaking()) return;
+        long now = scheduleNow();
+        long delay;
+        if (aborted || waiting) {
+            delay = fetchBackoff.onFailure(null, profile.cycleMs(refreshMs), System.currentTimeMillis());
+            logD(fetchBackoff.lastDecision());
+            cycleClock.setDue(now + delay);
+            scheduleRecord.setSchedule(refreshMs, now + delay);
+            scheduleRecord.save();
+        } else {
+            delay = cycleClock.dueAt() - now;
+            if (delay <= 0) delay = profile.cycleMs(refreshMs);
+        }
+        if (ApiPrefs.isAllowSleep(context)) {
+            scheduleReload(delay);
+        } else {
+            scheduleRefresh(delay);
+        }
+        logW("cycle deadline: " + (aborted ? "fetch abandoned" : waiting ? "connectivity wait abandoned" : "no fetch")
+                + ", next wake in " + (delay / 1000L) + "s");
+    }
+
+    /** Runs after every wake lock release, including its deadline. */
+    private void onCycleReleased() {
+        endPanelRefresh();
+        screenOffCycle = false;
+        try {
+            context.stopService(new Intent(context, FetchService.class));
+        } catch (Throwable t) {
+            Log.w(TAG, "stop fetch service: " + t);
+        }
+    }
+
+    /** True while a screen-off cycle has the screen on for its final refresh. */
+    boolean isRefreshingPanel() {
+        return panelOnAt > 0;
+    }
+
+    private boolean isScreenOn() {
+        try {
+            return powerManager == null || powerManager.isScreenOn();
+        } catch (Throwable t) {
+            return true;
+        }
+    }
+
+    /**
+     * Last step of a screen-off cycle: turn the screen on and show the new image. The sleep step
+     * turns it off again PANEL_REFRESH_MS later. Without an attached Activity, the NOOK redraws
+     * the just-written screensaver when the screen goes back off.
+     */
+    private void refreshPanel(Bitmap bitmap) {
+        panelOnAt = System.currentTimeMillis();
+        try {
+            // Timeout is a backstop in case the sleep step never runs.
+            if (panelWakeLock != null) panelWakeLock.acquire(PANEL_REFRESH_MS + 30 * 1000);
+        } catch (Throwable t) {
+            logW("panel wake: " + t);
+        }
+        long fetchMs = panelOnAt - fetchStartedAt;
+        if (display != null) {
+            display.onPanelRefresh(bitmap);
+            logD("displayed image (fetched in " + WakeAheadStats.seconds(fetchMs) + " with the screen off)");
+        } else {
+            logD("screen on for the screensaver (fetched in " + WakeAheadStats.seconds(fetchMs)
+                    + " with the screen off, no display attached)");
+        }
+    }
+
+    private void endPanelRefresh() {
+        if (panelOnAt == 0) return;
+        try {
+            panelWakeLock.release();
+        } catch (Throwable t) {
+            // Already released by the acquire timeout.
+        }
+        logD("screen on " + WakeAheadStats.seconds(System.currentTimeMillis() - panelOnAt) + " for the refresh");
+        panelOnAt = 0;
+    }
+
+    /** A wake alarm, delivered through AlarmReceiver and FetchService. */
+    void onAlarm() {
+        // The alarm only keeps the CPU up for the broadcast; hold it for the whole cycle.
+        holdCycle("alarm");
+        // Screen-off fetch: the partial wake lock is enough until there is an image to show.
+        screenOffCycle = ApiPrefs.isAllowSleep(context) && ApiPrefs.isScreenOffFetch(context) && !isScreenOn();
+        if (screenOffCycle) {
+            logD("alarm: fetching with the screen off");
+        } else if (ApiPrefs.isAllowSleep(context) && display != null) {
+            display.setScreenAwake(true);
+        }
+        if (USE_GENERIC_IMAGE) {
+            showGenericImageAndSleep();
+            return;
+        }
+        if (fetchCoordinator.isInFlight()) {
+            logD("alarm: fetch already in progress, joining it");
+            return;
+        }
+        logD(display != null ? "alarm: display attached" : "alarm: no display, running headless");
+        fetchReason = "alarm";
+        alarmFiredAt = System.currentTimeMillis();
+        alarmConnectedAt = 0;
+        boolean connectedAtWake = isConnectedToNetwork(context);
+        alarmWasCold = !connectedAtWake;
+        if (lastWifiPolicy != null) {
+            logD(lastWifiPolicy.describeOutcome(connectedAtWake, getBatteryPercent(context), alarmFiredAt));
+            lastWifiPolicy = null;
+        }
+        // A prefetched screen needs no network: leave WiFi as it is and show it.
+        if (screenQueue.hasNext(freshnessKey())) {
+            startFetch(false);
+            return;
+        }
+        // Start TLS/crypto warm-up now so it overlaps the WiFi association wait.
+        BouncyCastleHttpClient.warmUp(context, ApiPrefs.getSnapshot(context));
+        // Electric-Sign-style: if we slept with WiFi off, turn it on and wait before fetching
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (ApiPrefs.isAllowSleep(context) && wifi != null && !wifi.isWifiEnabled()
+                && !isConnectedToNetwork(context)) {
+            wifi.setWifiEnabled(true);
+            startFetch(true);
+            return;
+        }
+        startFetch(false);
+    }
+
+    /**
+     * Requests a fetch for reason (see FetchCoordinator.triggerOf), first waiting for connectivity
+     * if the caller just turned WiFi on. It may join the fetch in flight or be skipped while the
+     * image is fresh (admitFetch); callers don't check first.
+     */
+    void fetch(String reason, boolean waitForWifi) {
+        fetchReason = reason;
+        startFetch(waitForWifi);
+    }
+
+    /** When we just turned WiFi on, delay fetch so connection can establish. */
+    private void scheduleFetchAfterWifiWarmup() {
+        if (pendingWifiWarmupRunnable != null) {
+            handler.removeCallbacks(pendingWifiWarmupRunnable);
+        }
+        pendingWifiWarmupRunnable = new Runnable() {
+            @Override
+            public void run() {
+                pendingWifiWarmupRunnable = null;
+                runFetch();
+            }
+        };
+        handler.postDelayed(pendingWifiWarmupRunnable, WIFI_WARMUP_MS);
+        logD("fetch in " + (WIFI_WARMUP_MS / 1000L) + "s (wifi warming up)");
+    }
+
+    /** Wait for network to come up, then run the admitted fetch. Starts as soon as connectivity appears; max wait CONNECTIVITY_MAX_WAIT_MS. */
+    private void waitForWifiThenFetch() {
+        holdCycle(fetchReason);
+        cancelConnectivityWait();
+        if (isConnectedToNetwork(context)) {
+            runFetch();
+            return;
+        }
+        // Only show Connecting in the dialog when user tapped Next. Resume/alarm wake: keep previous display, wait in background.
+        final boolean showErrorInMenu = display != null && display.isMenuVisible();
+        if (display != null) display.onWaitingForNetwork(showErrorInMenu);
+        ensureWifiOn("waiting for connection");
+        BouncyCastleHttpClient.warmUp(context, ApiPrefs.getSnapshot(context));
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                if (!isConnectedToNetwork(c)) return;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connectivityReceiver == null) return;
+                        logD("connected, starting fetch");
+                        cancelConnectivityWait();
+                        runFetch();
+                    }
+                });
+            }
+        };
+        try {
+            context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        } catch (Throwable t) {
+            logW("register connectivity receiver: " + t);
+            connectivityReceiver = null;
+            scheduleFetchAfterWifiWarmup();
+            return;
+        }
+        pendingConnectivityTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                pendingConnectivityTimeoutRunnable = null;
+                logD("connectivity wait timed out");
+                alarmFiredAt = 0;
+                logD("Ensure you are connected to WiFi. Press the home button and go into settings to configure.");
+                cancelConnectivityWait();
+                if (display != null) display.onConnectTimeout(showErrorInMenu);
+                PowerProfile profile = readPowerProfile();
+                long delay = fetchBackoff.onFailure(null, profile.cycleMs(refreshMs), System.currentTimeMillis());
+                logD(fetchBackoff.lastDecision());
+                scheduleNextCycle(delay, profile);
+            }
+        };
+        handler.postDelayed(pendingConnectivityTimeoutRunnable, CONNECTIVITY_MAX_WAIT_MS);
+        logD("waiting for connectivity, fetch as soon as up (max " + (CONNECTIVITY_MAX_WAIT_MS / 1000L) + "s)");
+        logD("Ensure you are connected to WiFi. Press the home button and go into settings to configure.");
+    }
+
+    private void cancelConnectivityWait() {
+        if (connectivityReceiver != null) {
+            try {
+                context.unregisterReceiver(connectivityReceiver);
+            } catch (Throwable t) {
+                Log.w(TAG, "unregister connectivityReceiver: " + t);
+            }
+            connectivityReceiver = null;
+        }
+        if (pendingConnectivityTimeoutRunnable != null) {
+            handler.removeCallbacks(pendingConnectivityTimeoutRunnable);
+            pendingConnectivityTimeoutRunnable = null;
+        }
+    }
+
+    /** WiFi is only off while sleeping; turn it back on when needed.
+     * @return true if WiFi was off and we turned it on (caller should delay fetch to allow connection). */
+    boolean ensureWifiOn(String why) {
+        if (!ApiPrefs.isAllowSleep(context)) return false;
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifi != null && !wifi.isWifiEnabled()) {
+            wifi.setWifiEnabled(true);
+            logD("wifi on (" + why + "), wait ~15s for connection");
+            return true;
+        }
+        return false;
+    }
+
+    /** Records how long this alarm wake took to get connectivity and the first response byte. */
+    private void recordWakeTiming(HttpResponse response) {
+        long firedAt = alarmFiredAt;
+        long connectedAt = alarmConnectedAt;
+        if (firedAt == 0 || connectedAt == 0 || response.firstByteAt == 0) return;
+        alarmFiredAt = 0;
+        long connect = connectedAt - firedAt;
+        long firstByte = response.firstByteAt - firedAt;
+        wakeAheadStats.record(connect, firstByte, alarmWasCold);
+        logD("wake timing: connected +" + WakeAheadStats.seconds(connect)
+                + ", first byte +" + WakeAheadStats.seconds(firstByte) + (alarmWasCold ? " (reconnected)" : ""));
+    }
+
+    /** Schedule the next fetch cycle based on allow-sleep setting. */
+    private void scheduleNextCycle() {
+        PowerProfile profile = readPowerProfile();
+        scheduleNextCycle(nextCycleDelayMs(profile), profile);
+    }
+
+    /**
+     * Delay to the next cycle's target: the previous target plus the profile's period (optionally
+     * aligned, see CycleClock), or with spreading on, this device's next slot in that
+     * period (see WakeStagger), which is already an absolute time.
+     */
+    private long nextCycleDelayMs(PowerProfile profile) {
+        long periodMs = profile.cycleMs(refreshMs);
+        ApiPrefs.Snapshot prefs = ApiPrefs.getSnapshot(context);
+        if (!prefs.wakeSpread || prefs.apiId == null) {
+            long now = scheduleNow();
+            long due = cycleClock.nextDue(now, periodMs, prefs.refreshAlign, TimeZone.getDefault());
+            logD("schedule: next image due in " + ((due - now) / 1000L) + "s (align " + prefs.refreshAlign
+                    + ", fetch lead " + WakeAheadStats.seconds(cycleClock.fetchLeadMs()) + ")");
+            return due - now;
+        }
+        long offset = WakeStagger.offsetMs(prefs.apiId, periodMs);
+        long delay = WakeStagger.delayToSlot(scheduleNow(), periodMs, offset);
+        logD("stagger: slot +" + (offset / 1000L) + "s of " + (periodMs / 1000L) + "s, next display in "
+                + (delay / 1000L) + "s");
+        return delay;
+    }
+
+    /**
+     * Schedule the next fetch cycle delayMs from now (the profile's period normally, longer when
+     * backing off). At critical battery nothing is scheduled; see enterCriticalBattery().
+     */
+    private void scheduleNextCycle(long delayMs, PowerProfile profile) {
+        if (profile.stopsWaking()) {
+            enterCriticalBattery(profile);
+            return;
+        }
+        // A cycle due inside quiet hours moves to the window's end: one long sleep with WiFi off,
+        // and the wake-ahead means the morning image is already fetched when the window ends.
+        ApiPrefs.Snapshot prefs = ApiPrefs.getSnapshot(context);
+        long now = scheduleNow();
+        logD("clock: " + BouncyCastleHttpClient.serverClock().describe());
+        TimeZone zone = TimeZone.getDefault();
+        boolean quiet = prefs.quietHours.contains(now + delayMs, zone);
+        if (quiet) {
+            delayMs = prefs.quietHours.nextEnd(now + delayMs, zone) - now;
+            logD("quiet hours " + prefs.quietHours.label() + ": no wakes until the window ends, next display in "
+                    + (delayMs / 1000L) + "s");
+        }
+        cycleClock.setDue(now + delayMs);
+        scheduleRecord.setSchedule(refreshMs, now + delayMs);
+        scheduleRecord.save();
+        if (ApiPrefs.isAllowSleep(context)) {
+            int sleepWifi = quiet ? SLEEP_WIFI_OFF : profile.keepsWifiOn() ? SLEEP_WIFI_KEEP : SLEEP_WIFI_POLICY;
+            boolean nextQueued = !quiet && screenQueue.hasNext(freshnessKey());
+            scheduleScreensaverThenSleep(delayMs, sleepWifi, quiet ? prefs.quietIdleImagePath : null, nextQueued);
+        } else {
+            scheduleRefresh(delayMs);
+            endCycle("awake");
+        }
+    }
+
+    /**
+     * Wall-clock time for scheduling decisions (targets, alignment, stagger slots, quiet hours):
+     * the device clock corrected by the servers' Date headers, since the NOOK's RTC drifts for
+     * weeks without network time. Alarms are still set relative to the device clock.
+     */
+    private static long scheduleNow() {
+        return BouncyCastleHttpClient.serverClock().now();
+    }
+
+    /** Charger state and battery level, read once per cycle from the sticky ACTION_BATTERY_CHANGED. */
+    private PowerProfile readPowerProfile() {
+        int percent = -1;
+        boolean plugged = false;
+        try {
+            Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (intent != null) {
+                int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                if (level >= 0 && scale > 0) percent = Math.round((level * 100f) / scale);
+                plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            }
+        } catch (Throwable t) {
+            logW("battery state: " + t);
+        }
+        PowerProfile profile = PowerProfile.of(percent, plugged);
+        logD(profile.describe(refreshMs));
+        return profile;
+    }
+
+    /**
+     * Critical battery: show and write a "charge me" screen, cancel wakes and turn WiFi off, then
+     * wait for the charger. Plugging in resumes the normal cycle with an immediate fetch.
+     */
+    private void enterCriticalBattery(PowerProfile profile) {
+        if (alarmManager != null) {
+            alarmManager.cancel(alarmPendingIntent);
+        }
+        if (refreshRunnable != null) handler.removeCallbacks(refreshRunnable);
+        if (pendingSleepRunnable != null) {
+            handler.removeCallbacks(pendingSleepRunnable);
+            pendingSleepRunnable = null;
+        }
+        Bitmap chargeMe = renderChargeMeScreen(profile.batteryPercent);
+        if (chargeMe != null) {
+            if (display != null) display.onChargeMe(chargeMe);
+            writeScreensaver(chargeMe);
+        }
+        setChargerReceiverEnabled(true);
+        if (display != null) display.setScreenAwake(false);
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifi != null) wifi.setWifiEnabled(false);
+        logD("critical battery: charge-me screen shown, no more wakes until charger is connected");
+        endCycle("critical battery");
+    }
+
+    /**
+     * Charger plugged in while waiting at critical battery (see ChargerReceiver): resumes the
+     * normal cycle with an immediate fetch.
+     */
+    void onPowerConnected() {
+        setChargerReceiverEnabled(false);
+        logD("charger connected, resuming");
+        holdCycle("charger");
+        if (ApiPrefs.isAllowSleep(context) && display != null) display.setScreenAwake(true);
+        fetchReason = "charger";
+        startFetch(false);
+    }
+
+    /** ChargerReceiver listens only while critical battery has stopped the wakes. */
+    private void setChargerReceiverEnabled(boolean enabled) {
+        try {
+            context.getPackageManager().setComponentEnabledSetting(
+                    new ComponentName(context, ChargerReceiver.class),
+                    enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                            : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                    PackageManager.DONT_KILL_APP);
+        } catch (Throwable t) {
+            logW("charger receiver: " + t);
+        }
+    }
+
+    /** Portrait 600x800 "charge me" screen drawn on the device; no bundled asset needed. */
+    private Bitmap renderChargeMeScreen(int batteryPercent) {
+        try {
+            Bitmap bitmap = Bitmap.createBitmap(600, 800, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawColor(Color.WHITE);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setColor(Color.BLACK);
+            paint.setTextAlign(Paint.Align.CENTER);
+            // Battery outline with the remaining charge filled in.
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(8);
+            canvas.drawRect(180, 220, 400, 330, paint);
+            paint.setStyle(Paint.Style.FILL);
+            canvas.drawRect(400, 250, 425, 300, paint);
+            int fill = Math.max(4, Math.max(0, batteryPercent) * 204 / 100);
+            canvas.drawRect(188, 228, 188 + fill, 322, paint);
+            paint.setTextSize(56);
+            canvas.drawText("Please charge me", 300, 460, paint);
+            paint.setTextSize(28);
+            canvas.drawText(batteryPercent >= 0 ? "Battery " + batteryPercent + "%" : "Battery critically low",
+                    300, 520, paint);
+            canvas.drawText("TRMNL will resume when plugged in", 300, 570, paint);
+            return bitmap;
+        } catch (Throwable t) {
+            logW("charge-me screen: " + t);
+            return null;
+        }
+    }
+
+    /** Schedule alarm to wake and trigger next fetch at (now + millis). */
+    private long scheduleReload(long millis) {
+        if (alarmManager == null) return 0;
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(System.currentTimeMillis() + millis);
+        long wakeTime = cal.getTimeInMillis();
+        alarmManager.set(AlarmManager.RTC_WAKEUP, wakeTime, alarmPendingIntent);
+        return wakeTime;
+    }
+
+    /** After SCREENSAVER_DELAY_MS (5s), put device in sleep-ready state (clear keep-screen-on, WiFi off, alarm set).
+     * We do NOT show generic in-app — the API image stays on screen. If "write screensaver" is on we write
+     * the displayed API image to the NOOK screensaver path so the device shows it when it sleeps (e.g. after 2m). */
+    private void scheduleScreensaverThenSleep(long delayMs, final int sleepWifi, final String idleImagePath,
+            final boolean nextQueued) {
+        // Absolute target, so the screensaver delay and handler latency don't push the cycle later.
+        final long dueAt = scheduleNow() + delayMs;
+        if (pendingSleepRunnable != null) {
+            handler.removeCallbacks(pendingSleepRunnable);
+        }
+        // A screen-off cycle wrote the screensaver already and only waits for its panel refresh.
+        long sleepDelayMs = !screenOffCycle ? SCREENSAVER_DELAY_MS : panelOnAt > 0 ? PANEL_REFRESH_MS : 0;
+        pendingSleepRunnable = new Runnable() {
+            @Override
+            public void run() {
+                pendingSleepRunnable = null;
+                if (!ApiPrefs.isAllowSleep(context)) {
+                    endCycle("sleep disabled");
+                    return;
+                }
+                // Write screensaver so NOOK shows our image while asleep
+                Bitmap idleImage = idleImagePath != null ? decodeIdleImage(idleImagePath) : null;
+                if (idleImage != null) {
+                    writeScreensaver(idleImage);
+                } else if (lastDisplayedImage != null) {
+                    writeScreensaver(lastDisplayedImage);
+                } else if (cachedImagePath() == null) {
+                    // After a restart the file may already hold the last image; keep it.
+                    writeGenericScreensaver();
+                }
+                long sleepMs = dueAt - scheduleNow();
+                if (sleepMs < 0) sleepMs = 0;
+                // With auto-disable on, only drop WiFi when the sleep is long enough to repay the reconnect.
+                boolean wifiOff = false;
+                lastWifiPolicy = null;
+                if (sleepWifi == SLEEP_WIFI_OFF) {
+                    wifiOff = true;
+                    logD("wifi policy: turn off (quiet hours)");
+                } else if (sleepWifi == SLEEP_WIFI_KEEP) {
+                    logD("wifi policy: keep on (on charger)");
+                } else if (nextQueued && ApiPrefs.isAutoDisableWifi(context)) {
+                    wifiOff = true;
+                    logD("wifi policy: turn off (next screen is queued)");
+                } else if (ApiPrefs.isAutoDisableWifi(context)) {
+                    WifiPowerPolicy policy = WifiPowerPolicy.decide(sleepMs,
+                            wakeAheadStats.reconnectMs(WIFI_WARMUP_MS),
+                            getBatteryPercent(context), System.currentTimeMillis());
+                    logD(policy.describe());
+                    lastWifiPolicy = policy;
+                    wifiOff = !policy.keepWifiOn;
+                }
+                // Wake early enough for this device's WiFi to associate and the API to answer (learned
+                // from recent wakes; WIFI_WARMUP_MS until then), plus the measured time from there
+                // to the image being on screen, so it is displayed when due.
+                // A queued screen is on screen as soon as the alarm fires.
+                long wakeAhead = nextQueued ? 0
+                        : wakeAheadStats.wakeAheadMs(WIFI_WARMUP_MS, wifiOff) + cycleClock.tailLeadMs();
+                sleepMs = Math.max(0, sleepMs - wakeAhead);
+                scheduleReload(sleepMs);
+                if (display != null) display.setScreenAwake(false);
+                if (wifiOff) {
+                    WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+                    if (wifi != null) wifi.setWifiEnabled(false);
+                }
+                logD("sleep-ready: alarm in " + (sleepMs / 1000L) + "s (wake-ahead " + WakeAheadStats.seconds(wakeAhead)
+                        + ": " + wakeAheadStats.describe() + "; NOOK may blank after idle, e.g. 2m)");
+                endCycle("asleep");
+            }
+        };
+        handler.postDelayed(pendingSleepRunnable, sleepDelayMs);
+        logD("sleep-ready in " + WakeAheadStats.seconds(sleepDelayMs) + " (API image stays; NOOK shows screensaver when it sleeps)");
+    }
+
+    /** Quiet-hours idle image from a user-supplied path, or null (logged) if it can't be read. */
+    private Bitmap decodeIdleImage(String path) {
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(path);
+            if (bitmap == null) logW("quiet hours idle image not readable: " + path);
+            return bitmap;
+        } catch (Throwable t) {
+            logW("quiet hours idle image: " + t);
+            return null;
+        }
+    }
+
+    /** Show bundled generic image (res/drawable-mdpi/generic_display.jpg) and, if allow-sleep, write it as screensaver and go to sleep. */
+    void showGenericImageAndSleep() {
+        Bitmap bitmap = null;
+        try {
+            bitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.generic_display);
+        } catch (Throwable t) {
+            logW("generic_display decode failed: " + t);
+        }
+        if (bitmap == null) {
+            logW("generic_display not found or failed to load");
+            return;
+        }
+        if (display != null) display.onImage(bitmap);
+        logD("displayed generic image");
+        logD("next display in " + (refreshMs / 1000L) + "s");
+        if (ApiPrefs.isAllowSleep(context)) {
+            writeScreensaver(bitmap);
+            scheduleReload(refreshMs);
+            if (display != null) display.setScreenAwake(false);
+            if (ApiPrefs.isAutoDisableWifi(context)) {
+                WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+                if (wifi != null) wifi.setWifiEnabled(false);
+            }
+            logD("sleep allowed: alarm set, screen off, wifi off");
+            endCycle("asleep");
+        } else {
+            scheduleRefresh(refreshMs);
+            endCycle("awake");
+        }
+    }
+
+    static boolean isConnectedToNetwork(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return false;
+        NetworkInfo wifi = cm.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+        if (wifi != null && wifi.isConnected()) return true;
+        NetworkInfo mobile = cm.getNetworkInfo(ConnectivityManager.TYPE_MOBILE);
+        return mobile != null && mobile.isConnected();
+    }
+
+    /** Write bundled generic_display.jpg to screensaver path. Used as fallback when no API image has been displayed yet. */
+    void writeGenericScreensaver() {
+        Bitmap b = null;
+        try {
+            b = BitmapFactory.decodeResource(context.getResources(), R.drawable.generic_display);
+        } catch (Throwable t) {
+            logW("generic_display for screensaver: " + t);
+        }
+        if (b != null) writeScreensaver(b);
+    }
+
+    /** writeGenericScreensaver() on the io thread: decode and PNG encode take seconds on the NOOK. */
+    void writeGenericScreensaverInBackground() {
+        io.execute(new Runnable() {
+            public void run() {
+                writeGenericScreensaver();
+            }
+        });
+    }
+
+    /**
+     * The last frame as a Bitmap from the raw gray snapshot, or null if there is none. Reads and
+     * unpacks on the caller's thread; it is meant for DisplayActivity.onCreate.
+     */
+    Bitmap loadFrameSnapshot() {
+        FrameSnapshot snapshot = FrameSnapshot.read(frameSnapshotFile);
+        if (snapshot == null) return null;
+        try {
+            return bitmapOf(snapshot);
+        } catch (Throwable t) {
+            logW("frame snapshot: " + t);
+            return null;
+        }
+    }
+
+    private static FrameSnapshot snapshotOf(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] pixels = new int[w * h];
+        bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+        return FrameSnapshot.fromPixels(pixels, w, h);
+    }
+
+    private static Bitmap bitmapOf(FrameSnapshot frame) {
+        return Bitmap.createBitmap(frame.toPixels(), frame.width, frame.height, Bitmap.Config.RGB_565);
+    }
+
+    /** Saves the frame as a raw gray snapshot on the io thread. */
+    private void saveFrameSnapshot(final Bitmap bitmap) {
+        io.execute(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    FrameSnapshot snapshot = snapshotOf(bitmap);
+                    if (snapshot.write(frameSnapshotFile)) {
+                        logD("frame snapshot saved: " + (snapshot.fileBytes() / 1024) + " KB in "
+                                + (System.currentTimeMillis() - start) + "ms");
+                    }
+                } catch (Throwable t) {
+                    logW("frame snapshot save failed: " + t);
+                }
+            }
+        });
+    }
+
+    /** Write given bitmap to screensaver path so NOOK shows it while asleep. */
+    void writeScreensaver(Bitmap bitmap) {
+        if (bitmap == null || bitmap == screensaverBitmap) return;
+        String path = ApiPrefs.getScreensaverPath();
+        if (path == null || path.length() == 0) return;
+        String dirPath = path;
+        int lastSlash = dirPath.lastIndexOf('/');
+        if (lastSlash >= 0) dirPath = dirPath.substring(0, lastSlash);
+        try {
+            new File(dirPath).mkdirs();
+        } catch (Throwable t) {
+            logW("screensaver mkdir: " + t);
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(new File(path));
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.flush();
+            out.close();
+            screensaverBitmap = bitmap;
+            logD("screensaver written: " + path);
+            saveFrameSnapshot(bitmap);
+            if (!path.equals(scheduleRecord.imagePath())) {
+                scheduleRecord.setImagePath(path);
+                scheduleRecord.save();
+            }
+        } catch (Throwable t) {
+            logW("screensaver write failed: " + t);
+        }
+    }
+
+    /** Battery percentage (0-100) from ACTION_BATTERY_CHANGED, or -1 if unknown. */
+    static int getBatteryPercent(Context context) {
+        if (context == null) return -1;
+        try {
+            Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (intent == null) return -1;
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level < 0 || scale <= 0) return -1;
+            return Math.round((level * 100f) / scale);
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    /** WiFi RSSI in dBm (e.g. -69), or -999 if unknown. Requires ACCESS_WIFI_STATE. */
+    private static int getWifiRssi(Context context) {
+        if (context == null) return -999;
+        try {
+            WifiManager wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            if (wm == null) return -999;
+            WifiInfo info = wm.getConnectionInfo();
+            if (info == null) return -999;
+            return info.getRssi();
+        } catch (Throwable t) {
+            return -999;
+        }
+    }
+
+    /**
+     * Single-flight and freshness gate for a fetch trigger. False if a fetch is already in flight
+     * (the trigger joins it) or, for opportunistic triggers, if the displayed image is younger
+     * than half the refresh period and the next cycle is still ahead. A skipped trigger leaves the
+     * pending alarm (or awake-mode timer) as it is and does not re-run the sleep step; only after
+     * a boot, which cleared the alarm, is the restored target scheduled again, under the cycle's
+     * wake lock.
+     */
+    private boolean admitFetch(String reason) {
+        int trigger = FetchCoordinator.triggerOf(reason);
+        long remaining = cycleClock.dueAt() - scheduleNow();
+        long freshMs = remaining > 0 ? refreshMs / 2 : 0;
+        long now = System.currentTimeMillis();
+        int decision = fetchCoordinator.admit(trigger, freshnessKey(), freshMs, now);
+        if (decision == FetchCoordinator.JOINED) {
+            logD("fetch (" + reason + ") joined the one in flight");
+            return false;
+        }
+        if (decision == FetchCoordinator.PREEMPT) {
+            logD("fetch (" + reason + ") preempts the background fetch in flight");
+        }
+        if (decision == FetchCoordinator.FRESH) {
+            logD("fetch (" + reason + ") skipped: image is " + (fetchCoordinator.imageAgeMs(now) / 1000L)
+                    + "s old, next due in " + (remaining / 1000L) + "s");
+            if ("boot".equals(reason)) {
+                holdCycle(reason);
+                scheduleNextCycle(remaining, readPowerProfile());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /** Settings an image was fetched with; a different server or device is never fresh. */
+    private String freshnessKey() {
+        ApiPrefs.Snapshot prefs = ApiPrefs.getSnapshot(context);
+        return prefs.apiBaseUrl + " " + prefs.apiId;
+    }
+
+    /** Puts a new image on screen (only in the screensaver when headless) and notes when. */
+    private void showImage(Bitmap bitmap, String imageUrl) {
+        lastDisplayedImage = bitmap;
+        // Always write screensaver immediately so TRMNL appears in NOOK's screensaver list
+        writeScreensaver(bitmap);
+        if (imageUrl != null) {
+            logD("image url: " + imageUrl);
+        }
+        if (screenOffCycle && !isScreenOn()) {
+            refreshPanel(bitmap);
+        } else if (display != null) {
+            display.onImage(bitmap);
+            logD("displayed image");
+        } else {
+            logD("no display attached: image is in the screensaver only");
+        }
+        imageShownAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Shows the next prefetched screen (see ScreenQueue) instead of fetching: no WiFi and no
+     * request, and the cycle sleeps again for that screen's refresh_rate. False if prefetch is off
+     * or nothing usable is queued; the caller then fetches, which refills the queue.
+     */
+    private boolean showQueuedScreen() {
+        int depth = ApiPrefs.getPrefetchDepth(context);
+        if (depth <= 0 || ApiPrefs.isGiftModeEnabled(context)) {
+            screenQueue.clear();
+            return false;
+        }
+        if (!screenQueue.hasNext(freshnessKey())) {
+            screenQueue.clear();
+            return false;
+        }
+        // Admitted before anything is dequeued: a trigger that joins the fetch in flight leaves
+        // the queue as it is.
+        int generation = fetchCoordinator.begin(FetchCoordinator.triggerOf(fetchReason));
+        if (generation < 0) return true;
+        long now = System.currentTimeMillis();
+        // Screens older than twice what a full queue plays for are stale; fetch fresh ones.
+        ScreenQueue.Entry entry = screenQueue.poll(freshnessKey(), now, 2L * (depth + 1) * refreshMs);
+        Bitmap bitmap = null;
+        if (entry != null) {
+            try {
+                bitmap = bitmapOf(entry.frame);
+            } catch (Throwable t) {
+                logW("queued screen: " + t);
+            }
+        }
+        if (bitmap == null) {
+            // Nothing to show after all; the caller's fetch begins again.
+            fetchCoordinator.finish(generation, false, freshnessKey(), now);
+            return false;
+        }
+        if (currentFetchTask != null) {
+            currentFetchTask.cancel(true);
+            currentFetchTask = null;
+        }
+        // No radio wake to measure.
+        alarmFiredAt = 0;
+        fetchStartedFromMenu = false;
+        if (entry.refreshMs > 0) refreshMs = entry.refreshMs;
+        logD("queued screen (" + fetchReason + "): fetched " + ((now - entry.fetchedAt) / 1000L) + "s ago, shows for "
+                + (refreshMs / 1000L) + "s; " + screenQueue.describe() + " left");
+        showImage(bitmap, entry.imageUrl);
+        fetchCoordinator.finish(generation, true, freshnessKey(), imageShownAt);
+        scheduleRecord.setDisplayed(imageShownAt, freshnessKey(), entry.imageUrl);
+        scheduleNextCycle();
+        return true;
+    }
+
+    /** Screens the fetch in flight should prefetch after its own: prefetch_depth minus what is queued. */
+    private int prefetchWanted(ApiPrefs.Snapshot prefs) {
+        if (prefs.prefetchDepth <= 0) return 0;
+        return Math.max(0, prefs.prefetchDepth - screenQueue.size());
+    }
+
+    /**
+     * Queues a prefetched screen (fetch thread). Its bitmap is packed to a FrameSnapshot and
+     * recycled, so only one prefetched frame is in memory at a time. False when the queue is full
+     * or the files partition is low.
+     */
+    private boolean queueScreen(Bitmap bitmap, long screenMs, String imageUrl, String key) {
+        try {
+            StatFs fs = new StatFs(context.getFilesDir().getPath());
+            long free = (long) fs.getAvailableBlocks() * (long) fs.getBlockSize();
+            if (free < PREFETCH_MIN_FREE_BYTES) {
+                logW("prefetch: only " + (free / 1024L) + " KB free, not queueing");
+                return false;
+            }
+            return screenQueue.offer(snapshotOf(bitmap), screenMs, System.currentTimeMillis(), key, imageUrl);
+        } catch (Throwable t) {
+            logW("prefetch queue: " + t);
+            return false;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Entry point for every fetch trigger (fetchReason): decides once, in admitFetch, whether it
+     * runs at all, then runs it now or after waiting for connectivity.
+     */
+    private void startFetch(boolean waitForWifi) {
+        if (!admitFetch(fetchReason)) {
+            return;
+        }
+        if (waitForWifi) {
+            waitForWifiThenFetch();
+        } else {
+            runFetch();
+        }
+    }
+
+    /** The admitted fetch; the connectivity wait resumes here, so a trigger is not admitted twice. */
+    private void runFetch() {
+        holdCycle(fetchReason);
+        // Cancel any pending sleep runnable to prevent WiFi being turned off mid-fetch
+        if (pendingSleepRunnable != null) {
+            handler.removeCallbacks(pendingSleepRunnable);
+            pendingSleepRunnable = null;
+        }
+        if (showQueuedScreen()) {
+            return;
+        }
+        // Always wait for WiFi before attempting fetch
+        if (!isConnectedToNetwork(context)) {
+            WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            if (wifi != null && !wifi.isWifiEnabled()) {
+                wifi.setWifiEnabled(true);
+            }
+            waitForWifiThenFetch();
+            return;
+        }
+        if (ApiPrefs.isGiftModeEnabled(context) || !ApiPrefs.hasCredentials(context)) {
+            if (display != null) display.onMissingCredentials();
+            logD("no credentials, not fetching");
+            endCycle("no credentials");
+            return;
+        }
+        int generation = fetchCoordinator.begin(FetchCoordinator.triggerOf(fetchReason));
+        if (generation < 0) {
+            return;
+        }
+        if (currentFetchTask != null) {
+            // Preempted background fetch: interrupt its retry sleep; its result, if any, is dropped.
+            currentFetchTask.cancel(true);
+            currentFetchTask = null;
+            alarmFiredAt = 0;
+        }
+        fetchStartedFromMenu = display != null && display.isMenuVisible();
+        fetchStartedAt = System.currentTimeMillis();
+        apiFirstByteAt = 0;
+        if (alarmFiredAt > 0 && alarmConnectedAt == 0) {
+            alarmConnectedAt = System.currentTimeMillis();
+        }
+        // Only show Loading in the dialog when user tapped Next. Resume/alarm wake: keep previous display, fetch in background.
+        if (display != null) display.onFetchStarting(fetchStartedFromMenu);
+        // One settings snapshot for the whole fetch; the background thread never touches SharedPreferences.
+        ApiPrefs.Snapshot prefs = ApiPrefs.getSnapshot(context);
+        String httpsUrl = prefs.apiBaseUrl + API_DISPLAY_PATH;
+        logD("fetch reason=" + fetchReason + " wifi=" + getWifiStateString());
+        logD("start: " + httpsUrl);
+        // A user tap always gets the full retry; with the circuit open, background wakes probe once.
+        boolean allowRetry = fetchStartedFromMenu || !fetchBackoff.isOpen();
+        if (!allowRetry) logD("circuit open after " + fetchBackoff.failures() + " failures: single probe");
+        currentFetchTask = ApiFetchTask.start(this, httpsUrl, prefs, allowRetry, generation);
+    }
+
+    private String getWifiStateString() {
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifi == null) return "null";
+        if (!wifi.isWifiEnabled()) return "off";
+        WifiInfo info = wifi.getConnectionInfo();
+        if (info == null) return "on/no-info";
+        int ip = info.getIpAddress();
+        if (ip == 0) return "on/no-ip";
+        return "connected";
+    }
+
+    private void scheduleRefresh(long delayMs) {
+        if (ApiPrefs.isAllowSleep(context)) {
+            return;
+        }
+        if (refreshRunnable == null) {
+            refreshRunnable = new Runnable() {
+                public void run() {
+                    fetchReason = "timer";
+                    startFetch(false);
+                    handler.postDelayed(this, refreshMs);
+                }
+            };
+        }
+        handler.removeCallbacks(refreshRunnable);
+        logD("next display in " + (delayMs / 1000L) + "s");
+        // Start early by the measured fetch time so the image is on screen when due.
+        handler.postDelayed(refreshRunnable, Math.max(0, delayMs - cycleClock.fetchLeadMs()));
+    }
+
+    private void updateRefreshRateSeconds(final int seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        long newMs = seconds * 1000L;
+        if (newMs == refreshMs) {
+            return;
+        }
+        refreshMs = newMs;
+        logD("refresh rate set to " + seconds + "s");
+        handler.post(new Runnable() {
+            public void run() {
+                scheduleRefresh(refreshMs);
+            }
+        });
+    }
+
+    void logD(String msg) {
+        Log.d(TAG, msg);
+        FileLogger.d(TAG, msg);
+        Display d = display;
+        if (d != null) d.onLog(msg);
+    }
+
+    void logW(String msg) {
+        Log.w(TAG, msg);
+        FileLogger.w(TAG, msg);
+        Display d = display;
+        if (d != null) d.onLog("W " + msg);
+    }
+
+    private void logE(String msg, Throwable t) {
+        Log.e(TAG, msg, t);
+        FileLogger.e(TAG, msg, t);
+        Display d = display;
+        if (d != null) d.onLog("E " + msg + (t != null ? (": " + t.toString()) : ""));
+    }
+
+    /**
+     * Fetches /display and its image off the main thread; the result goes back to the cycle.
+     */
+    private static class ApiFetchTask extends AsyncTask {
+        private final RefreshCycle cycle;
+        private final String httpsUrl;
+        private final ApiPrefs.Snapshot prefs;
+        private final String apiId;
+        private final String apiToken;
+        private final boolean allowRetry;
+        /** FetchCoordinator generation; a preempted task's result is dropped. */
+        private final int generation;
+        private ApiFetchTask(RefreshCycle cycle, String httpsUrl, ApiPrefs.Snapshot prefs, boolean allowRetry,
+                int generation) {
+            this.cycle = cycle;
+            this.httpsUrl = httpsUrl;
+            this.prefs = prefs;
+            this.apiId = prefs.apiId;
+            this.apiToken = prefs.apiToken;
+            this.allowRetry = allowRetry;
+            this.generation = generation;
+        }
+
+        public static ApiFetchTask start(RefreshCycle cycle, String httpsUrl, ApiPrefs.Snapshot prefs,
+                boolean allowRetry, int generation) {
+            if (cycle == null || httpsUrl == null || prefs == null) return null;
+            try {
+                ApiFetchTask task = new ApiFetchTask(cycle, httpsUrl, prefs, allowRetry, generation);
+                task.execute(new Object[] { httpsUrl });
+                return task;
+            } catch (Throwable t) {
+                cycle.logE("fetch start failed", t);
+                return null;
+            }
+        }
+
+        protected Object doInBackground(Object[] params) {
+            String httpsUrl = (String) params[0];
+            final RefreshCycle c = cycle;
+            int batteryPercent = getBatteryPercent(c.context);
+            int rssi = getWifiRssi(c.context);
+            if (batteryPercent >= 0) c.logD("Percent-Charged: " + batteryPercent);
+            if (rssi != -999) c.logD("rssi: " + rssi);
+
+            // Try BouncyCastle TLS first (supports TLS 1.2)
+            if (BouncyCastleHttpClient.isAvailable()) {
+                c.logD("trying BouncyCastle TLS 1.2");
+                Hashtable headers = buildApiHeaders(apiId, apiToken, batteryPercent, rssi);
+
+                // Try up to 2 times with 5s between, unless the failure says retrying now is pointless
+                // (server busy / Retry-After / 4xx) - those are left to the scheduler's backoff.
+                HttpResponse response = null;
+                long requestStart = 0;
+                for (int attempt = 1; attempt <= 2; attempt++) {
+                    if (attempt > 1) {
+                        if (!allowRetry || !response.isRetryableNow()) break;
+                        c.logW("Attempt " + (attempt-1) + " failed: " + response.describe() + " - retrying in 5s");
+                        try {
+                            Thread.sleep(5000);
+                        } catch (InterruptedException e) {
+                            break; // preempted by a Next tap
+                        }
+                        if (isCancelled()) break;
+                        c.logD("Retrying fetch...");
+                    }
+                    requestStart = System.currentTimeMillis();
+                    response = BouncyCastleHttpClient.get(
+                            c.context,
+                            prefs,
+                            httpsUrl,
+                            headers,
+                            true,
+                            null);
+                    // A preempted task's timings belong to no cycle, and its image is not wanted.
+                    if (isCancelled()) return response;
+                    c.recordWakeTiming(response);
+                    if (response.firstByteAt > 0 && c.apiFirstByteAt == 0) {
+                        c.apiFirstByteAt = response.firstByteAt;
+                    }
+                    if (response.isOk()) {
+                        TrmnlApiResponseParser.Result r = TrmnlApiResponseParser.parseAndMaybeFetchImage(
+                                c.context,
+                                prefs,
+                                response,
+                                allowRetry,
+                                new TrmnlApiResponseParser.Logger() {
+                                    public void logD(String msg) { c.logD(msg); }
+                                    public void logW(String msg) { c.logW(msg); }
+                                });
+                        if (r != null && r.refreshRateSeconds > 0) {
+                            c.updateRefreshRateSeconds(r.refreshRateSeconds);
+                        }
+                        if (r != null && r.showImage && r.bitmap != null) {
+                            ApiResult first = new ApiResult(response, r.imageUrl, r.bitmap);
+                            int wanted = c.prefetchWanted(prefs);
+                            if (wanted > 0 && !isCancelled()) {
+                                // Nobody watches a screen-off cycle; everyone else sees this one now.
+                                if (!c.screenOffCycle) publishProgress(new Object[] { first });
+                                prefetch(httpsUrl, headers, wanted, System.currentTimeMillis() - requestStart);
+                            }
+                            return first;
+                        }
+                        return new ApiResult(response, r != null ? r.imageFailure : null);
+                    }
+                }
+                c.logW("Fetch failed: " + response.describe());
+                return response;
+            }
+
+            HttpResponse unavailable = HttpResponse.failure(httpsUrl, HttpResponse.ERROR_REQUEST,
+                    "TLS 1.2 client unavailable (BouncyCastle required)", null);
+            c.logW("Error: " + unavailable.describe());
+            return unavailable;
+        }
+
+        /**
+         * Fetches up to count more playlist screens into the queue. Each /display call advances the
+         * playlist; they go back to back on the resumed TLS session. Stops at the first failure,
+         * screen without an image, or full queue, keeping whatever was queued.
+         *
+         * Also stops before a screen that might not finish inside the cycle wake lock: at the
+         * deadline the lock is released and FetchService stopped, so a screen is only started
+         * while the time left covers the slowest one so far (firstScreenMs is the screen already
+         * shown) plus PREFETCH_TAIL_MS for showing it and scheduling the sleep.
+         */
+        private void prefetch(String httpsUrl, Hashtable headers, int count, long firstScreenMs) {
+            final RefreshCycle c = cycle;
+            String key = c.freshnessKey();
+            long start = System.currentTimeMillis();
+            long screenMs = firstScreenMs;
+            int queued = 0;
+            TrmnlApiResponseParser.Logger logger = new TrmnlApiResponseParser.Logger() {
+                public void logD(String msg) { c.logD(msg); }
+                public void logW(String msg) { c.logW(msg); }
+            };
+            while (queued < count && !isCancelled()) {
+                long left = c.cycleWakeLock.remainingMs();
+                if (left >= 0 && left < screenMs + PREFETCH_TAIL_MS) {
+                    c.logD("prefetch stopped: wake lock deadline in " + WakeAheadStats.seconds(left)
+                            + ", a screen takes up to " + WakeAheadStats.seconds(screenMs));
+                    break;
+                }
+                long screenStart = System.currentTimeMillis();
+                HttpResponse response = BouncyCastleHttpClient.get(c.context, prefs, httpsUrl, headers, true, null);
+                if (isCancelled()) break;
+                if (!response.isOk()) {
+                    c.logD("prefetch stopped: " + response.describe());
+                    break;
+                }
+                TrmnlApiResponseParser.Result r = TrmnlApiResponseParser.parseAndMaybeFetchImage(
+                        c.context, prefs, response, false, logger);
+                if (r == null || !r.showImage || r.bitmap == null) {
+                    c.logD("prefetch stopped: no image in response");
+                    break;
+                }
+                long playMs = r.refreshRateSeconds > 0 ? r.refreshRateSeconds * 1000L : c.refreshMs;
+                if (!c.queueScreen(r.bitmap, playMs, r.imageUrl, key)) break;
+                queued++;
+                long took = System.currentTimeMillis() - screenStart;
+                if (took > screenMs) screenMs = took;
+            }
+            c.logD("prefetch: queued " + queued + " of " + count + " in "
+                    + WakeAheadStats.seconds(System.currentTimeMillis() - start) + " (" + c.screenQueue.describe() + ")");
+        }
+
+        protected void onProgressUpdate(Object[] values) {
+            RefreshCycle c = cycle;
+            if (c.fetchCoordinator.isSuperseded(generation)) return;
+            ApiResult ar = (ApiResult) values[0];
+            c.showImage(ar.bitmap, ar.imageUrl);
+            ar.shown = true;
+        }
+
+        protected void onCancelled() {
+            cycle.logD("background fetch cancelled (preempted or past the cycle deadline)");
+        }
+
+        protected void onPostExecute(Object result) {
+            RefreshCycle c = cycle;
+            Display display = c.display;
+            // A Next tap that joined a background fetch gets its result in the menu too.
+            final boolean fromMenu = c.fetchStartedFromMenu || c.fetchCoordinator.userWaiting();
+            boolean displayed = result instanceof ApiResult
+                    && ((ApiResult) result).showImage && ((ApiResult) result).bitmap != null;
+            int joined = c.fetchCoordinator.finish(generation, displayed, c.freshnessKey(), System.currentTimeMillis());
+            if (joined < 0) {
+                c.logD("dropped result of preempted fetch");
+                return;
+            }
+            if (c.currentFetchTask == this) c.currentFetchTask = null;
+            c.alarmFiredAt = 0;
+            c.fetchStartedFromMenu = false;
+            if (joined > 0) c.logD("fetch served " + (joined + 1) + " triggers");
+            if (result instanceof ApiResult) {
+                ApiResult ar = (ApiResult) result;
+                if (ar.showImage && ar.bitmap != null) {
+                    // With prefetch on, a screen-on cycle showed it before fetching the rest.
+                    if (!ar.shown) c.showImage(ar.bitmap, ar.imageUrl);
+                    long displayedAt = c.imageShownAt;
+                    long due = c.cycleClock.dueAt();
+                    long late = scheduleNow() - due;
+                    if (due > 0 && Math.abs(late) < c.refreshMs) {
+                        c.logD("displayed " + (late / 1000L) + "s from target");
+                    }
+                    c.cycleClock.recordFetch(c.fetchStartedAt, c.apiFirstByteAt, displayedAt);
+                    // Saved with the next target by scheduleNextCycle().
+                    c.scheduleRecord.setDisplayed(displayedAt, c.freshnessKey(), ar.imageUrl);
+                    c.fetchBackoff.onSuccess();
+                    c.scheduleNextCycle();
+                    int pct = getBatteryPercent(c.context);
+                    if (pct >= 0) c.logD("Percent-Charged: " + pct);
+                    int rssi = getWifiRssi(c.context);
+                    if (rssi != -999) c.logD("rssi: " + rssi);
+                    return;
+                }
+
+                // Got API response but no image - show error and schedule retry
+                // Decoded only here; a displayed image's body is in the file log (BouncyCastleHttpClient).
+                String text = ar.apiResponse != null ? ar.apiResponse.bodyText() : "Error: null result";
+                c.logD("response body:\n" + text);
+                c.logD("no image in response, will retry");
+                // The API answered; only back off if the image server failed (it may have sent Retry-After).
+                PowerProfile profile = c.readPowerProfile();
+                long delay;
+                if (ar.imageFailure != null) {
+                    delay = c.fetchBackoff.onFailure(ar.imageFailure, profile.cycleMs(c.refreshMs), System.currentTimeMillis());
+                    c.logD(c.fetchBackoff.lastDecision());
+                } else {
+                    c.fetchBackoff.onSuccess();
+                    delay = c.nextCycleDelayMs(profile);
+                }
+                if (display != null) display.onNoImage(fromMenu);
+                if (!fromMenu) {
+                    // Background fetch - keep current display, just schedule retry
+                    c.logD("next display in " + (delay / 1000L) + "s");
+                }
+                // Schedule next refresh (keep trying)
+                c.scheduleNextCycle(delay, profile);
+                return;
+            }
+
+            String text = result instanceof HttpResponse
+                    ? "Error: " + ((HttpResponse) result).describe()
+                    : (result != null ? result.toString() : "Error: null result");
+            c.logW("ERROR: " + text);
+            if (display != null) display.onFetchError(text);
+            c.logD("fetch error: " + text);
+            // Schedule next refresh even on error (keep trying), backing off while failures continue
+            PowerProfile profile = c.readPowerProfile();
+            long delay = c.fetchBackoff.onFailure(result instanceof HttpResponse ? (HttpResponse) result : null,
+                    profile.cycleMs(c.refreshMs), System.currentTimeMillis());
+            c.logD(c.fetchBackoff.lastDecision());
+            c.scheduleNextCycle(delay, profile);
+            int pct = getBatteryPercent(c.context);
+            if (pct >= 0) c.logD("Percent-Charged: " + pct);
+            int rssi = getWifiRssi(c.context);
+            if (rssi != -999) c.logD("rssi: " + rssi);
+        }
+    }
+
+    private static class ApiResult {
+        /** The /display response; its body is decoded to text only when logged. */
+        final HttpResponse apiResponse;
+        final boolean showImage;
+        final Bitmap bitmap;
+        final String imageUrl;
+        final HttpResponse imageFailure;
+        /** Already put on screen by onProgressUpdate, ahead of the prefetch. */
+        boolean shown = false;
+
+        ApiResult(HttpResponse apiResponse, HttpResponse imageFailure) {
+            this.apiResponse = apiResponse;
+            this.showImage = false;
+            this.bitmap = null;
+            this.imageUrl = null;
+            this.imageFailure = imageFailure;
+        }
+
+        ApiResult(HttpResponse apiResponse, String imageUrl, Bitmap bitmap) {
+            this.apiResponse = apiResponse;
+            this.showImage = true;
+            this.bitmap = bitmap;
+            this.imageUrl = imageUrl;
+            this.imageFailure = null;
+        }
+    }
+
+    private static Hashtable buildApiHeaders(String apiId, String apiToken, int batteryPercent, int rssi) {
+        Hashtable headers = new Hashtable();
+        headers.put("User-Agent", "TRMNL-Nook/1.0 (Android 2.1)");
+        headers.put("Accept", "application/json");
+        if (apiId != null) {
+            headers.put("ID", apiId);
+        }
+        if (apiToken != null) {
+            headers.put("access-token", apiToken);
+        }
+        if (batteryPercent >= 0) {
+            headers.put("Percent-Charged", String.valueOf(batteryPercent));
+        }
+        if (rssi != -999) {
+            headers.put("rssi", String.valueOf(rssi));
+        }
+        return headers;
+    }
+}
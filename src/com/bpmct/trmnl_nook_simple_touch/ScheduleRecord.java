@@ -0,0 +1,150 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+/**
+ * The refresh schedule as last set, kept in a small file so it survives a reboot, a battery swap
+ * or the process being killed: the server's refresh_rate, the next cycle's target, when the last
+ * image was displayed (and with which server and device), and the file holding that image.
+ *
+ * RefreshCycle saves it each time it sets the next target and restores it when the process
+ * starts, so a cycle resumed after boot keeps its cadence instead of falling back to the default
+ * interval until a fetch relearns refresh_rate, and DisplayActivity can show the cached image
+ * before anything has been fetched.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class ScheduleRecord {
+    private static final String FILE_VERSION = "v1";
+
+    private final File file;
+    private long refreshMs = 0;
+    private long dueAt = 0;
+    private long displayedAt = 0;
+    private String displayKey = null;
+    private String imagePath = null;
+    private String imageUrl = null;
+
+    ScheduleRecord(File file) {
+        this.file = file;
+    }
+
+    /** Server refresh_rate in ms, or 0 if never learned. */
+    synchronized long refreshMs() {
+        return refreshMs;
+    }
+
+    /** Target of the next cycle (wall clock), or 0 if none was set. */
+    synchronized long dueAt() {
+        return dueAt;
+    }
+
+    /** When the last image was displayed, or 0 if never. */
+    synchronized long displayedAt() {
+        return displayedAt;
+    }
+
+    /** Server and device the last image was fetched with (see FetchCoordinator). */
+    synchronized String displayKey() {
+        return displayKey;
+    }
+
+    /** File holding the last frame written (the NOOK screensaver), or null. */
+    synchronized String imagePath() {
+        return imagePath;
+    }
+
+    /** URL of the last displayed API image, or null. */
+    synchronized String imageUrl() {
+        return imageUrl;
+    }
+
+    synchronized void setSchedule(long refreshMs, long dueAt) {
+        this.refreshMs = refreshMs;
+        this.dueAt = dueAt;
+    }
+
+    synchronized void setDisplayed(long displayedAt, String displayKey, String imageUrl) {
+        this.displayedAt = displayedAt;
+        this.displayKey = displayKey;
+        this.imageUrl = imageUrl;
+    }
+
+    synchronized void setImagePath(String imagePath) {
+        this.imagePath = imagePath;
+    }
+
+    /** Reads the file; false (and nothing changed) if there is none or it can't be parsed. */
+    synchronized boolean load() {
+        if (file == null || !file.exists()) return false;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            if (!FILE_VERSION.equals(reader.readLine())) return false;
+            long rate = 0, due = 0, shown = 0;
+            String key = null, path = null, url = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) continue;
+                String name = line.substring(0, eq);
+                String value = line.substring(eq + 1);
+                if ("refresh_ms".equals(name)) rate = Long.parseLong(value);
+                else if ("due_at".equals(name)) due = Long.parseLong(value);
+                else if ("displayed_at".equals(name)) shown = Long.parseLong(value);
+                else if ("display_key".equals(name)) key = value;
+                else if ("image_path".equals(name)) path = value;
+                else if ("image_url".equals(name)) url = value;
+            }
+            refreshMs = rate;
+            dueAt = due;
+            displayedAt = shown;
+            displayKey = key;
+            imagePath = path;
+            imageUrl = url;
+            return true;
+        } catch (Throwable t) {
+            return false;
+        } finally {
+            if (reader != null) {
+                try { reader.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    synchronized void save() {
+        if (file == null) return;
+        try {
+            File tmp = new File(file.getPath() + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+            pw.println(FILE_VERSION);
+            pw.println("refresh_ms=" + refreshMs);
+            pw.println("due_at=" + dueAt);
+            pw.println("displayed_at=" + displayedAt);
+            if (displayKey != null) pw.println("display_key=" + displayKey);
+            if (imagePath != null) pw.println("image_path=" + imagePath);
+            if (imageUrl != null) pw.println("image_url=" + imageUrl);
+            pw.close();
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (Throwable t) {
+            // Without it a reboot falls back to the default interval until the next fetch.
+        }
+    }
+
+    /** Summary for the log, e.g. "refresh 900s, next due in 412s, image 3m old". */
+    synchronized String describe(long now) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("refresh ").append(refreshMs > 0 ? (refreshMs / 1000L) + "s" : "unknown");
+        if (dueAt > 0) sb.append(", next due in ").append((dueAt - now) / 1000L).append("s");
+        if (displayedAt > 0) sb.append(", image ").append((now - displayedAt) / 60000L).append("m old");
+        if (imagePath != null) sb.append(", cached at ").append(imagePath);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,213 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Vector;
+
+/**
+ * Screens fetched ahead of time (prefetch_depth), played in order with no WiFi or request.
+ *
+ * Each /display call advances the device's playlist, so one wake can fetch the next few screens
+ * back to back. Each screen is kept on disk as a FrameSnapshot (240 KB for 800x600) with the
+ * refresh_rate the server gave it. Only one frame is ever in memory, while it is being queued or
+ * shown, so depth is bounded by disk: at most MAX_ENTRIES entries and MAX_BYTES in total. The
+ * index is rewritten on every change, so the queue survives a restart.
+ *
+ * Entries belong to the server and device they were fetched with (the FetchCoordinator key). A
+ * poll with another key, or reaching an entry older than the caller's limit, empties the queue.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class ScreenQueue {
+    private static final String FILE_VERSION = "v1";
+    static final int MAX_ENTRIES = 8;
+    static final long MAX_BYTES = 4L * 1024L * 1024L;
+    /** prefetch_depth values offered in Settings. */
+    static final int[] DEPTH_CHOICES = { 0, 2, 4, 8 };
+
+    /** A queued screen; frame is read from disk when polled. */
+    static final class Entry {
+        final long refreshMs;
+        final long fetchedAt;
+        final String imageUrl;
+        final FrameSnapshot frame;
+
+        Entry(long refreshMs, long fetchedAt, String imageUrl, FrameSnapshot frame) {
+            this.refreshMs = refreshMs;
+            this.fetchedAt = fetchedAt;
+            this.imageUrl = imageUrl;
+            this.frame = frame;
+        }
+    }
+
+    private final File dir;
+    private final File index;
+    /** Per entry: String[] { seq, refreshMs, fetchedAt, bytes, imageUrl or "-" }. */
+    private final Vector entries = new Vector();
+    private String key = null;
+    private long nextSeq = 1;
+    private boolean loaded = false;
+
+    ScreenQueue(File dir) {
+        this.dir = dir;
+        this.index = new File(dir, "index");
+    }
+
+    synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    /** True if the head entry would be played for key (it may still be dropped as too old). */
+    synchronized boolean hasNext(String key) {
+        load();
+        return entries.size() > 0 && key != null && key.equals(this.key);
+    }
+
+    /** Sum of the queued entries' refresh times: how long the queue plays for. */
+    synchronized long playMs() {
+        load();
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            total += Long.parseLong(((String[]) entries.elementAt(i))[1]);
+        }
+        return total;
+    }
+
+    /**
+     * Appends a screen. False (nothing queued) if the queue is full or the frame can't be written.
+     * A different key than the queued entries' empties the queue first.
+     */
+    synchronized boolean offer(FrameSnapshot frame, long refreshMs, long fetchedAt, String key, String imageUrl) {
+        load();
+        if (key == null || !key.equals(this.key)) {
+            clearLocked();
+            this.key = key;
+        }
+        if (entries.size() >= MAX_ENTRIES || totalBytes() + frame.fileBytes() > MAX_BYTES) return false;
+        dir.mkdirs();
+        long seq = nextSeq++;
+        if (!frame.write(frameFile(seq))) return false;
+        String url = imageUrl != null && imageUrl.indexOf(' ') < 0 && imageUrl.length() > 0 ? imageUrl : "-";
+        entries.addElement(new String[] {
+                String.valueOf(seq), String.valueOf(refreshMs), String.valueOf(fetchedAt),
+                String.valueOf(frame.fileBytes()), url });
+        save();
+        return true;
+    }
+
+    /**
+     * Removes and returns the head entry, or null if the queue is empty, was fetched with another
+     * key, or the head is older than maxAgeMs (the queue is emptied in the last two cases).
+     */
+    synchronized Entry poll(String key, long now, long maxAgeMs) {
+        load();
+        if (entries.size() == 0) return null;
+        if (key == null || !key.equals(this.key)) {
+            clearLocked();
+            save();
+            return null;
+        }
+        String[] e = (String[]) entries.elementAt(0);
+        long fetchedAt = Long.parseLong(e[2]);
+        if (now - fetchedAt > maxAgeMs || fetchedAt > now + 60000L) {
+            clearLocked();
+            save();
+            return null;
+        }
+        entries.removeElementAt(0);
+        File file = frameFile(Long.parseLong(e[0]));
+        FrameSnapshot frame = FrameSnapshot.read(file);
+        file.delete();
+        save();
+        if (frame == null) return null;
+        return new Entry(Long.parseLong(e[1]), fetchedAt, "-".equals(e[4]) ? null : e[4], frame);
+    }
+
+    synchronized void clear() {
+        load();
+        if (entries.size() == 0) return;
+        clearLocked();
+        save();
+    }
+
+    /** Summary for the log, e.g. "3 screens, 15m of play, 720 KB". */
+    synchronized String describe() {
+        load();
+        return entries.size() + " screens, " + (playMs() / 60000L) + "m of play, " + (totalBytes() / 1024L) + " KB";
+    }
+
+    private void clearLocked() {
+        for (int i = 0; i < entries.size(); i++) {
+            frameFile(Long.parseLong(((String[]) entries.elementAt(i))[0])).delete();
+        }
+        entries.removeAllElements();
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            total += Long.parseLong(((String[]) entries.elementAt(i))[3]);
+        }
+        return total;
+    }
+
+    private File frameFile(long seq) {
+        return new File(dir, "screen-" + seq + ".gray4");
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!index.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(index));
+            if (!FILE_VERSION.equals(reader.readLine())) return;
+            String k = reader.readLine();
+            key = k != null && k.length() > 0 ? k : null;
+            String line;
+            while ((line = reader.readLine()) != null && entries.size() < MAX_ENTRIES) {
+                String[] parts = line.split(" ");
+                if (parts.length != 5) continue;
+                long seq = Long.parseLong(parts[0]);
+                Long.parseLong(parts[1]);
+                Long.parseLong(parts[2]);
+                Long.parseLong(parts[3]);
+                if (!frameFile(seq).exists()) continue;
+                entries.addElement(parts);
+                if (seq >= nextSeq) nextSeq = seq + 1;
+            }
+        } catch (Throwable t) {
+            entries.removeAllElements();
+        } finally {
+            if (reader != null) {
+                try { reader.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            dir.mkdirs();
+            File tmp = new File(index.getPath() + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+            pw.println(FILE_VERSION);
+            pw.println(key != null ? key : "");
+            for (int i = 0; i < entries.size(); i++) {
+                String[] e = (String[]) entries.elementAt(i);
+                pw.println(e[0] + " " + e[1] + " " + e[2] + " " + e[3] + " " + e[4]);
+            }
+            pw.close();
+            if (!tmp.renameTo(index)) {
+                index.delete();
+                tmp.renameTo(index);
+            }
+        } catch (Throwable t) {
+            // The frames are still there; a lost index only means the queue starts empty.
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+/**
+ * Smoothed offset between the device clock and servers' Date headers.
+ *
+ * The NOOK's RTC drifts by seconds a week and nothing corrects it while it only talks to the
+ * TRMNL API, so aligned targets and quiet-hours boundaries slowly slide. Each response's Date
+ * (1s resolution, stamped somewhere between the request leaving and the first byte arriving) is
+ * compared with the midpoint of that exchange on the local clock, and the differences are averaged.
+ * A sample that disagrees with the estimate by more than STEP_MS is only believed once a second
+ * one agrees with it (the clock was set, or the device moved zones). Responses served from a
+ * cache (an Age header) carry a stale Date and are skipped by the caller.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class ServerClock {
+    /** Weight of the newest sample; Date only has 1s resolution, so average a few. */
+    private static final float EWMA_WEIGHT = 0.25f;
+    /** Exchanges slower than this say too little about when the Date was stamped. */
+    static final long MAX_ROUND_TRIP_MS = 10 * 1000;
+    static final long STEP_MS = 60 * 1000;
+
+    private boolean known = false;
+    private long offsetMs = 0;
+    private int samples = 0;
+    private long pendingStepMs = 0;
+    private boolean stepPending = false;
+
+    /**
+     * @param serverDate parsed Date header (ms, second resolution)
+     * @param sentAt local time the request was written
+     * @param firstByteAt local time the status line arrived
+     * @return true if the sample was used
+     */
+    synchronized boolean record(long serverDate, long sentAt, long firstByteAt) {
+        if (serverDate <= 0 || sentAt <= 0 || firstByteAt < sentAt) return false;
+        if (firstByteAt - sentAt > MAX_ROUND_TRIP_MS) return false;
+        // The header truncates to the second, so on average the server was half a second later.
+        long sample = serverDate + 500 - (sentAt + (firstByteAt - sentAt) / 2);
+        if (!known) {
+            offsetMs = sample;
+            known = true;
+        } else if (Math.abs(sample - offsetMs) > STEP_MS) {
+            if (stepPending && Math.abs(sample - pendingStepMs) <= STEP_MS) {
+                offsetMs = sample;
+                stepPending = false;
+            } else {
+                pendingStepMs = sample;
+                stepPending = true;
+                return false;
+            }
+        } else {
+            offsetMs = (long) (offsetMs + EWMA_WEIGHT * (sample - offsetMs));
+            stepPending = false;
+        }
+        samples++;
+        return true;
+    }
+
+    /** Server time minus device time, in ms (0 until a Date has been seen). */
+    synchronized long offsetMs() {
+        return known ? offsetMs : 0;
+    }
+
+    /** Device time corrected to the servers' clock. */
+    long now() {
+        return System.currentTimeMillis() + offsetMs();
+    }
+
+    /** Summary for logs and Settings, e.g. "device clock 4.2s behind (7 samples)". */
+    synchronized String describe() {
+        if (!known) return "not measured yet";
+        long abs = Math.abs(offsetMs);
+        String dir = offsetMs >= 0 ? "behind" : "ahead";
+        return "device clock " + WakeAheadStats.seconds(abs) + " " + dir + " (" + samples
+                + (samples == 1 ? " sample)" : " samples)");
+    }
+}
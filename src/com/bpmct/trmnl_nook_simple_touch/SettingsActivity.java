@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.CompoundButton;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.TextView;
@@ -18,14 +19,27 @@ import android.widget.ScrollView;
 public class SettingsActivity extends Activity {
     private static final int APP_ROTATION_DEGREES = 90;
     private TextView statusView;
+    private TextView clockView;
     private CheckBox allowSleepCheck;
     private CheckBox fileLoggingCheck;
     private CheckBox giftModeCheck;
     private Button giftSettingsButton;
     private TextView sleepHint;
+    private CheckBox screenOffFetchCheck;
+    private TextView screenOffFetchHint;
+    private CheckBox wakeSpreadCheck;
+    private Button prefetchButton;
+    private int prefetchDepth;
+    private Button alignButton;
+    private String refreshAlign;
+    private Button quietHoursButton;
+    private int quietPreset;
+    private EditText quietImageField;
+    private TextView quietImageHint;
     private CheckBox allowHttpCheck;
     private CheckBox allowSelfSignedCheck;
     private CheckBox autoDisableWifiCheck;
+    private CheckBox preferChaChaCheck;
     private FrameLayout rootLayout;
     private FrameLayout outerRoot;
     private View flashOverlay;
@@ -95,13 +109,142 @@ public class SettingsActivity extends Activity {
         sleepHint.setVisibility(allowSleepCheck.isChecked() ? View.VISIBLE : View.GONE);
         main.addView(sleepHint);
 
+        screenOffFetchCheck = new CheckBox(this);
+        screenOffFetchCheck.setText("Fetch with screen off");
+        screenOffFetchCheck.setTextColor(0xFF000000);
+        screenOffFetchCheck.setChecked(ApiPrefs.isScreenOffFetch(this));
+        LinearLayout.LayoutParams screenOffParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        screenOffParams.topMargin = 8;
+        main.addView(screenOffFetchCheck, screenOffParams);
+
+        screenOffFetchHint = new TextView(this);
+        screenOffFetchHint.setText("Screen turns on only to show the new image");
+        screenOffFetchHint.setTextSize(11);
+        screenOffFetchHint.setTextColor(0xFF888888);
+        screenOffFetchHint.setPadding(40, 0, 0, 0);
+        main.addView(screenOffFetchHint);
+        updateScreenOffFetchVisibility();
+
         allowSleepCheck.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 sleepHint.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+                updateScreenOffFetchVisibility();
                 flashRefresh();
             }
         });
 
+        wakeSpreadCheck = new CheckBox(this);
+        wakeSpreadCheck.setText("Spread fetches");
+        wakeSpreadCheck.setTextColor(0xFF000000);
+        wakeSpreadCheck.setChecked(ApiPrefs.isWakeSpread(this));
+        LinearLayout.LayoutParams spreadParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        spreadParams.topMargin = 8;
+        main.addView(wakeSpreadCheck, spreadParams);
+
+        TextView spreadHint = new TextView(this);
+        spreadHint.setText("Fetch at a fixed per-device slot so many devices don't hit one server at once");
+        spreadHint.setTextSize(11);
+        spreadHint.setTextColor(0xFF888888);
+        spreadHint.setPadding(40, 0, 0, 0);
+        main.addView(spreadHint);
+
+        prefetchDepth = ApiPrefs.getPrefetchDepth(this);
+        prefetchButton = createGreyButton("");
+        updatePrefetchLabel();
+        prefetchButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                int[] choices = ScreenQueue.DEPTH_CHOICES;
+                int next = 0;
+                for (int i = 0; i < choices.length; i++) {
+                    if (choices[i] == prefetchDepth) {
+                        next = (i + 1) % choices.length;
+                        break;
+                    }
+                }
+                prefetchDepth = choices[next];
+                updatePrefetchLabel();
+                flashRefresh();
+            }
+        });
+        LinearLayout.LayoutParams prefetchParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        prefetchParams.topMargin = 8;
+        main.addView(prefetchButton, prefetchParams);
+
+        TextView prefetchHint = new TextView(this);
+        prefetchHint.setText("Download upcoming playlist screens in one wake and show them without WiFi");
+        prefetchHint.setTextSize(11);
+        prefetchHint.setTextColor(0xFF888888);
+        prefetchHint.setPadding(40, 0, 0, 0);
+        main.addView(prefetchHint);
+
+        refreshAlign = ApiPrefs.getRefreshAlign(this);
+        alignButton = createGreyButton("");
+        updateAlignLabel();
+        alignButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                String[] choices = CycleClock.ALIGN_CHOICES;
+                int next = 0;
+                for (int i = 0; i < choices.length; i++) {
+                    if (choices[i].equals(refreshAlign)) {
+                        next = (i + 1) % choices.length;
+                        break;
+                    }
+                }
+                refreshAlign = choices[next];
+                updateAlignLabel();
+                flashRefresh();
+            }
+        });
+        LinearLayout.LayoutParams alignParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        alignParams.topMargin = 8;
+        main.addView(alignButton, alignParams);
+
+        TextView alignHint = new TextView(this);
+        alignHint.setText("Land updates on whole minutes or on the refresh interval (e.g. :00, :15, :30, :45)");
+        alignHint.setTextSize(11);
+        alignHint.setTextColor(0xFF888888);
+        alignHint.setPadding(40, 0, 0, 0);
+        main.addView(alignHint);
+
+        quietPreset = quietPresetIndex(ApiPrefs.getQuietHours(this));
+        quietHoursButton = createGreyButton("");
+        quietHoursButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                quietPreset = (quietPreset + 1) % QuietHours.PRESETS.length;
+                updateQuietHoursViews();
+                flashRefresh();
+            }
+        });
+        LinearLayout.LayoutParams quietParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        quietParams.topMargin = 8;
+        main.addView(quietHoursButton, quietParams);
+
+        quietImageField = new EditText(this);
+        quietImageField.setTextColor(0xFF000000);
+        quietImageField.setBackgroundColor(0xFFEEEEEE);
+        quietImageField.setPadding(12, 8, 12, 8);
+        quietImageField.setSingleLine(true);
+        String idleImage = ApiPrefs.getQuietIdleImagePath(this);
+        if (idleImage != null) quietImageField.setText(idleImage);
+        LinearLayout.LayoutParams quietFieldParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.FILL_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        quietFieldParams.topMargin = 4;
+        main.addView(quietImageField, quietFieldParams);
+
+        quietImageHint = new TextView(this);
+        quietImageHint.setText("No fetches overnight; the next image is fetched as the window ends. "
+                + "Optional image path to show meanwhile (blank = keep last image)");
+        quietImageHint.setTextSize(11);
+        quietImageHint.setTextColor(0xFF888888);
+        quietImageHint.setPadding(40, 0, 0, 0);
+        main.addView(quietImageHint);
+        updateQuietHoursViews();
+
         // Gift Mode
         main.addView(createSectionLabel("Gift Mode"));
         giftModeCheck = new CheckBox(this);
@@ -177,6 +320,22 @@ public class SettingsActivity extends Activity {
         wifiHint.setPadding(40, 0, 0, 0);
         main.addView(wifiHint);
 
+        preferChaChaCheck = new CheckBox(this);
+        preferChaChaCheck.setText("Prefer ChaCha20 encryption");
+        preferChaChaCheck.setTextColor(0xFF000000);
+        preferChaChaCheck.setChecked(ApiPrefs.isPreferChaCha(this));
+        LinearLayout.LayoutParams chachaParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        chachaParams.topMargin = 8;
+        main.addView(preferChaChaCheck, chachaParams);
+
+        TextView chachaHint = new TextView(this);
+        chachaHint.setText("Faster downloads on the NOOK; turn off if a server misbehaves");
+        chachaHint.setTextSize(11);
+        chachaHint.setTextColor(0xFF888888);
+        chachaHint.setPadding(40, 0, 0, 0);
+        main.addView(chachaHint);
+
         // Debug Logs
         main.addView(createSectionLabel("Debug Logs"));
         fileLoggingCheck = new CheckBox(this);
@@ -192,6 +351,13 @@ public class SettingsActivity extends Activity {
         logHint.setPadding(40, 0, 0, 0);
         main.addView(logHint);
 
+        clockView = new TextView(this);
+        clockView.setTextSize(11);
+        clockView.setTextColor(0xFF888888);
+        clockView.setPadding(40, 4, 0, 0);
+        updateClockView();
+        main.addView(clockView);
+
         Button clearLogsButton = createGreyButton("Clear Logs");
         clearLogsButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
@@ -257,6 +423,45 @@ public class SettingsActivity extends Activity {
         return btn;
     }
 
+    /** Device clock offset from the servers' Date headers (see ServerClock). */
+    private void updateClockView() {
+        if (clockView == null) return;
+        clockView.setText("Clock vs server: " + BouncyCastleHttpClient.serverClock().describe());
+    }
+
+    private void updateAlignLabel() {
+        if (alignButton == null) return;
+        String label = CycleClock.ALIGN_MINUTE.equals(refreshAlign) ? "Minute"
+                : CycleClock.ALIGN_INTERVAL.equals(refreshAlign) ? "Interval" : "Off";
+        alignButton.setText("Align updates: " + label);
+    }
+
+    private void updatePrefetchLabel() {
+        if (prefetchButton != null) {
+            prefetchButton.setText("Prefetch screens: " + (prefetchDepth > 0 ? String.valueOf(prefetchDepth) : "Off"));
+        }
+    }
+
+    /** Index of the matching entry in QuietHours.PRESETS, or 0 (Off). */
+    private static int quietPresetIndex(QuietHours quiet) {
+        for (int i = 1; i < QuietHours.PRESETS.length; i++) {
+            if (QuietHours.PRESETS[i][0] == quiet.startMinute && QuietHours.PRESETS[i][1] == quiet.endMinute) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private void updateQuietHoursViews() {
+        int[] preset = QuietHours.PRESETS[quietPreset];
+        if (quietHoursButton != null) {
+            quietHoursButton.setText("Quiet hours: " + new QuietHours(preset[0], preset[1]).label());
+        }
+        int visibility = quietPreset != 0 ? View.VISIBLE : View.GONE;
+        if (quietImageField != null) quietImageField.setVisibility(visibility);
+        if (quietImageHint != null) quietImageHint.setVisibility(visibility);
+    }
+
     private void updateGiftSettingsVisibility() {
         if (giftSettingsButton != null && giftModeCheck != null) {
             giftSettingsButton.setVisibility(giftModeCheck.isChecked() ? View.VISIBLE : View.GONE);
@@ -297,12 +502,23 @@ public class SettingsActivity extends Activity {
         if (fileLoggingCheck != null) fileLoggingCheck.setChecked(ApiPrefs.isFileLoggingEnabled(this));
         if (giftModeCheck != null) giftModeCheck.setChecked(ApiPrefs.isGiftModeEnabled(this));
         if (sleepHint != null) sleepHint.setVisibility(allowSleepCheck.isChecked() ? View.VISIBLE : View.GONE);
+        if (screenOffFetchCheck != null) screenOffFetchCheck.setChecked(ApiPrefs.isScreenOffFetch(this));
+        updateScreenOffFetchVisibility();
         if (giftSettingsButton != null && giftModeCheck != null) {
             giftSettingsButton.setVisibility(giftModeCheck.isChecked() ? View.VISIBLE : View.GONE);
         }
         if (allowHttpCheck != null) allowHttpCheck.setChecked(ApiPrefs.isAllowHttp(this));
         if (allowSelfSignedCheck != null) allowSelfSignedCheck.setChecked(ApiPrefs.isAllowSelfSignedCerts(this));
         if (autoDisableWifiCheck != null) autoDisableWifiCheck.setChecked(ApiPrefs.isAutoDisableWifi(this));
+        if (preferChaChaCheck != null) preferChaChaCheck.setChecked(ApiPrefs.isPreferChaCha(this));
+        if (wakeSpreadCheck != null) wakeSpreadCheck.setChecked(ApiPrefs.isWakeSpread(this));
+        prefetchDepth = ApiPrefs.getPrefetchDepth(this);
+        updatePrefetchLabel();
+        refreshAlign = ApiPrefs.getRefreshAlign(this);
+        updateAlignLabel();
+        updateClockView();
+        quietPreset = quietPresetIndex(ApiPrefs.getQuietHours(this));
+        updateQuietHoursViews();
     }
 
     protected void onPause() {
@@ -310,6 +526,14 @@ public class SettingsActivity extends Activity {
         super.onPause();
     }
 
+    /** Screen-off fetch only applies to alarm wakes, so it is only offered with sleep on. */
+    private void updateScreenOffFetchVisibility() {
+        if (screenOffFetchCheck == null || allowSleepCheck == null) return;
+        int visibility = allowSleepCheck.isChecked() ? View.VISIBLE : View.GONE;
+        screenOffFetchCheck.setVisibility(visibility);
+        if (screenOffFetchHint != null) screenOffFetchHint.setVisibility(visibility);
+    }
+
     private void saveDisplayPrefs() {
         if (allowSleepCheck != null) ApiPrefs.setAllowSleep(this, allowSleepCheck.isChecked());
         if (fileLoggingCheck != null) {
@@ -321,5 +545,15 @@ public class SettingsActivity extends Activity {
         if (allowHttpCheck != null) ApiPrefs.setAllowHttp(this, allowHttpCheck.isChecked());
         if (allowSelfSignedCheck != null) ApiPrefs.setAllowSelfSignedCerts(this, allowSelfSignedCheck.isChecked());
         if (autoDisableWifiCheck != null) ApiPrefs.setAutoDisableWifi(this, autoDisableWifiCheck.isChecked());
+        if (screenOffFetchCheck != null) ApiPrefs.setScreenOffFetch(this, screenOffFetchCheck.isChecked());
+        if (preferChaChaCheck != null) ApiPrefs.setPreferChaCha(this, preferChaChaCheck.isChecked());
+        if (wakeSpreadCheck != null) ApiPrefs.setWakeSpread(this, wakeSpreadCheck.isChecked());
+        if (prefetchButton != null) ApiPrefs.setPrefetchDepth(this, prefetchDepth);
+        if (alignButton != null) ApiPrefs.setRefreshAlign(this, refreshAlign);
+        if (quietHoursButton != null) {
+            int[] preset = QuietHours.PRESETS[quietPreset];
+            ApiPrefs.setQuietHours(this, preset[0], preset[1]);
+        }
+        if (quietImageField != null) ApiPrefs.setQuietIdleImagePath(this, quietImageField.getText().toString());
     }
 }
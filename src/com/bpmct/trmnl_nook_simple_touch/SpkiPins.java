@@ -0,0 +1,157 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Vector;
+
+/**
+ * SHA-256 pins of a server's SubjectPublicKeyInfo, for self-hosted (BYOS) servers.
+ *
+ * Pins are written the same way as HPKP / OkHttp pins ("sha256/" + base64), which is what
+ * {@code openssl x509 -pubkey -noout | openssl pkey -pubin -outform der | openssl dgst -sha256 -binary | base64}
+ * prints. Bare base64 and 64-character hex are accepted too. Pinning either the server key or its
+ * private CA works: pinnedIndex() finds the first certificate with a pinned key. A pinned leaf
+ * stands on its own. A pinned CA (or intermediate) replaces the trust store, so the caller must
+ * run verifyBelowPin(), which checks what PKIX would below it: signatures, CA flags, validity
+ * and the hostname. The pinned CA's certificate is public, and it may have issued certificates
+ * for other hosts, so without those checks any of them would pass.
+ *
+ * No Android dependencies (android.util.Base64 is API 8) so it can be exercised from tools/bench.
+ */
+final class SpkiPins {
+    private static final int HASH_SIZE = 32;
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private SpkiPins() {
+    }
+
+    /**
+     * Parses pins separated by whitespace, commas or semicolons.
+     *
+     * @return the pin hashes, or null if the text holds no pins
+     * @throws IllegalArgumentException naming the first entry that is not a SHA-256 pin
+     */
+    static byte[][] parse(String text) {
+        if (text == null) return null;
+        Vector pins = new Vector();
+        String[] parts = text.split("[\\s,;]+");
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.length() == 0) continue;
+            String value = part;
+            if (value.toLowerCase().startsWith("sha256/")) {
+                value = value.substring(7);
+            }
+            byte[] hash = value.length() == 64 ? decodeHex(value) : decodeBase64(value);
+            if (hash == null || hash.length != HASH_SIZE) {
+                throw new IllegalArgumentException("Not a SHA-256 pin: " + part);
+            }
+            pins.addElement(hash);
+        }
+        if (pins.isEmpty()) return null;
+        byte[][] out = new byte[pins.size()][];
+        pins.copyInto(out);
+        return out;
+    }
+
+    /**
+     * Index of the first certificate in the DER chain (leaf first) whose public key's SHA-256 is
+     * pinned, or -1. Only index 0 stands on its own; see the class comment.
+     */
+    static int pinnedIndex(byte[][] pins, byte[][] chain) throws CertificateException {
+        if (pins == null || chain == null) return -1;
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new CertificateException("SHA-256 unavailable: " + e);
+        }
+        for (int c = 0; c < chain.length; c++) {
+            byte[] hash = md.digest(spki(chain[c]));
+            for (int p = 0; p < pins.length; p++) {
+                if (MessageDigest.isEqual(hash, pins[p])) return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the certificates below a pinned CA at chain[pinned] (pinned > 0): each is signed by
+     * the next, the ones between the leaf and the pin (and the pin itself) are CAs allowing that
+     * path length, all are within their validity period at now, and the leaf names hostname.
+     *
+     * @throws CertificateException naming the first check that fails
+     */
+    static void verifyBelowPin(X509Certificate[] chain, int pinned, String hostname, Date now)
+            throws CertificateException {
+        if (chain == null || pinned <= 0 || chain.length <= pinned) {
+            throw new CertificateException("chain shorter than pinned position " + pinned);
+        }
+        for (int i = 0; i < pinned; i++) {
+            try {
+                chain[i].verify(chain[i + 1].getPublicKey());
+            } catch (CertificateException e) {
+                throw e;
+            } catch (GeneralSecurityException e) {
+                throw new CertificateException("certificate " + i + " not signed by the next: " + e);
+            }
+            // Certificates 1..i are CAs below chain[i + 1]; its pathLen must allow i of them.
+            if (chain[i + 1].getBasicConstraints() < i) {
+                throw new CertificateException("certificate " + (i + 1) + " is not a CA or path too long");
+            }
+        }
+        for (int i = 0; i <= pinned; i++) {
+            chain[i].checkValidity(now);
+        }
+        if (!CertHostnames.matches(hostname, chain[0])) {
+            throw new CertificateException("certificate does not name " + hostname);
+        }
+    }
+
+    /** Raw SubjectPublicKeyInfo DER of a certificate, exactly as the server sent it. */
+    private static byte[] spki(byte[] certDer) throws CertificateException {
+        try {
+            int[] cert = TrustAnchorIndex.readTlv(certDer, 0);
+            int[] tbs = TrustAnchorIndex.readTlv(certDer, cert[1]);
+            byte[] tbsDer = new byte[tbs[2] - cert[1]];
+            System.arraycopy(certDer, cert[1], tbsDer, 0, tbsDer.length);
+            return TrustAnchorIndex.tbsField(tbsDer, 5);
+        } catch (RuntimeException e) {
+            throw new CertificateException("malformed certificate: " + e);
+        }
+    }
+
+    private static byte[] decodeHex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(s.charAt(2 * i), 16);
+            int lo = Character.digit(s.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    private static byte[] decodeBase64(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == '=') end--;
+        byte[] out = new byte[end * 3 / 4];
+        int buffer = 0;
+        int bits = 0;
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            int v = BASE64.indexOf(s.charAt(i));
+            if (v < 0) return null;
+            buffer = (buffer << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[n++] = (byte) (buffer >> bits);
+            }
+        }
+        return n == out.length ? out : null;
+    }
+}
@@ -0,0 +1,61 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import org.spongycastle.tls.CipherSuite;
+
+/**
+ * Cipher suites offered by the TLS client, in preference order.
+ *
+ * The NOOK's Cortex-A8 has no AES instructions, so software ChaCha20-Poly1305 is noticeably
+ * faster than AES-GCM for bulk data (see tools/bench/run-bench.sh ciphers); it is offered first
+ * by default. ECDSA-authenticated suites are offered alongside RSA so servers with EC
+ * certificates (common for self-hosted setups) can use them. SpongyCastle 1.58 has no X25519,
+ * so key exchange stays on the NIST curves (secp256r1 first).
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class TlsCipherSuites {
+    static final String ORDER_CHACHA_FIRST = "chacha";
+    static final String ORDER_AES_FIRST = "aes";
+
+    private static final int[] CHACHA_FIRST = new int[] {
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256,
+            CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256,
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
+            CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384,
+            CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384
+    };
+
+    private static final int[] AES_FIRST = new int[] {
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
+            CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384,
+            CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384,
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256,
+            CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256
+    };
+
+    private TlsCipherSuites() {
+    }
+
+    /** Suites for a preference order name; unknown names get the default (ChaCha20 first). */
+    static int[] forOrder(String order) {
+        int[] suites = ORDER_AES_FIRST.equals(order) ? AES_FIRST : CHACHA_FIRST;
+        int[] copy = new int[suites.length];
+        System.arraycopy(suites, 0, copy, 0, suites.length);
+        return copy;
+    }
+
+    /** Short name for logs, e.g. "ECDHE_RSA_CHACHA20_POLY1305". */
+    static String name(int suite) {
+        switch (suite) {
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256: return "ECDHE_ECDSA_CHACHA20_POLY1305";
+            case CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256: return "ECDHE_RSA_CHACHA20_POLY1305";
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256: return "ECDHE_ECDSA_AES128_GCM";
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256: return "ECDHE_RSA_AES128_GCM";
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384: return "ECDHE_ECDSA_AES256_GCM";
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384: return "ECDHE_RSA_AES256_GCM";
+            default: return "0x" + Integer.toHexString(suite);
+        }
+    }
+}
@@ -3,8 +3,6 @@ package com.bpmct.trmnl_nook_simple_touch;
 import java.net.URLDecoder;
 import java.util.Hashtable;
 
-import org.json.JSONObject;
-
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -23,48 +21,79 @@ final class TrmnlApiResponseParser {
     }
 
     static final class Result {
-        final String rawText;
+        /** The /display response, body still as bytes. */
+        final HttpResponse apiResponse;
         final boolean showImage;
         final Bitmap bitmap;
         final String imageUrl;
         final int refreshRateSeconds;
+        /** Set when the JSON named an image but downloading it failed. */
+        final HttpResponse imageFailure;
+
+        Result(HttpResponse apiResponse) {
+            this(apiResponse, (HttpResponse) null);
+        }
 
-        Result(String rawText) {
-            this.rawText = rawText;
+        Result(HttpResponse apiResponse, HttpResponse imageFailure) {
+            this.apiResponse = apiResponse;
             this.showImage = false;
             this.bitmap = null;
             this.imageUrl = null;
             this.refreshRateSeconds = -1;
+            this.imageFailure = imageFailure;
         }
 
-        Result(String rawText, int refreshRateSeconds, String imageUrl, Bitmap bitmap) {
-            this.rawText = rawText;
+        Result(HttpResponse apiResponse, int refreshRateSeconds, String imageUrl, Bitmap bitmap) {
+            this.apiResponse = apiResponse;
             this.showImage = true;
             this.bitmap = bitmap;
             this.imageUrl = imageUrl;
             this.refreshRateSeconds = refreshRateSeconds;
+            this.imageFailure = null;
         }
     }
 
+    /** Image body buffer reused across fetches; taken while in use so concurrent fetches don't share it. */
+    private static HttpBodyStreams.Buffer imageBuffer;
+
     private TrmnlApiResponseParser() {}
 
-    static Result parseAndMaybeFetchImage(Context ctx, String jsonText, Logger log) {
+    private static synchronized HttpBodyStreams.Buffer takeImageBuffer() {
+        HttpBodyStreams.Buffer b = imageBuffer;
+        imageBuffer = null;
+        return b != null ? b : new HttpBodyStreams.Buffer(64 * 1024);
+    }
+
+    private static synchronized void returnImageBuffer(HttpBodyStreams.Buffer b) {
+        // Don't pin an unusually large image's buffer for the life of the process.
+        if (b.array().length <= 1024 * 1024) {
+            imageBuffer = b;
+        }
+    }
+
+    /**
+     * @param api a successful /display response; its body bytes go to the JSON reader as they are
+     * @param allowRetry false while the fetch circuit is open: one image attempt, no in-task retry
+     */
+    static Result parseAndMaybeFetchImage(Context ctx, ApiPrefs.Snapshot prefs, HttpResponse api,
+            boolean allowRetry, Logger log) {
         try {
-            JSONObject obj = new JSONObject(jsonText);
-            int status = obj.optInt("status", -1);
+            DisplayResponseJson obj = DisplayResponseJson.parse(api.body, 0, api.bodyLength);
+            int status = obj.status;
             // API returns 0 for display; BYOS may omit status entirely
             if (status != -1 && status != 0 && status != 200) {
-                return new Result(jsonText);
+                return new Result(api);
             }
             if (status != -1 && log != null) log.logD("api status: " + status);
 
-            int refreshRateSeconds = obj.optInt("refresh_rate", -1);
+            int refreshRateSeconds = obj.refreshRate;
 
-            String imageUrl = obj.optString("image_url", null);
+            String imageUrl = obj.imageUrl;
             if (imageUrl == null || imageUrl.length() == 0) {
-                return new Result(jsonText);
+                return new Result(api);
             }
             if (log != null) log.logD("api image_url: " + imageUrl);
+            if (obj.filename != null && log != null) log.logD("api filename: " + obj.filename);
 
             // Log a decoded URL for readability, but use the encoded URL for fetch.
             try {
@@ -77,26 +106,40 @@ final class TrmnlApiResponseParser {
             headers.put("User-Agent", "TRMNL-Nook/1.0 (Android 2.1)");
             headers.put("Accept", "image/*");
 
-            byte[] imageBytes = null;
-            for (int attempt = 1; attempt <= 2; attempt++) {
-                if (attempt > 1) {
-                    if (log != null) log.logW("Image fetch attempt " + (attempt - 1) + " failed - retrying in 5s");
-                    try { Thread.sleep(5000); } catch (InterruptedException ignored) {}
+            HttpBodyStreams.Buffer buffer = takeImageBuffer();
+            Bitmap bitmap;
+            try {
+                HttpResponse image = null;
+                for (int attempt = 1; attempt <= 2; attempt++) {
+                    if (attempt > 1) {
+                        if (!allowRetry || !image.isRetryableNow()) break;
+                        if (log != null) log.logW("Image fetch attempt " + (attempt - 1) + " failed ("
+                                + image.describe() + ") - retrying in 5s");
+                        try {
+                            Thread.sleep(5000);
+                        } catch (InterruptedException e) {
+                            break; // the fetch was preempted
+                        }
+                    }
+                    image = BouncyCastleHttpClient.get(ctx, prefs, imageUrl, headers, false, buffer);
+                    if (image.isOk() && image.bodyLength > 0) break;
                 }
-                imageBytes = BouncyCastleHttpClient.getHttpsBytes(ctx, imageUrl, headers);
-                if (imageBytes != null && imageBytes.length > 0) break;
-            }
 
-            if (imageBytes == null || imageBytes.length == 0) {
-                if (log != null) log.logW("image fetch failed after retries for url: " + imageUrl);
-                return new Result("Error: Failed to download image from " + imageUrl);
-            }
-            if (log != null) log.logD("image bytes: " + imageBytes.length);
+                if (!image.isOk() || image.bodyLength == 0) {
+                    if (log != null) log.logW("image fetch failed for url: " + imageUrl
+                            + " (" + image.describe() + ")");
+                    return new Result(api, image);
+                }
+                if (log != null) log.logD("image bytes: " + image.bodyLength);
 
-            Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+                // Decode in place from the reused buffer; no copy of the image bytes.
+                bitmap = BitmapFactory.decodeByteArray(image.body, 0, image.bodyLength);
+            } finally {
+                returnImageBuffer(buffer);
+            }
             if (bitmap == null) {
                 if (log != null) log.logW("image decode failed");
-                return new Result(jsonText);
+                return new Result(api);
             }
 
             // Normalize common BYOS landscape format to NOOK portrait.
@@ -110,10 +153,10 @@ final class TrmnlApiResponseParser {
                 bitmap = rotate90(bitmap);
             }
 
-            return new Result(jsonText, refreshRateSeconds, imageUrl, bitmap);
+            return new Result(api, refreshRateSeconds, imageUrl, bitmap);
         } catch (Throwable t) {
             if (log != null) log.logW("response parse failed: " + t);
-            return new Result(jsonText);
+            return new Result(api);
         }
     }
 
@@ -0,0 +1,324 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * CA trust anchors precompiled by tools/build-trust-index.py into res/raw/trust_index.bin.
+ *
+ * The file is a table sorted by SHA-1(subject DER) followed by the raw DER certificates.
+ * Validation looks up the issuer of each chain certificate in the table and only parses
+ * the few anchors that are actually candidates, instead of parsing the whole PEM bundle
+ * into a TrustManagerFactory. The index only finds the anchor: the path up to it is still
+ * judged by the platform PKIX validator (keyUsage, basicConstraints, name constraints,
+ * critical extensions, validity), plus the serverAuth check the TrustManager would make.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class TrustAnchorIndex {
+    private static final int HEADER_SIZE = 7;
+    private static final int ENTRY_SIZE = 24;
+    private static final int HASH_SIZE = 8;
+
+    private final byte[] data;
+    private final String id;
+    private final int count;
+    private final int blobBase;
+    /** Anchors parsed so far, by entry index. */
+    private final X509Certificate[] parsed;
+    private CertificateFactory certFactory;
+
+    private TrustAnchorIndex(byte[] data, int count) {
+        this.data = data;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        this.id = "index-" + count + "-" + Long.toHexString(crc.getValue());
+        this.count = count;
+        this.blobBase = HEADER_SIZE + count * ENTRY_SIZE;
+        this.parsed = new X509Certificate[count];
+    }
+
+    static TrustAnchorIndex load(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(160 * 1024);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        byte[] data = out.toByteArray();
+        if (data.length < HEADER_SIZE || data[0] != 'T' || data[1] != 'R' || data[2] != 'T' || data[3] != 'I') {
+            throw new IOException("not a trust index");
+        }
+        if (data[4] != 1) {
+            throw new IOException("unsupported trust index version " + data[4]);
+        }
+        int count = ((data[5] & 0xFF) << 8) | (data[6] & 0xFF);
+        if (data.length < HEADER_SIZE + count * ENTRY_SIZE) {
+            throw new IOException("truncated trust index");
+        }
+        return new TrustAnchorIndex(data, count);
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Identifies this exact set of anchors (changes whenever the bundle is rebuilt with different CAs). */
+    String id() {
+        return id;
+    }
+
+    /**
+     * Validates a server chain (leaf first): finds the indexed anchor the chain ends at (or is
+     * issued by), runs PKIX on the path below it, and requires the leaf to allow serverAuth.
+     *
+     * @throws CertificateException if the chain is not trusted
+     */
+    synchronized void validate(X509Certificate[] chain, Date now) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            throw new CertificateException("empty certificate chain");
+        }
+        X509Certificate anchor = null;
+        int pathLength = 0;
+        for (int i = 0; i < chain.length && anchor == null; i++) {
+            if (i > 0 && isAnchor(chain[i])) {
+                anchor = chain[i];
+                pathLength = i;
+            } else {
+                anchor = findIssuingAnchor(chain[i]);
+                pathLength = i + 1;
+            }
+        }
+        if (anchor == null) {
+            throw new CertificateException("no trust anchor for " + chain[chain.length - 1].getIssuerX500Principal());
+        }
+        List path = Arrays.asList(chain).subList(0, pathLength);
+        try {
+            CertPath certPath = certFactory().generateCertPath(path);
+            PKIXParameters params = new PKIXParameters(Collections.singleton(new TrustAnchor(anchor, null)));
+            params.setRevocationEnabled(false);
+            params.setDate(now);
+            CertPathValidator.getInstance("PKIX").validate(certPath, params);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("chain rejected: " + e.getMessage());
+        }
+        checkServerAuth(chain[0]);
+    }
+
+    /** The leaf's extendedKeyUsage, when present, must allow TLS server authentication. */
+    private static void checkServerAuth(X509Certificate leaf) throws CertificateException {
+        List usages = leaf.getExtendedKeyUsage();
+        if (usages == null || usages.contains("1.3.6.1.5.5.7.3.1") || usages.contains("2.5.29.37.0")) {
+            return;
+        }
+        throw new CertificateException("certificate is not for TLS servers: " + usages);
+    }
+
+    /** True if the certificate is byte-for-byte one of the indexed anchors. */
+    private boolean isAnchor(X509Certificate cert) throws CertificateException {
+        byte[] encoded = cert.getEncoded();
+        byte[] key = subjectHash(tbsField(cert.getTBSCertificate(), 4));
+        int first = firstEntry(key);
+        for (int i = first; i >= 0 && i < count && hashEquals(i, key); i++) {
+            int off = blobBase + readInt(entryOffset(i) + 16);
+            int len = readInt(entryOffset(i) + 20);
+            if (len == encoded.length && regionEquals(data, off, encoded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the anchor whose key verifies the certificate's signature, or null. */
+    private X509Certificate findIssuingAnchor(X509Certificate cert) throws CertificateException {
+        byte[] key = subjectHash(tbsField(cert.getTBSCertificate(), 2));
+        int first = firstEntry(key);
+        if (first < 0) {
+            return null;
+        }
+        byte[] akid = authorityKeyId(cert);
+        // Two passes: anchors whose key id matches the AKI first, then any other same-subject anchor.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = first; i < count && hashEquals(i, key); i++) {
+                boolean keyIdMatch = akid != null && keyIdEquals(i, akid);
+                if ((pass == 0) != keyIdMatch) {
+                    continue;
+                }
+                X509Certificate anchor = anchorAt(i);
+                if (!anchor.getSubjectX500Principal().equals(cert.getIssuerX500Principal())) {
+                    continue;
+                }
+                try {
+                    cert.verify(anchor.getPublicKey());
+                    return anchor;
+                } catch (GeneralSecurityException e) {
+                    // Same subject, different key (re-keyed or cross-signed root); try the next one.
+                }
+            }
+        }
+        return null;
+    }
+
+    private X509Certificate anchorAt(int i) throws CertificateException {
+        if (parsed[i] == null) {
+            int off = blobBase + readInt(entryOffset(i) + 16);
+            int len = readInt(entryOffset(i) + 20);
+            parsed[i] = (X509Certificate) certFactory().generateCertificate(
+                    new ByteArrayInputStream(data, off, len));
+        }
+        return parsed[i];
+    }
+
+    private CertificateFactory certFactory() throws CertificateException {
+        if (certFactory == null) {
+            certFactory = CertificateFactory.getInstance("X.509");
+        }
+        return certFactory;
+    }
+
+    /** Index of the first entry with the given subject hash, or -1. */
+    private int firstEntry(byte[] key) {
+        int lo = 0;
+        int hi = count - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareHash(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                if (cmp == 0) found = mid;
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private int entryOffset(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    private int compareHash(int i, byte[] key) {
+        int base = entryOffset(i);
+        for (int j = 0; j < HASH_SIZE; j++) {
+            int a = data[base + j] & 0xFF;
+            int b = key[j] & 0xFF;
+            if (a != b) return a < b ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private boolean hashEquals(int i, byte[] key) {
+        return compareHash(i, key) == 0;
+    }
+
+    private boolean keyIdEquals(int i, byte[] keyId) {
+        int base = entryOffset(i) + HASH_SIZE;
+        int n = Math.min(HASH_SIZE, keyId.length);
+        for (int j = 0; j < n; j++) {
+            if (data[base + j] != keyId[j]) return false;
+        }
+        return true;
+    }
+
+    private int readInt(int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static boolean regionEquals(byte[] data, int off, byte[] other) {
+        for (int i = 0; i < other.length; i++) {
+            if (data[off + i] != other[i]) return false;
+        }
+        return true;
+    }
+
+    private static byte[] subjectHash(byte[] nameDer) throws CertificateException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(nameDer);
+            byte[] key = new byte[HASH_SIZE];
+            System.arraycopy(digest, 0, key, 0, HASH_SIZE);
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("SHA-1 unavailable: " + e);
+        }
+    }
+
+    /**
+     * Raw DER of a TBSCertificate field, counted after the optional version:
+     * 0=serial, 1=signature, 2=issuer, 3=validity, 4=subject, 5=subjectPublicKeyInfo. Hashing the raw bytes keeps the
+     * lookup key identical to the one computed by the build script.
+     */
+    static byte[] tbsField(byte[] tbs, int field) throws CertificateException {
+        try {
+            int[] seq = readTlv(tbs, 0);
+            int pos = seq[1];
+            int[] f = readTlv(tbs, pos);
+            if ((f[0] & 0xFF) == 0xA0) {
+                pos = f[2];
+                f = readTlv(tbs, pos);
+            }
+            for (int i = 0; i < field; i++) {
+                pos = f[2];
+                f = readTlv(tbs, pos);
+            }
+            byte[] out = new byte[f[2] - pos];
+            System.arraycopy(tbs, pos, out, 0, out.length);
+            return out;
+        } catch (RuntimeException e) {
+            throw new CertificateException("malformed TBSCertificate: " + e);
+        }
+    }
+
+    /** keyIdentifier from the AuthorityKeyIdentifier extension, or null. */
+    private static byte[] authorityKeyId(X509Certificate cert) {
+        try {
+            byte[] ext = cert.getExtensionValue("2.5.29.35");
+            if (ext == null) return null;
+            int[] octets = readTlv(ext, 0);
+            int[] seq = readTlv(ext, octets[1]);
+            if (seq[1] >= seq[2]) return null;
+            int[] first = readTlv(ext, seq[1]);
+            if ((first[0] & 0xFF) != 0x80) return null;
+            byte[] out = new byte[first[2] - first[1]];
+            System.arraycopy(ext, first[1], out, 0, out.length);
+            return out;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Returns {tag, contentStart, end} for the DER element at pos. */
+    static int[] readTlv(byte[] d, int pos) {
+        int tag = d[pos] & 0xFF;
+        int len = d[pos + 1] & 0xFF;
+        int p = pos + 2;
+        if ((len & 0x80) != 0) {
+            int n = len & 0x7F;
+            len = 0;
+            for (int i = 0; i < n; i++) {
+                len = (len << 8) | (d[p++] & 0xFF);
+            }
+        }
+        if (p + len > d.length) {
+            throw new IllegalArgumentException("DER length out of range");
+        }
+        return new int[] { tag, p, p + len };
+    }
+}
@@ -0,0 +1,180 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * How long this device needs between the wake alarm and the API answering, learned from recent wakes.
+ *
+ * Each alarm wake records two times measured from the alarm: until WiFi reported connectivity and
+ * until the first byte of the /display response. The alarm is then set that far ahead of the time
+ * the next image is due, using a high percentile of the first-byte samples, so a slow access point
+ * still delivers on time and a fast one doesn't keep the radio on waiting.
+ *
+ * Samples are tagged cold (WiFi was not connected when the alarm fired, so it had to associate)
+ * or warm (the radio stayed connected through the sleep). The cold connect times are also the
+ * measured reconnect cost that WifiPowerPolicy weighs against the sleep interval.
+ *
+ * Keeps the last MAX_SAMPLES wakes in a small text file so the estimate survives restarts.
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class WakeAheadStats {
+    private static final String FILE_VERSION = "v1";
+    static final int MAX_SAMPLES = 16;
+    /** Below this many samples the caller's default is used. */
+    static final int MIN_SAMPLES = 3;
+    static final int PERCENTILE = 90;
+    static final long MIN_WAKE_AHEAD_MS = 3 * 1000;
+    static final long MAX_WAKE_AHEAD_MS = 60 * 1000;
+    /** Samples beyond this are a stuck or interrupted wake, not association time. */
+    private static final long MAX_SAMPLE_MS = 5 * 60 * 1000;
+
+    private final File file;
+    /** Oldest first; parallel arrays of size count. */
+    private final long[] connectMs = new long[MAX_SAMPLES];
+    private final long[] firstByteMs = new long[MAX_SAMPLES];
+    private final boolean[] cold = new boolean[MAX_SAMPLES];
+    private int count = 0;
+    private boolean loaded = false;
+
+    WakeAheadStats(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Records one wake: ms from alarm to connectivity and to the first response byte.
+     *
+     * @param wasCold true if WiFi was not connected when the alarm fired
+     */
+    synchronized void record(long connect, long firstByte, boolean wasCold) {
+        if (connect < 0 || firstByte < connect || firstByte > MAX_SAMPLE_MS) return;
+        load();
+        if (count == MAX_SAMPLES) {
+            System.arraycopy(connectMs, 1, connectMs, 0, count - 1);
+            System.arraycopy(firstByteMs, 1, firstByteMs, 0, count - 1);
+            System.arraycopy(cold, 1, cold, 0, count - 1);
+            count--;
+        }
+        connectMs[count] = connect;
+        firstByteMs[count] = firstByte;
+        cold[count] = wasCold;
+        count++;
+        save();
+    }
+
+    synchronized int size() {
+        load();
+        return count;
+    }
+
+    /**
+     * How far ahead of the due time to set the alarm, from wakes in the same radio state
+     * (any state if there are too few of those); defaultMs until enough wakes are recorded.
+     *
+     * @param radioOff true if WiFi will be off (or may drop) during the coming sleep
+     */
+    synchronized long wakeAheadMs(long defaultMs, boolean radioOff) {
+        load();
+        int n = countOf(radioOff);
+        long p;
+        if (n >= MIN_SAMPLES) {
+            p = percentile(firstByteMs, PERCENTILE, radioOff, true);
+        } else if (count >= MIN_SAMPLES) {
+            p = percentile(firstByteMs, PERCENTILE, false, false);
+        } else {
+            return defaultMs;
+        }
+        return Math.max(MIN_WAKE_AHEAD_MS, Math.min(MAX_WAKE_AHEAD_MS, p));
+    }
+
+    /** Median time to re-associate and get connectivity after WiFi was off; defaultMs until measured. */
+    synchronized long reconnectMs(long defaultMs) {
+        load();
+        if (countOf(true) < MIN_SAMPLES) return defaultMs;
+        return percentile(connectMs, 50, true, true);
+    }
+
+    /** Summary for the log, e.g. "first byte p90 7.2s, connect p50 4.1s over 12 wakes (9 cold)". */
+    synchronized String describe() {
+        load();
+        if (count == 0) return "no wakes recorded";
+        return "first byte p" + PERCENTILE + " " + seconds(percentile(firstByteMs, PERCENTILE, false, false))
+                + ", connect p50 " + seconds(percentile(connectMs, 50, false, false)) + " over " + count
+                + " wakes (" + countOf(true) + " cold)";
+    }
+
+    private int countOf(boolean wasCold) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (cold[i] == wasCold) n++;
+        }
+        return n;
+    }
+
+    /** Nearest-rank percentile of the samples, optionally only those with the given cold flag. */
+    private long percentile(long[] values, int pct, boolean wasCold, boolean filter) {
+        long[] sorted = new long[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (!filter || cold[i] == wasCold) sorted[n++] = values[i];
+        }
+        if (n == 0) return 0;
+        Arrays.sort(sorted, 0, n);
+        int rank = (pct * n + 99) / 100;
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+
+    static String seconds(long ms) {
+        return (ms / 1000L) + "." + ((ms % 1000L) / 100L) + "s";
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (file == null || !file.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String header = reader.readLine();
+            if (!FILE_VERSION.equals(header)) return;
+            String line;
+            while ((line = reader.readLine()) != null && count < MAX_SAMPLES) {
+                String[] parts = line.split(" ");
+                if (parts.length != 3) continue;
+                connectMs[count] = Long.parseLong(parts[0]);
+                firstByteMs[count] = Long.parseLong(parts[1]);
+                cold[count] = "1".equals(parts[2]);
+                count++;
+            }
+        } catch (Throwable t) {
+            count = 0;
+        } finally {
+            if (reader != null) {
+                try { reader.close(); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    private void save() {
+        if (file == null) return;
+        try {
+            File tmp = new File(file.getPath() + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+            pw.println(FILE_VERSION);
+            for (int i = 0; i < count; i++) {
+                pw.println(connectMs[i] + " " + firstByteMs[i] + " " + (cold[i] ? "1" : "0"));
+            }
+            pw.close();
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (Throwable t) {
+            // Losing a sample only means a slightly staler estimate.
+        }
+    }
+}
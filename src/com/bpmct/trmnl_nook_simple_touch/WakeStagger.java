@@ -0,0 +1,43 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.util.zip.CRC32;
+
+/**
+ * Spreads a fleet's fetches over the refresh period instead of letting them run in lockstep.
+ *
+ * Without it each device fetches refreshMs after its previous fetch, so devices that booted
+ * together (after a power cut) stay in phase forever. With spreading on, each device gets a fixed
+ * slot in the period derived from its device ID, and every fetch is scheduled for the next
+ * wall-clock time that is at that slot modulo refreshMs. The cadence stays exactly refreshMs (it
+ * no longer drifts by the fetch duration either); only the phase is moved, once.
+ *
+ * The slots cover the whole period. A shorter window would put every device's slot in the same
+ * first part of each period, which concentrates the fleet rather than spreading it.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class WakeStagger {
+    private WakeStagger() {}
+
+    /** This device's slot within the refresh period, in whole seconds (as ms). */
+    static long offsetMs(String deviceId, long refreshMs) {
+        if (deviceId == null || refreshMs < 1000) return 0;
+        CRC32 crc = new CRC32();
+        byte[] id = deviceId.trim().toUpperCase().getBytes();
+        crc.update(id, 0, id.length);
+        return (crc.getValue() % (refreshMs / 1000)) * 1000;
+    }
+
+    /**
+     * Delay from now until the next time t with t mod refreshMs == offsetMs. Slots closer than half
+     * a period are skipped so the transition cycle is never much shorter than the normal cadence.
+     */
+    static long delayToSlot(long now, long refreshMs, long offsetMs) {
+        if (refreshMs <= 0) return 0;
+        long phase = offsetMs % refreshMs;
+        long delay = (phase - now % refreshMs) % refreshMs;
+        if (delay < 0) delay += refreshMs;
+        if (delay < refreshMs / 2) delay += refreshMs;
+        return delay;
+    }
+}
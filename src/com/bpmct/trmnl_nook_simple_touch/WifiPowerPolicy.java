@@ -0,0 +1,73 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+/**
+ * Decides per cycle whether to turn WiFi off for the coming sleep.
+ *
+ * Turning the radio off saves its idle (associated, power-save) draw for the whole sleep, but the
+ * next wake pays a full re-association plus DHCP at several times that draw, and the image
+ * arrives that much later. The break-even sleep is the measured reconnect time multiplied by
+ * ASSOCIATE_TO_IDLE_POWER_RATIO: shorter sleeps keep WiFi on, longer ones drop it. Sleeps longer
+ * than MAX_KEEP_ON_SLEEP_MS always drop it, whatever the estimate says.
+ *
+ * The ratio is a rough figure for the NOOK's radio (scanning/associating ~200 mA vs ~10 mA
+ * associated idle); the decision and its outcome are logged so it can be tuned from field logs.
+ *
+ * No Android dependencies so it can be exercised from tools/bench on a desktop JVM.
+ */
+final class WifiPowerPolicy {
+    static final int ASSOCIATE_TO_IDLE_POWER_RATIO = 20;
+    static final long MAX_KEEP_ON_SLEEP_MS = 30 * 60 * 1000;
+
+    final boolean keepWifiOn;
+    final long sleepMs;
+    final long reconnectMs;
+    final long breakEvenMs;
+    /** Battery percent when the decision was made, or -1 if unknown. */
+    final int batteryPercent;
+    final long decidedAt;
+
+    private WifiPowerPolicy(boolean keepWifiOn, long sleepMs, long reconnectMs, long breakEvenMs,
+            int batteryPercent, long decidedAt) {
+        this.keepWifiOn = keepWifiOn;
+        this.sleepMs = sleepMs;
+        this.reconnectMs = reconnectMs;
+        this.breakEvenMs = breakEvenMs;
+        this.batteryPercent = batteryPercent;
+        this.decidedAt = decidedAt;
+    }
+
+    /**
+     * @param sleepMs how long the device is about to sleep
+     * @param reconnectMs measured time to reconnect after WiFi was off (see WakeAheadStats.reconnectMs)
+     */
+    static WifiPowerPolicy decide(long sleepMs, long reconnectMs, int batteryPercent, long now) {
+        long breakEven = Math.min(reconnectMs * ASSOCIATE_TO_IDLE_POWER_RATIO, MAX_KEEP_ON_SLEEP_MS);
+        return new WifiPowerPolicy(sleepMs <= breakEven, sleepMs, reconnectMs, breakEven, batteryPercent, now);
+    }
+
+    /** Log line for the decision, e.g. "wifi policy: keep on (sleep 240s <= break-even 300s, reconnect 15.0s)". */
+    String describe() {
+        return "wifi policy: " + (keepWifiOn ? "keep on" : "turn off")
+                + " (sleep " + (sleepMs / 1000L) + "s " + (keepWifiOn ? "<=" : ">")
+                + " break-even " + (breakEvenMs / 1000L) + "s, reconnect " + WakeAheadStats.seconds(reconnectMs)
+                + (batteryPercent >= 0 ? ", battery " + batteryPercent + "%" : "") + ")";
+    }
+
+    /**
+     * Log line for what happened at the following wake.
+     *
+     * @param connectedAtWake whether WiFi was still connected when the alarm fired
+     */
+    String describeOutcome(boolean connectedAtWake, int batteryNow, long now) {
+        StringBuilder sb = new StringBuilder("wifi policy outcome: ");
+        sb.append(keepWifiOn ? "kept on" : "turned off");
+        if (keepWifiOn) {
+            sb.append(connectedAtWake ? ", still connected at wake" : ", connection lost during sleep");
+        }
+        sb.append(", slept ").append((now - decidedAt) / 1000L).append("s");
+        if (batteryPercent >= 0 && batteryNow >= 0) {
+            sb.append(", battery ").append(batteryPercent).append("% -> ").append(batteryNow).append("%");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+import org.spongycastle.tls.DefaultTlsClient;
+import org.spongycastle.tls.ProtocolVersion;
+import org.spongycastle.tls.ServerOnlyTlsAuthentication;
+import org.spongycastle.tls.TlsAuthentication;
+import org.spongycastle.tls.TlsClientProtocol;
+import org.spongycastle.tls.TlsServerCertificate;
+
+/**
+ * Handshake time and bulk decryption throughput per cipher suite against local TLS servers
+ * (openssl s_server -WWW serving a test file), one suite offered at a time.
+ *
+ * usage: CipherBench <rsaPort> <ecdsaPort> <path> [handshakes]
+ */
+public class CipherBench {
+    public static void main(String[] args) throws Exception {
+        int rsaPort = Integer.parseInt(args[0]);
+        int ecdsaPort = Integer.parseInt(args[1]);
+        String path = args[2];
+        int handshakes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        PrewarmedTlsCrypto crypto = new PrewarmedTlsCrypto(new SecureRandom());
+        int[] suites = TlsCipherSuites.forOrder(TlsCipherSuites.ORDER_CHACHA_FIRST);
+
+        // Warm every code path once so the numbers compare steady-state costs.
+        for (int i = 0; i < suites.length; i++) {
+            fetch(crypto, suites[i], portFor(suites[i], rsaPort, ecdsaPort), path);
+        }
+
+        System.out.println("suite                            handshake   download   throughput");
+        for (int i = 0; i < suites.length; i++) {
+            int port = portFor(suites[i], rsaPort, ecdsaPort);
+            long handshakeTotal = 0;
+            for (int h = 0; h < handshakes; h++) {
+                handshakeTotal += fetch(crypto, suites[i], port, null)[0];
+            }
+            long[] result = fetch(crypto, suites[i], port, path);
+            double seconds = result[1] / 1000.0;
+            System.out.println(pad(TlsCipherSuites.name(suites[i]), 32)
+                    + pad((handshakeTotal / handshakes) + "ms", 12)
+                    + pad(result[1] + "ms", 11)
+                    + (seconds > 0 ? (long) (result[2] / 1024 / seconds) + " KB/s" : "-"));
+        }
+    }
+
+    private static int portFor(int suite, int rsaPort, int ecdsaPort) {
+        return TlsCipherSuites.name(suite).indexOf("ECDSA") >= 0 ? ecdsaPort : rsaPort;
+    }
+
+    /** Returns {handshakeMs, downloadMs, bytes}; with a null path only the handshake is done. */
+    private static long[] fetch(PrewarmedTlsCrypto crypto, final int suite, int port, String path) throws Exception {
+        long start = System.currentTimeMillis();
+        Socket socket = new Socket("127.0.0.1", port);
+        TlsClientProtocol protocol = new TlsClientProtocol(socket.getInputStream(), socket.getOutputStream());
+        protocol.connect(new DefaultTlsClient(crypto) {
+            public ProtocolVersion getMinimumVersion() {
+                return ProtocolVersion.TLSv12;
+            }
+
+            public int[] getCipherSuites() {
+                return new int[] { suite };
+            }
+
+            public TlsAuthentication getAuthentication() {
+                return new ServerOnlyTlsAuthentication() {
+                    public void notifyServerCertificate(TlsServerCertificate serverCertificate) {
+                    }
+                };
+            }
+        });
+        long handshakeMs = System.currentTimeMillis() - start;
+        long bytes = 0;
+        long downloadMs = 0;
+        if (path != null) {
+            long downloadStart = System.currentTimeMillis();
+            OutputStream out = protocol.getOutputStream();
+            out.write(("GET /" + path + " HTTP/1.0\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+            InputStream in = protocol.getInputStream();
+            byte[] buf = new byte[16384];
+            int n;
+            try {
+                while ((n = in.read(buf)) > 0) {
+                    bytes += n;
+                }
+            } catch (java.io.IOException e) {
+                // s_server -WWW closes without close_notify after the file.
+            }
+            downloadMs = System.currentTimeMillis() - downloadStart;
+        }
+        try {
+            protocol.close();
+        } catch (java.io.IOException ignored) {
+        }
+        socket.close();
+        return new long[] { handshakeMs, downloadMs, bytes };
+    }
+
+    private static String pad(String s, int width) {
+        StringBuilder sb = new StringBuilder(s);
+        while (sb.length() < width) sb.append(' ');
+        return sb.toString();
+    }
+}
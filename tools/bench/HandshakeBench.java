@@ -0,0 +1,153 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+import org.spongycastle.tls.CipherSuite;
+import org.spongycastle.tls.DefaultTlsClient;
+import org.spongycastle.tls.NamedGroup;
+import org.spongycastle.tls.ProtocolVersion;
+import org.spongycastle.tls.ServerOnlyTlsAuthentication;
+import org.spongycastle.tls.TlsAuthentication;
+import org.spongycastle.tls.TlsClientProtocol;
+import org.spongycastle.tls.TlsServerCertificate;
+import org.spongycastle.tls.TlsSession;
+
+/**
+ * First-handshake latency in a fresh JVM against a local TLS server (openssl s_server -www),
+ * with and without PrewarmedTlsCrypto's warm-up having run during a simulated WiFi wait.
+ * "resume" instead times a full handshake and then one resuming its session, as the client does
+ * for the image request after /display and for a Next tap after a background fetch.
+ *
+ * usage: HandshakeBench cold|warm|resume <port> [wifiWaitMs]
+ */
+public class HandshakeBench {
+    public static void main(String[] args) throws Exception {
+        if ("resume".equals(args[0])) {
+            resume(Integer.parseInt(args[1]));
+            return;
+        }
+        boolean warm = "warm".equals(args[0]);
+        int port = Integer.parseInt(args[1]);
+        long wifiWaitMs = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+        long wake = System.currentTimeMillis();
+        PrewarmedTlsCrypto crypto;
+        if (warm) {
+            // What the alarm path does: warm up on a background thread while "WiFi associates".
+            final PrewarmedTlsCrypto[] holder = new PrewarmedTlsCrypto[1];
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    PrewarmedTlsCrypto c = new PrewarmedTlsCrypto(new SecureRandom());
+                    c.pregenerate(NamedGroup.secp256r1);
+                    c.warmSymmetric();
+                    try {
+                        Class.forName("org.spongycastle.tls.TlsClientProtocol");
+                        Class.forName("org.spongycastle.tls.TlsECDHEKeyExchange");
+                    } catch (ClassNotFoundException e) {
+                        throw new RuntimeException(e);
+                    }
+                    holder[0] = c;
+                }
+            });
+            t.start();
+            Thread.sleep(wifiWaitMs);
+            t.join();
+            crypto = holder[0];
+        } else {
+            Thread.sleep(wifiWaitMs);
+            crypto = null;
+        }
+
+        long start = System.currentTimeMillis();
+        if (crypto == null) {
+            crypto = new PrewarmedTlsCrypto(new SecureRandom());
+        }
+        final PrewarmedTlsCrypto c = crypto;
+        Socket socket = new Socket("127.0.0.1", port);
+        TlsClientProtocol protocol = new TlsClientProtocol(socket.getInputStream(), socket.getOutputStream());
+        protocol.connect(new DefaultTlsClient(c) {
+            public ProtocolVersion getMinimumVersion() {
+                return ProtocolVersion.TLSv12;
+            }
+
+            public int[] getCipherSuites() {
+                return new int[] { CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+            }
+
+            public TlsAuthentication getAuthentication() {
+                return new ServerOnlyTlsAuthentication() {
+                    public void notifyServerCertificate(TlsServerCertificate serverCertificate) {
+                    }
+                };
+            }
+        });
+        long handshakeMs = System.currentTimeMillis() - start;
+        OutputStream out = protocol.getOutputStream();
+        out.write("GET / HTTP/1.0\r\n\r\n".getBytes("US-ASCII"));
+        out.flush();
+        InputStream in = protocol.getInputStream();
+        byte[] buf = new byte[4096];
+        while (in.read(buf) > 0) {
+            // drain
+        }
+        long firstResponseMs = System.currentTimeMillis() - start;
+        protocol.close();
+        socket.close();
+        System.out.println(args[0] + ": handshake " + handshakeMs + "ms, response " + firstResponseMs
+                + "ms after network up (" + (System.currentTimeMillis() - wake) + "ms since wake)");
+    }
+
+    private static void resume(int port) throws Exception {
+        PrewarmedTlsCrypto crypto = new PrewarmedTlsCrypto(new SecureRandom());
+        // Warm-up handshake so class loading doesn't count against the full one.
+        handshake(crypto, port, null);
+        TlsSession[] session = new TlsSession[1];
+        long start = System.currentTimeMillis();
+        handshake(crypto, port, session);
+        long fullMs = System.currentTimeMillis() - start;
+        TlsSession offered = session[0];
+        start = System.currentTimeMillis();
+        handshake(crypto, port, session);
+        long resumedMs = System.currentTimeMillis() - start;
+        boolean resumed = offered != null && session[0] != null
+                && java.util.Arrays.equals(offered.getSessionID(), session[0].getSessionID());
+        System.out.println("resume: full handshake " + fullMs + "ms, " + (resumed ? "resumed " : "NOT resumed ")
+                + resumedMs + "ms");
+    }
+
+    /** One handshake offering session[0] (if set); stores the resulting resumable session there. */
+    private static void handshake(PrewarmedTlsCrypto crypto, int port, final TlsSession[] session) throws Exception {
+        Socket socket = new Socket("127.0.0.1", port);
+        TlsClientProtocol protocol = new TlsClientProtocol(socket.getInputStream(), socket.getOutputStream());
+        protocol.connect(new DefaultTlsClient(crypto) {
+            public ProtocolVersion getMinimumVersion() {
+                return ProtocolVersion.TLSv12;
+            }
+
+            public int[] getCipherSuites() {
+                return new int[] { CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256 };
+            }
+
+            public TlsSession getSessionToResume() {
+                return session != null ? session[0] : null;
+            }
+
+            public void notifyHandshakeComplete() throws java.io.IOException {
+                super.notifyHandshakeComplete();
+                if (session != null) session[0] = context.getResumableSession();
+            }
+
+            public TlsAuthentication getAuthentication() {
+                return new ServerOnlyTlsAuthentication() {
+                    public void notifyServerCertificate(TlsServerCertificate serverCertificate) {
+                    }
+                };
+            }
+        });
+        protocol.close();
+        socket.close();
+    }
+}
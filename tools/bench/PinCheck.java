@@ -0,0 +1,80 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+/**
+ * Checks the SPKI pin decision (SpkiPins) for a pinned private CA: the chain it issued for the
+ * host passes, and a wrong host, a leaf from another CA, a leaf issued by a non-CA certificate
+ * and an expired chain are all rejected. Certificates come from run-bench.sh.
+ *
+ * usage: PinCheck <dir>  (ca.pem, leaf.pem, rogue-leaf.pem, sub-leaf.pem for bench.local)
+ */
+public class PinCheck {
+    private static final long DAY_MS = 24L * 60L * 60L * 1000L;
+
+    public static void main(String[] args) throws Exception {
+        String dir = args[0] + "/";
+        X509Certificate ca = read(dir + "ca.pem");
+        X509Certificate leaf = read(dir + "leaf.pem");
+        X509Certificate rogue = read(dir + "rogue-leaf.pem");
+        X509Certificate sub = read(dir + "sub-leaf.pem");
+        byte[][] pins = SpkiPins.parse(hex(MessageDigest.getInstance("SHA-256").digest(ca.getPublicKey().getEncoded())));
+        Date now = new Date();
+
+        check("CA-pinned chain for its host", true, pins, new X509Certificate[] { leaf, ca }, "bench.local", now);
+        check("CA-pinned chain for the wrong host", false, pins, new X509Certificate[] { leaf, ca }, "other.local", now);
+        check("leaf from another CA in front of the pinned CA", false, pins,
+                new X509Certificate[] { rogue, ca }, "bench.local", now);
+        check("leaf issued by a non-CA leaf", false, pins, new X509Certificate[] { sub, leaf, ca }, "bench.local", now);
+        check("expired chain", false, pins, new X509Certificate[] { leaf, ca }, "bench.local",
+                new Date(now.getTime() + 60 * DAY_MS));
+        System.out.println("pins: all checks passed");
+    }
+
+    private static void check(String label, boolean expectAccept, byte[][] pins, X509Certificate[] chain,
+            String host, Date now) throws Exception {
+        byte[][] encoded = new byte[chain.length][];
+        for (int i = 0; i < chain.length; i++) {
+            encoded[i] = chain[i].getEncoded();
+        }
+        String outcome;
+        boolean accepted;
+        try {
+            int pinned = SpkiPins.pinnedIndex(pins, encoded);
+            if (pinned < 0) throw new CertificateException("no pinned key");
+            if (pinned > 0) SpkiPins.verifyBelowPin(chain, pinned, host, now);
+            accepted = true;
+            outcome = "accepted";
+        } catch (CertificateException e) {
+            accepted = false;
+            outcome = "rejected (" + e.getMessage() + ")";
+        }
+        System.out.println(label + ": " + outcome);
+        if (accepted != expectAccept) {
+            throw new IllegalStateException(label + ": expected " + (expectAccept ? "accept" : "reject"));
+        }
+    }
+
+    private static X509Certificate read(String path) throws Exception {
+        InputStream in = new FileInputStream(path);
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < b.length; i++) {
+            sb.append(Integer.toHexString((b[i] & 0xFF) | 0x100).substring(1));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.util.Random;
+
+/**
+ * Fleet simulation for WakeStagger: N virtual devices all power up within the same minute
+ * (a power cut ends), then fetch every refreshMs for several hours. Reports server requests
+ * per 10 s bucket in steady state (peak and mean over busy buckets) with spreading off and on,
+ * and the mean per-device interval to show the cadence is unchanged. Fails if spreading makes
+ * the peak worse.
+ *
+ * usage: StaggerSim [devices] [refreshSeconds] [hours]
+ */
+public class StaggerSim {
+    private static final long BUCKET_MS = 10 * 1000;
+
+    public static void main(String[] args) {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long refreshMs = (args.length > 1 ? Long.parseLong(args[1]) : 900) * 1000L;
+        int hours = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        System.out.println(devices + " devices, refresh " + (refreshMs / 1000) + "s, " + hours + "h, requests per 10s bucket"
+                + " (steady state, after the first hour)");
+        int off = simulate(devices, refreshMs, hours, false);
+        int on = simulate(devices, refreshMs, hours, true);
+        if (on > off) {
+            throw new IllegalStateException("spreading raised the peak from " + off + " to " + on);
+        }
+    }
+
+    /** Returns the steady-state peak requests per bucket. */
+    private static int simulate(int devices, long refreshMs, int hours, boolean spread) {
+        Random random = new Random(42);
+        long start = 1700000000000L + random.nextInt(3600) * 1000L;
+        long end = start + hours * 3600L * 1000L;
+        long steadyFrom = start + 3600L * 1000L;
+        int[] buckets = new int[(int) ((end - start) / BUCKET_MS) + 1];
+        long intervalSum = 0;
+        long intervalCount = 0;
+
+        for (int d = 0; d < devices; d++) {
+            String deviceId = macFor(random);
+            long offset = WakeStagger.offsetMs(deviceId, refreshMs);
+            // Boot within a minute of power returning; first fetch once WiFi is up.
+            long t = start + random.nextInt(60 * 1000) + wifiMs(random);
+            long last = -1;
+            while (t < end) {
+                if (t >= steadyFrom) buckets[(int) ((t - start) / BUCKET_MS)]++;
+                if (last >= 0) {
+                    intervalSum += t - last;
+                    intervalCount++;
+                }
+                last = t;
+                long done = t + 2000 + random.nextInt(4000);
+                long delay = spread ? WakeStagger.delayToSlot(done, refreshMs, offset) : refreshMs;
+                // Alarm fires WIFI_WARMUP_MS early; the request goes out once the AP associates.
+                long warmup = 15 * 1000;
+                t = done + delay - warmup + wifiMs(random);
+            }
+        }
+
+        int peak = 0;
+        long total = 0;
+        int busy = 0;
+        int from = (int) ((steadyFrom - start) / BUCKET_MS);
+        for (int i = from; i < buckets.length; i++) {
+            peak = Math.max(peak, buckets[i]);
+            total += buckets[i];
+            if (buckets[i] > 0) busy++;
+        }
+        System.out.println("  spread " + pad(spread ? "on" : "off", 4)
+                + "  peak " + pad(String.valueOf(peak), 4)
+                + "  mean/busy bucket " + pad(String.valueOf(busy > 0 ? total / busy : 0), 4)
+                + "  busy buckets " + pad(busy + "/" + (buckets.length - from), 9)
+                + "  mean interval " + (intervalCount > 0 ? intervalSum / intervalCount / 1000 : 0) + "s");
+        return peak;
+    }
+
+    /** Time from alarm to connectivity: most APs 3-8 s, some up to 25 s. */
+    private static long wifiMs(Random random) {
+        return random.nextInt(10) == 0 ? 8000 + random.nextInt(17000) : 3000 + random.nextInt(5000);
+    }
+
+    private static String macFor(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            if (i > 0) sb.append(':');
+            String hex = Integer.toHexString(random.nextInt(256)).toUpperCase();
+            if (hex.length() < 2) sb.append('0');
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+
+    private static String pad(String s, int width) {
+        StringBuilder sb = new StringBuilder(s);
+        while (sb.length() < width) sb.append(' ');
+        return sb.toString();
+    }
+}
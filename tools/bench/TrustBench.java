@@ -0,0 +1,69 @@
+package com.bpmct.trmnl_nook_simple_touch;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Cold-start cost of trusting a server chain: PEM bundle + PKIX (old path) versus the
+ * precompiled trust index (TrustAnchorIndex). Run each mode in a fresh JVM via run-bench.sh
+ * so the first iteration reflects process cold start.
+ *
+ * usage: TrustBench pem|index <ca_bundle.pem> <trust_index.bin> <chain.pem> [iterations]
+ */
+public class TrustBench {
+    public static void main(String[] args) throws Exception {
+        String mode = args[0];
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        InputStream chainIn = new FileInputStream(args[3]);
+        Collection chainCerts = cf.generateCertificates(chainIn);
+        chainIn.close();
+        X509Certificate[] chain = (X509Certificate[]) chainCerts.toArray(new X509Certificate[chainCerts.size()]);
+
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            if ("pem".equals(mode)) {
+                runPem(args[1], chain);
+            } else {
+                runIndex(args[2], chain);
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        long cold = times[0];
+        java.util.Arrays.sort(times, 1, times.length);
+        long warm = times[1 + (times.length - 1) / 2];
+        System.out.println(mode + ": cold " + (cold / 1000000.0) + " ms, warm median " + (warm / 1000000.0) + " ms");
+    }
+
+    private static void runPem(String bundle, X509Certificate[] chain) throws Exception {
+        InputStream is = new FileInputStream(bundle);
+        Collection certs = CertificateFactory.getInstance("X.509").generateCertificates(is);
+        is.close();
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        ks.load(null, null);
+        int n = 0;
+        for (Iterator it = certs.iterator(); it.hasNext();) {
+            ks.setCertificateEntry("ca-" + (n++), (java.security.cert.Certificate) it.next());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ks);
+        X509TrustManager tm = (X509TrustManager) tmf.getTrustManagers()[0];
+        tm.checkServerTrusted(chain, chain[0].getPublicKey().getAlgorithm());
+    }
+
+    private static void runIndex(String index, X509Certificate[] chain) throws Exception {
+        InputStream is = new FileInputStream(index);
+        TrustAnchorIndex anchors = TrustAnchorIndex.load(is);
+        is.close();
+        anchors.validate(chain, new Date());
+    }
+}
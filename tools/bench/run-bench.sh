@@ -0,0 +1,129 @@
+#!/usr/bin/env bash
+# Desktop-JVM benchmarks for the Android-free pieces of the client.
+#
+# usage: tools/bench/run-bench.sh trust|handshake|ciphers|json|stagger|pins
+#
+# Needs a JDK and the SpongyCastle JARs in libs/ (see libs/README_SPONGYCASTLE.md).
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/../.." && pwd)"
+SRC="${ROOT}/src/com/bpmct/trmnl_nook_simple_touch"
+WORK="$(mktemp -d)"
+trap 'rm -rf "${WORK}"' EXIT
+
+CP="$(ls -1 "${ROOT}"/libs/*.jar 2>/dev/null | tr '\n' ':')"
+
+compile() {
+  mkdir -p "${WORK}/classes"
+  javac -nowarn -encoding UTF-8 -cp "${CP}" -d "${WORK}/classes" "$@"
+}
+
+run() {
+  java -cp "${WORK}/classes:${CP}" "$@"
+}
+
+# Throwaway root -> intermediate -> leaf chain, with the root appended to the real bundle.
+make_test_chain() {
+  cd "${WORK}"
+  openssl req -x509 -newkey rsa:2048 -nodes -keyout root.key -out root.pem -days 30 \
+    -subj "/CN=Bench Root" -addext "basicConstraints=critical,CA:true" 2>/dev/null
+  openssl req -newkey rsa:2048 -nodes -keyout int.key -out int.csr -subj "/CN=Bench Intermediate" 2>/dev/null
+  printf "basicConstraints=critical,CA:true,pathlen:0\nsubjectKeyIdentifier=hash\nauthorityKeyIdentifier=keyid\n" > int.ext
+  openssl x509 -req -in int.csr -CA root.pem -CAkey root.key -CAcreateserial -days 30 -out int.pem -extfile int.ext 2>/dev/null
+  openssl req -newkey rsa:2048 -nodes -keyout leaf.key -out leaf.csr -subj "/CN=bench.local" 2>/dev/null
+  printf "subjectAltName=DNS:bench.local\nauthorityKeyIdentifier=keyid\n" > leaf.ext
+  openssl x509 -req -in leaf.csr -CA int.pem -CAkey int.key -CAcreateserial -days 30 -out leaf.pem -extfile leaf.ext 2>/dev/null
+  cat leaf.pem int.pem > chain.pem
+  cat "${ROOT}/res/raw/ca_bundle.pem" root.pem > bundle.pem
+  python3 "${ROOT}/tools/build-trust-index.py" bundle.pem trust_index.bin >/dev/null
+  cd - >/dev/null
+}
+
+# Private CA with a leaf for bench.local, plus a leaf from another CA and one issued by the leaf.
+make_pin_chain() {
+  cd "${WORK}"
+  for ca in ca rogue; do
+    openssl req -x509 -newkey rsa:2048 -nodes -keyout "${ca}.key" -out "${ca}.pem" -days 30 \
+      -subj "/CN=Bench ${ca} CA" -addext "basicConstraints=critical,CA:true" 2>/dev/null
+  done
+  printf "subjectAltName=DNS:bench.local\nbasicConstraints=critical,CA:false\n" > leaf.ext
+  openssl req -newkey rsa:2048 -nodes -keyout leaf.key -out leaf.csr -subj "/CN=bench.local" 2>/dev/null
+  openssl x509 -req -in leaf.csr -CA ca.pem -CAkey ca.key -CAcreateserial -days 30 -out leaf.pem -extfile leaf.ext 2>/dev/null
+  openssl x509 -req -in leaf.csr -CA rogue.pem -CAkey rogue.key -CAcreateserial -days 30 -out rogue-leaf.pem \
+    -extfile leaf.ext 2>/dev/null
+  openssl x509 -req -in leaf.csr -CA leaf.pem -CAkey leaf.key -CAcreateserial -days 30 -out sub-leaf.pem \
+    -extfile leaf.ext 2>/dev/null
+  cd - >/dev/null
+}
+
+# Local TLS 1.2 server standing in for the API.
+# usage: start_tls_server <port> <rsa|ecdsa> [-www|-WWW]  (-WWW serves files from ${WORK})
+SERVER_PIDS=""
+start_tls_server() {
+  local port="$1" key="${2:-rsa}" mode="${3:--www}"
+  cd "${WORK}"
+  if [ "${key}" = ecdsa ]; then
+    openssl req -x509 -newkey ec -pkeyopt ec_paramgen_curve:P-256 -nodes -keyout "server-${key}.key" \
+      -out "server-${key}.pem" -days 2 -subj "/CN=localhost" 2>/dev/null
+  else
+    openssl req -x509 -newkey rsa:2048 -nodes -keyout "server-${key}.key" -out "server-${key}.pem" -days 2 \
+      -subj "/CN=localhost" 2>/dev/null
+  fi
+  openssl s_server -quiet "${mode}" -tls1_2 -accept "${port}" \
+    -cert "server-${key}.pem" -key "server-${key}.key" >/dev/null 2>&1 &
+  SERVER_PIDS="${SERVER_PIDS} $!"
+  cd - >/dev/null
+  trap 'kill ${SERVER_PIDS} 2>/dev/null; rm -rf "${WORK}"' EXIT
+  sleep 1
+}
+
+case "${1:-}" in
+  trust)
+    compile "${SRC}/TrustAnchorIndex.java" "${ROOT}/tools/bench/TrustBench.java"
+    make_test_chain
+    for mode in pem index; do
+      run com.bpmct.trmnl_nook_simple_touch.TrustBench "${mode}" \
+        "${WORK}/bundle.pem" "${WORK}/trust_index.bin" "${WORK}/chain.pem"
+    done
+    ;;
+  handshake)
+    compile "${SRC}/PrewarmedTlsCrypto.java" "${ROOT}/tools/bench/HandshakeBench.java"
+    start_tls_server 44330 rsa
+    for i in 1 2 3; do
+      for mode in cold warm; do
+        run com.bpmct.trmnl_nook_simple_touch.HandshakeBench "${mode}" 44330
+      done
+    done
+    run com.bpmct.trmnl_nook_simple_touch.HandshakeBench resume 44330
+    ;;
+  ciphers)
+    compile "${SRC}/PrewarmedTlsCrypto.java" "${SRC}/TlsCipherSuites.java" "${ROOT}/tools/bench/CipherBench.java"
+    head -c 4194304 /dev/urandom > "${WORK}/image.bin"
+    start_tls_server 44331 rsa -WWW
+    start_tls_server 44332 ecdsa -WWW
+    run com.bpmct.trmnl_nook_simple_touch.CipherBench 44331 44332 image.bin
+    ;;
+  json)
+    # org.json is part of Android; on the desktop fetch the version Android 2.1 ships.
+    curl -sfL -o "${WORK}/json.jar" https://repo1.maven.org/maven2/org/json/json/20090211/json-20090211.jar
+    CP="${CP}${WORK}/json.jar"
+    compile "${SRC}/DisplayResponseJson.java" "${ROOT}/tools/bench/JsonBench.java"
+    run com.bpmct.trmnl_nook_simple_touch.JsonBench
+    ;;
+  stagger)
+    compile "${SRC}/WakeStagger.java" "${ROOT}/tools/bench/StaggerSim.java"
+    for refresh in 300 900 3600; do
+      run com.bpmct.trmnl_nook_simple_touch.StaggerSim 500 "${refresh}" 6
+    done
+    ;;
+  pins)
+    compile "${SRC}/SpkiPins.java" "${SRC}/CertHostnames.java" "${SRC}/TrustAnchorIndex.java" \
+      "${ROOT}/tools/bench/PinCheck.java"
+    make_pin_chain
+    run com.bpmct.trmnl_nook_simple_touch.PinCheck "${WORK}"
+    ;;
+  *)
+    echo "usage: $0 trust|handshake|ciphers|json|stagger|pins" >&2
+    exit 2
+    ;;
+esac
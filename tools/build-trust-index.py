@@ -0,0 +1,131 @@
+#!/usr/bin/env python3
+"""Compile the PEM CA bundle into the indexed trust anchor store read by TrustAnchorIndex.
+
+Parsing 140+ PEM certificates with CertificateFactory on a NOOK takes seconds, and
+every process paid that on its first HTTPS request. This runs at build time instead
+(see custom_rules.xml) and writes a table the app can binary-search by issuer, so
+only the one or two anchors a server chain actually needs are ever parsed.
+
+Layout (big-endian):
+    magic   "TRTI"
+    u8      version (1)
+    u16     entry count
+    entries, sorted by subject hash, 24 bytes each:
+        8 bytes  SHA-1(subject DER)[:8]
+        8 bytes  key identifier[:8] (SubjectKeyIdentifier, or SHA-1 of the key bits)
+        u32      offset of the certificate DER in the blob area
+        u32      length of the certificate DER
+    blob area: concatenated DER certificates
+"""
+
+import base64
+import hashlib
+import struct
+import sys
+
+MAGIC = b"TRTI"
+VERSION = 1
+SKI_OID = bytes([0x06, 0x03, 0x55, 0x1D, 0x0E])  # 2.5.29.14
+
+
+def read_tlv(data, pos):
+    """Return (tag, content_start, end) for the DER element at pos."""
+    tag = data[pos]
+    length = data[pos + 1]
+    pos += 2
+    if length & 0x80:
+        n = length & 0x7F
+        length = int.from_bytes(data[pos:pos + n], "big")
+        pos += n
+    return tag, pos, pos + length
+
+
+def children(data, start, end):
+    pos = start
+    while pos < end:
+        tag, content, nxt = read_tlv(data, pos)
+        yield tag, pos, content, nxt
+        pos = nxt
+
+
+def parse_cert(der):
+    """Return (subject_der, key_id) for a DER certificate."""
+    _, cert_content, cert_end = read_tlv(der, 0)
+    _, tbs_start, tbs_content, tbs_end = next(children(der, cert_content, cert_end))
+    fields = list(children(der, tbs_content, tbs_end))
+    if fields and fields[0][0] == 0xA0:  # explicit [0] version
+        fields = fields[1:]
+    # serial, signature, issuer, validity, subject, subjectPublicKeyInfo, [extensions]
+    subject = der[fields[4][1]:fields[4][3]]
+    spki = fields[5]
+    key_id = None
+    for tag, _, content, end in fields[6:]:
+        if tag != 0xA3:
+            continue
+        _, exts_content, exts_end = read_tlv(der, content)
+        for _, ext_start, ext_content, ext_end in children(der, exts_content, exts_end):
+            if der[ext_content:ext_content + len(SKI_OID)] != SKI_OID:
+                continue
+            parts = list(children(der, ext_content, ext_end))
+            octets = parts[-1]
+            _, ski_content, ski_end = read_tlv(der, octets[2])
+            key_id = der[ski_content:ski_end]
+    if key_id is None:
+        # RFC 5280 method 1: SHA-1 of the subjectPublicKey BIT STRING (minus unused-bits byte).
+        parts = list(children(der, spki[2], spki[3]))
+        bits = parts[1]
+        key_id = hashlib.sha1(der[bits[2] + 1:bits[3]]).digest()
+    return subject, key_id
+
+
+def read_pem(path):
+    certs = []
+    lines = None
+    with open(path, "r", encoding="ascii") as f:
+        for line in f:
+            line = line.strip()
+            if line == "-----BEGIN CERTIFICATE-----":
+                lines = []
+            elif line == "-----END CERTIFICATE-----":
+                if lines is not None:
+                    certs.append(base64.b64decode("".join(lines)))
+                lines = None
+            elif lines is not None:
+                lines.append(line)
+    return certs
+
+
+def main() -> int:
+    if len(sys.argv) != 3:
+        print("usage: build-trust-index.py <ca_bundle.pem> <trust_index.bin>", file=sys.stderr)
+        return 2
+
+    entries = []
+    seen = set()
+    for der in read_pem(sys.argv[1]):
+        if der in seen:
+            continue
+        seen.add(der)
+        subject, key_id = parse_cert(der)
+        subject_hash = hashlib.sha1(subject).digest()[:8]
+        entries.append((subject_hash, (key_id + bytes(8))[:8], der))
+    entries.sort(key=lambda e: (e[0], e[1], e[2]))
+
+    out = bytearray()
+    out += MAGIC
+    out += struct.pack(">BH", VERSION, len(entries))
+    offset = 0
+    for subject_hash, key_id, der in entries:
+        out += subject_hash + key_id + struct.pack(">II", offset, len(der))
+        offset += len(der)
+    for _, _, der in entries:
+        out += der
+
+    with open(sys.argv[2], "wb") as f:
+        f.write(out)
+    print(f"trust index: {len(entries)} anchors, {len(out)} bytes -> {sys.argv[2]}")
+    return 0
+
+
+if __name__ == "__main__":
+    raise SystemExit(main())